@@ -30,6 +30,13 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+
+    testOptions {
+        // 讓 JVM 單元測試中的 android.util.Log 等呼叫回傳預設值而不是丟出例外
+        unitTests.isReturnDefaultValues = true
+        // Robolectric 測試需要 Android 資源與 SQLite
+        unitTests.isIncludeAndroidResources = true
+    }
 }
 
 dependencies {
@@ -45,9 +52,17 @@ dependencies {
     implementation("com.journeyapps:zxing-android-embedded:4.3.0")
     implementation("org.json:json:20231013")
     implementation("io.socket:socket.io-client:2.1.0")
+    implementation("org.msgpack:msgpack-core:0.9.8")
+    implementation("com.google.code.gson:gson:2.10.1")
 
     // 測試依賴（可選）
     testImplementation("junit:junit:4.13.2")
+    testImplementation("org.robolectric:robolectric:4.11.1")
     androidTestImplementation("androidx.test.ext:junit:1.2.1")
     androidTestImplementation("androidx.test.espresso:espresso-core:3.6.1")
-}
\ No newline at end of file
+}
+
+// 效能量測預設不執行，./gradlew test -Pbenchmarks 才開啟（見測試中的 Benchmarks）
+tasks.withType<Test>().configureEach {
+    systemProperty("benchmarks", project.hasProperty("benchmarks").toString())
+}
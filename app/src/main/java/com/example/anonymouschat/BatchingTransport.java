@@ -0,0 +1,114 @@
+package com.example.anonymouschat;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 將時間窗內的多個送出事件合併成一個 messageBatch 封包。
+ * windowMs 為 0 時直接轉送，不做任何合併。
+ */
+public class BatchingTransport implements Outbox.Transport {
+    private static final String TAG = "BatchingTransport";
+    public static final String BATCH_EVENT = "messageBatch";
+
+    private static class Pending {
+        final String id;
+        final String event;
+        final String payload;
+        final Runnable onAck;
+
+        Pending(String id, String event, String payload, Runnable onAck) {
+            this.id = id;
+            this.event = event;
+            this.payload = payload;
+            this.onAck = onAck;
+        }
+    }
+
+    private final Outbox.Transport delegate;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "emit-batcher");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong batchSequence = new AtomicLong();
+    // 保證批次依產生順序送出
+    private final Object flushLock = new Object();
+    private List<Pending> buffer = new ArrayList<>();
+    private boolean flushScheduled = false;
+    private volatile long windowMs = 0;
+    private volatile int maxMessages = 1;
+
+    public BatchingTransport(Outbox.Transport delegate) {
+        this.delegate = delegate;
+    }
+
+    public void configure(long windowMs, int maxMessages) {
+        this.windowMs = Math.max(0, windowMs);
+        this.maxMessages = Math.max(1, maxMessages);
+        Log.d(TAG, "Batching window: " + this.windowMs + "ms, max messages: " + this.maxMessages);
+        if (this.windowMs == 0) {
+            scheduler.execute(this::flush);
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public void emit(String id, String event, String payload, Runnable onAck) {
+        if (windowMs == 0) {
+            delegate.emit(id, event, payload, onAck);
+            return;
+        }
+        boolean flushNow;
+        synchronized (this) {
+            buffer.add(new Pending(id, event, payload, onAck));
+            flushNow = buffer.size() >= maxMessages;
+            if (!flushNow && !flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    public void flush() {
+        synchronized (flushLock) {
+            List<Pending> batch;
+            synchronized (this) {
+                flushScheduled = false;
+                if (buffer.isEmpty()) return;
+                batch = buffer;
+                buffer = new ArrayList<>();
+            }
+            if (batch.size() == 1) {
+                Pending only = batch.get(0);
+                delegate.emit(only.id, only.event, only.payload, only.onAck);
+                return;
+            }
+            StringBuilder sb = new StringBuilder("{\"events\":[");
+            for (int i = 0; i < batch.size(); i++) {
+                Pending p = batch.get(i);
+                if (i > 0) sb.append(',');
+                // 事件名稱都是固定的識別字，payload 本身已是 JSON 文字
+                sb.append("{\"event\":\"").append(p.event).append("\",\"data\":").append(p.payload).append('}');
+            }
+            sb.append("]}");
+            delegate.emit("batch-" + batchSequence.incrementAndGet(), BATCH_EVENT, sb.toString(), () -> {
+                for (Pending p : batch) {
+                    p.onAck.run();
+                }
+            });
+        }
+    }
+}
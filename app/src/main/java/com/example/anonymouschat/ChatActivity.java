@@ -3,27 +3,35 @@ package com.example.anonymouschat;
 import android.os.Bundle;
 import android.util.Log;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.Toast;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import com.example.anonymouschat.databinding.ActivityChatBinding;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class ChatActivity extends AppCompatActivity {
     private static final String TAG = "ChatActivity";
+    // 距離最舊的訊息還有這麼多則時就開始載入上一頁
+    private static final int PREFETCH_DISTANCE = 15;
     private ActivityChatBinding binding;
     private ChatViewModel viewModel;
+    private LinearLayoutManager layoutManager;
     private MessageAdapter messageAdapter;
     private String chatId;
     private String chatType;
     private String uid;
-    private List<Message> messages = new ArrayList<>();
+    // 目前顯示的 ViewModel 快照（不可變，與 adapter 共用，不另外複製）
+    private List<Message> messages = Collections.emptyList();
     private SocketManager socketManager;
     private boolean isGroupChat;
     private boolean hasLeftGroup = false;
+    // 要捲到的搜尋結果時間，-1 表示沒有；還沒載入到時逐頁往回載入
+    private long jumpTimestamp = -1;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -49,20 +57,47 @@ public class ChatActivity extends AppCompatActivity {
         viewModel = new ViewModelProvider(this).get(ChatViewModel.class);
         viewModel.init(this, chatId, chatType, uid);
 
-        binding.messagesRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        layoutManager = new LinearLayoutManager(this);
+        binding.messagesRecyclerView.setLayoutManager(layoutManager);
         messageAdapter = new MessageAdapter(messages, uid);
         binding.messagesRecyclerView.setAdapter(messageAdapter);
+        binding.messagesRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // 往上捲且距離最舊的訊息不到 PREFETCH_DISTANCE 則時，提前載入更早的一頁
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+                    viewModel.loadOlderMessages();
+                }
+            }
+
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    reportViewport();
+                }
+            }
+        });
 
         viewModel.getMessages().observe(this, updatedMessages -> {
             if (updatedMessages == null) {
                 Log.e(TAG, "Received null messages from ViewModel");
                 return;
             }
-            messages.clear();
-            messages.addAll(updatedMessages);
-            messageAdapter.updateMessages(messages);
-            binding.messagesRecyclerView.scrollToPosition(messages.size() - 1);
-            Log.d(TAG, "Updated messages, count: " + messages.size());
+            // 差異在背景比對，列表實際更新後才調整捲動位置
+            messageAdapter.updateMessages(updatedMessages, () -> {
+                Message previousLast = messages.isEmpty() ? null : messages.get(messages.size() - 1);
+                messages = messageAdapter.getMessages();
+                Message newLast = messages.isEmpty() ? null : messages.get(messages.size() - 1);
+                // 上方插入或移出訊息時 RecyclerView 會自行保持目前看到的那一列；只有最新一則換了才捲到最底
+                if (newLast != null && (previousLast == null || !newLast.getKey().equals(previousLast.getKey()))) {
+                    binding.messagesRecyclerView.scrollToPosition(messages.size() - 1);
+                }
+                if (!messages.isEmpty()) {
+                    // 排在下一次繪製之後，記錄從請求歷史紀錄到第一次顯示的時間
+                    binding.messagesRecyclerView.post(() -> socketManager.getHistoryMetrics().onFirstRender(chatId));
+                }
+                continueJump();
+            });
         });
 
         binding.sendMessageButton.setOnClickListener(v -> {
@@ -73,6 +108,11 @@ public class ChatActivity extends AppCompatActivity {
             }
         });
 
+        Button searchButton = new Button(this);
+        searchButton.setText(R.string.search_messages);
+        searchButton.setOnClickListener(v -> showSearchDialog());
+        binding.getRoot().addView(searchButton);
+
         if (isGroupChat) {
             Button leaveGroupButton = new Button(this);
             leaveGroupButton.setText(R.string.leave_group);
@@ -87,14 +127,92 @@ public class ChatActivity extends AppCompatActivity {
         }
     }
 
+    private void showSearchDialog() {
+        EditText queryInput = new EditText(this);
+        queryInput.setHint(R.string.search_messages_hint);
+        queryInput.setSingleLine(true);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.search_messages);
+        builder.setView(queryInput);
+        builder.setPositiveButton(R.string.search_button, (dialog, which) -> {
+            String query = queryInput.getText().toString().trim();
+            if (query.isEmpty()) return;
+            viewModel.searchMessages(query, hits -> runOnUiThread(() -> showSearchResults(hits)));
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.show();
+    }
+
+    private void showSearchResults(List<MessageCache.SearchHit> hits) {
+        if (isFinishing()) return;
+        if (hits.isEmpty()) {
+            Toast.makeText(this, R.string.no_message_search_results, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] items = new String[hits.size()];
+        for (int i = 0; i < hits.size(); i++) {
+            Message message = hits.get(i).message;
+            items[i] = message.getNickname() + "：" + message.getText();
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.search_results);
+        builder.setItems(items, (dialog, which) -> jumpTo(hits.get(which).message.getTimestamp()));
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.show();
+    }
+
+    private void jumpTo(long timestamp) {
+        jumpTimestamp = timestamp;
+        // 讓 ViewModel 保留目標附近的訊息，不會在往回載入時被移出
+        viewModel.onViewportChanged(timestamp);
+        continueJump();
+    }
+
+    private void continueJump() {
+        if (jumpTimestamp < 0) return;
+        if (!messages.isEmpty() && messages.get(0).getTimestamp() <= jumpTimestamp) {
+            layoutManager.scrollToPositionWithOffset(indexAtOrAfter(jumpTimestamp), 0);
+            jumpTimestamp = -1;
+        } else if (!viewModel.loadOlderMessages()) {
+            // 沒有更早的訊息可載入，停在最舊的一則
+            layoutManager.scrollToPositionWithOffset(0, 0);
+            jumpTimestamp = -1;
+        }
+    }
+
+    private int indexAtOrAfter(long timestamp) {
+        int low = 0;
+        int high = messages.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (messages.get(mid).getTimestamp() < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return Math.min(low, messages.size() - 1);
+    }
+
+    // 停在最底部時回報 -1，讓 ViewModel 只保留最新的訊息
+    private void reportViewport() {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        boolean atBottom = last < 0 || last >= messages.size() - 1;
+        viewModel.onViewportChanged(atBottom || first < 0 || first >= messages.size() ? -1 : messages.get(first).getTimestamp());
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (viewModel != null) {
+            viewModel.onTrimMemory(level);
+        }
+    }
+
     private void sendMessage(String messageText) {
         try {
-            long timestamp = System.currentTimeMillis();
-            messages.add(new Message(uid, messageText, "You", timestamp));
-            messageAdapter.updateMessages(messages);
-            binding.messagesRecyclerView.scrollToPosition(messages.size() - 1);
-            Log.d(TAG, "Local echo: " + messageText);
-
+            // 本地顯示由 ViewModel 以 pending 狀態加入，伺服器回傳時再對應更新
             viewModel.sendMessage(messageText);
         } catch (Exception e) {
             Log.e(TAG, "Failed to send message: " + e.getMessage(), e);
@@ -112,6 +230,11 @@ public class ChatActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (viewModel == null || isChangingConfigurations()) {
+            // 旋轉等設定變更時 ViewModel 會保留給新的 Activity，不可離開群組或清除訂閱
+            Log.d(TAG, "ChatActivity onDestroy");
+            return;
+        }
         if (isGroupChat && !hasLeftGroup) {
             viewModel.leaveGroup();
             hasLeftGroup = true;
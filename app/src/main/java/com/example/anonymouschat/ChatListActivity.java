@@ -5,8 +5,6 @@ import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -41,6 +39,7 @@ public class ChatListActivity extends AppCompatActivity {
     private static final String PREFS_NAME = "ChatAppPrefs";
     private static final String PREF_LANGUAGE = "language";
     private SocketManager socketManager;
+    private MessageRepository repository;
     private String uid;
     private String username;
     private String nickname;
@@ -51,7 +50,8 @@ public class ChatListActivity extends AppCompatActivity {
     private ChatListAdapter chatListAdapter;
     private PendingFriendListAdapter pendingFriendListAdapter;
     private List<FriendItem> friendList = new ArrayList<>();
-    private List<ChatItem> chatList = new ArrayList<>();
+    // 依最後活動時間排序，新訊息只移動對應的那一列
+    private ChatListOrder chatOrder;
     private List<PendingFriendItem> pendingFriendList = new ArrayList<>();
     private Button addFriendButton;
     private Button joinGroupButton;
@@ -63,6 +63,9 @@ public class ChatListActivity extends AppCompatActivity {
     private Button languageSwitchButton;
     private ActivityResultLauncher<ScanOptions> scanResultLauncher;
     private String currentGroupId;
+    private String pendingGroupName;
+    // RpcClient 以 parser 實例判斷能否合併相同的請求，方法參考每次都會產生新的實例，所以只建立一次
+    private final RpcClient.Parser<List<UserItem>> userSearchParser = this::parseUserSearchResponse;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -87,6 +90,8 @@ public class ChatListActivity extends AppCompatActivity {
                 return;
             }
             Log.d(TAG, "UID: " + uid + ", Username: " + username + ", Nickname: " + nickname);
+            repository = MessageRepository.getInstance(this);
+            repository.setUid(uid);
 
             userInfoTextView = findViewById(R.id.user_info_text_view);
             editNicknameButton = findViewById(R.id.edit_nickname_button);
@@ -100,8 +105,33 @@ public class ChatListActivity extends AppCompatActivity {
             friendListRecyclerView.setAdapter(friendListAdapter);
 
             chatListRecyclerView = findViewById(R.id.chat_list_recycler_view);
-            chatListRecyclerView.setLayoutManager(new LinearLayoutManager(this));
-            chatListAdapter = new ChatListAdapter(chatList, uid, chat -> {
+            LinearLayoutManager chatListLayoutManager = new LinearLayoutManager(this);
+            chatListRecyclerView.setLayoutManager(chatListLayoutManager);
+            chatOrder = new ChatListOrder(new ChatListOrder.Callback() {
+                @Override
+                public void onInserted(int position) {
+                    boolean atTop = chatListLayoutManager.findFirstCompletelyVisibleItemPosition() <= 0;
+                    chatListAdapter.notifyItemInserted(position);
+                    if (atTop && position == 0) chatListRecyclerView.scrollToPosition(0);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    // 停在最上方時，讓移到最上方的聊天室保持可見，而不是把畫面往下推
+                    boolean atTop = chatListLayoutManager.findFirstCompletelyVisibleItemPosition() <= 0;
+                    chatListAdapter.notifyItemMoved(fromPosition, toPosition);
+                    if (atTop && toPosition == 0) chatListRecyclerView.scrollToPosition(0);
+                }
+
+                @Override
+                public void onChanged(int position) {
+                    chatListAdapter.notifyItemChanged(position);
+                }
+            });
+            chatListAdapter = new ChatListAdapter(chatOrder.asList(), uid, chat -> {
+                // 先送出歷史紀錄請求，與 ChatActivity 的啟動同時進行
+                socketManager.getHistoryMetrics().onTap(chat.chatId);
+                socketManager.startHistoryRequest(chat.chatId);
                 Intent intent = new Intent(ChatListActivity.this, ChatActivity.class);
                 intent.putExtra("chatId", chat.chatId);
                 intent.putExtra("chatType", chat.type);
@@ -165,6 +195,8 @@ public class ChatListActivity extends AppCompatActivity {
             }
 
             setupSocketListeners();
+            // 新訊息、未讀數與新加入的聊天室都由 MessageRepository 增量通知，不必重新載入整個列表
+            repository.observeChats(this, this::applyChatChanges);
             loadFriendList();
             loadChatList();
         } catch (Exception e) {
@@ -175,7 +207,7 @@ public class ChatListActivity extends AppCompatActivity {
     }
 
     private void setupSocketListeners() {
-        socketManager.getSocket().on("friendRequest", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "friendRequest", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "friendRequest event received null or empty args");
@@ -195,63 +227,9 @@ public class ChatListActivity extends AppCompatActivity {
             } catch (Exception e) {
                 Log.e(TAG, "Failed to process friend request: " + e.getMessage(), e);
             }
-        }));
-
-        socketManager.getSocket().on("friendRequestResponse", args -> runOnUiThread(() -> {
-            try {
-                if (args == null || args.length == 0) {
-                    Log.e(TAG, "friendRequestResponse event received null or empty args");
-                    return;
-                }
-                JSONObject response = (JSONObject) args[0];
-                boolean success = response.optBoolean("success", false);
-                String message = response.optString("message", getString(R.string.friend_request_failed_generic));
-                if (success) {
-                    Log.d(TAG, "Friend request sent successfully");
-                    Toast.makeText(ChatListActivity.this, getString(R.string.friend_request_sent), Toast.LENGTH_SHORT).show();
-                } else {
-                    Log.d(TAG, "Friend request failed: " + message);
-                    Toast.makeText(ChatListActivity.this, getString(R.string.friend_request_failed, message), Toast.LENGTH_SHORT).show();
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to process friend request response: " + e.getMessage(), e);
-            }
-        }));
-
-        socketManager.getSocket().on("searchUsersResponse", args -> runOnUiThread(() -> {
-            try {
-                if (args == null || args.length == 0) {
-                    Log.e(TAG, "searchUsersResponse event received null or empty args");
-                    return;
-                }
-                JSONObject response = (JSONObject) args[0];
-                boolean success = response.optBoolean("success", false);
-                if (success) {
-                    JSONArray users = response.optJSONArray("users");
-                    if (users == null) {
-                        Log.e(TAG, "searchUsersResponse event missing users array");
-                        return;
-                    }
-                    List<UserItem> userList = new ArrayList<>();
-                    for (int i = 0; i < users.length(); i++) {
-                        JSONObject user = users.getJSONObject(i);
-                        String userUid = user.optString("uid", null);
-                        String userNickname = user.optString("nickname", "Unknown");
-                        if (userUid != null) {
-                            userList.add(new UserItem(userUid, userNickname));
-                        }
-                    }
-                    showUserSearchResults(userList);
-                } else {
-                    String message = response.optString("message", getString(R.string.search_failed_generic));
-                    Toast.makeText(ChatListActivity.this, getString(R.string.search_failed, message), Toast.LENGTH_SHORT).show();
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to process search users response: " + e.getMessage(), e);
-            }
-        }));
+        });
 
-        socketManager.getSocket().on("friendRequestAccepted", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "friendRequestAccepted", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "friendRequestAccepted event received null or empty args");
@@ -270,9 +248,8 @@ public class ChatListActivity extends AppCompatActivity {
                     friendList.add(new FriendItem(fromUid, fromNickname));
                     friendListAdapter.notifyDataSetChanged();
                 }
-                if (chatList.stream().noneMatch(chat -> chat.chatId.equals(chatId))) {
-                    chatList.add(new ChatItem(chatId, "private", fromNickname, null));
-                    chatListAdapter.notifyDataSetChanged();
+                if (!chatOrder.contains(chatId)) {
+                    repository.putChat(chatId, "private", fromNickname);
                 }
                 pendingFriendList.removeIf(item -> item.uid.equals(fromUid));
                 pendingFriendListAdapter.notifyDataSetChanged();
@@ -281,9 +258,9 @@ public class ChatListActivity extends AppCompatActivity {
                 Log.e(TAG, "Failed to process friend acceptance: " + e.getMessage(), e);
                 Toast.makeText(ChatListActivity.this, getString(R.string.friend_request_failed_generic), Toast.LENGTH_SHORT).show();
             }
-        }));
+        });
 
-        socketManager.getSocket().on("friendRequestRejected", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "friendRequestRejected", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "friendRequestRejected event received null or empty args");
@@ -302,9 +279,9 @@ public class ChatListActivity extends AppCompatActivity {
             } catch (Exception e) {
                 Log.e(TAG, "Failed to process friend rejection: " + e.getMessage(), e);
             }
-        }));
+        });
 
-        socketManager.getSocket().on("getFriendListResponse", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "getFriendListResponse", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "getFriendListResponse event received null or empty args");
@@ -348,9 +325,9 @@ public class ChatListActivity extends AppCompatActivity {
                 Log.e(TAG, "Failed to process getFriendList response: " + e.getMessage(), e);
                 Toast.makeText(this, getString(R.string.load_friend_list_failed), Toast.LENGTH_SHORT).show();
             }
-        }));
+        });
 
-        socketManager.getSocket().on("getChatListResponse", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "getChatListResponse", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "getChatListResponse event received null or empty args");
@@ -365,7 +342,7 @@ public class ChatListActivity extends AppCompatActivity {
                         return;
                     }
                     Set<String> chatIds = new HashSet<>();
-                    List<ChatItem> newChatList = new ArrayList<>();
+                    List<MessageRepository.ChatSummary> serverChats = new ArrayList<>();
                     for (int i = 0; i < chatListJson.length(); i++) {
                         try {
                             JSONObject chat = chatListJson.getJSONObject(i);
@@ -382,16 +359,19 @@ public class ChatListActivity extends AppCompatActivity {
                             String type = chat.optString("type", "private");
                             String name = chat.optString("name", "Unknown");
                             JSONObject lastMessage = chat.has("lastMessage") && !chat.isNull("lastMessage") ? chat.getJSONObject("lastMessage") : null;
-                            String lastMessageText = lastMessage != null ? lastMessage.optString("message", "") : null;
-                            newChatList.add(new ChatItem(chatId, type, name, lastMessageText));
+                            Message last = lastMessage != null ? new Message(lastMessage.optString("fromUid", ""),
+                                    lastMessage.optString("message", ""), lastMessage.optString("nickname", ""),
+                                    lastMessage.optLong("timestamp", 0)) : null;
+                            serverChats.add(new MessageRepository.ChatSummary(chatId, type, name, last, 0));
                         } catch (Exception e) {
                             Log.e(TAG, "Failed to parse chat item at index " + i + ": " + e.getMessage(), e);
                         }
                     }
-                    chatList.clear();
-                    chatList.addAll(newChatList);
+                    // 與本地已收到、較新的訊息和未讀數合併
+                    chatOrder.replaceAll(repository.putChats(serverChats));
                     chatListAdapter.notifyDataSetChanged();
-                    Log.d(TAG, "Loaded chat list, count: " + chatList.size());
+                    Log.d(TAG, "Loaded chat list, count: " + chatOrder.size());
+                    prefetchRecentChats();
                 } else {
                     String message = response.optString("message", getString(R.string.load_chat_list_failed));
                     Log.e(TAG, "Failed to load chat list: " + message);
@@ -401,9 +381,9 @@ public class ChatListActivity extends AppCompatActivity {
                 Log.e(TAG, "Failed to process getChatList response: " + e.getMessage(), e);
                 Toast.makeText(this, getString(R.string.load_chat_list_failed), Toast.LENGTH_SHORT).show();
             }
-        }));
+        });
 
-        socketManager.getSocket().on("createGroupChatResponse", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "createGroupChatResponse", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "createGroupChatResponse event received null or empty args");
@@ -419,7 +399,7 @@ public class ChatListActivity extends AppCompatActivity {
                         return;
                     }
                     Toast.makeText(this, getString(R.string.group_chat_created), Toast.LENGTH_SHORT).show();
-                    loadChatList();
+                    repository.putChat(currentGroupId, "group", pendingGroupName);
                 } else {
                     String errorMsg = response.optString("message", getString(R.string.create_group_failed));
                     Log.e(TAG, "Failed to create group chat: " + errorMsg);
@@ -429,9 +409,9 @@ public class ChatListActivity extends AppCompatActivity {
                 Log.e(TAG, "Failed to process createGroupChat response: " + e.getMessage(), e);
                 Toast.makeText(this, getString(R.string.create_group_failed_generic), Toast.LENGTH_SHORT).show();
             }
-        }));
+        });
 
-        socketManager.getSocket().on("groupChatCreated", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "groupChatCreated", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "groupChatCreated event received null or empty args");
@@ -444,16 +424,14 @@ public class ChatListActivity extends AppCompatActivity {
                     Log.e(TAG, "groupChatCreated event missing chatId");
                     return;
                 }
-                ChatItem chatItem = new ChatItem(chatId, "group", name, null);
-                chatList.add(chatItem);
-                chatListAdapter.notifyDataSetChanged();
+                repository.putChat(chatId, "group", name);
                 Log.d(TAG, "Group chat created, added to chat list: " + name);
             } catch (Exception e) {
                 Log.e(TAG, "Failed to process groupChatCreated event: " + e.getMessage(), e);
             }
-        }));
+        });
 
-        socketManager.getSocket().on("searchGroupsResponse", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "searchGroupsResponse", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "searchGroupsResponse event received null or empty args");
@@ -487,9 +465,9 @@ public class ChatListActivity extends AppCompatActivity {
             } catch (Exception e) {
                 Log.e(TAG, "Failed to process search groups response: " + e.getMessage(), e);
             }
-        }));
+        });
 
-        socketManager.getSocket().on("joinGroupRequest", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "joinGroupRequest", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "joinGroupRequest event received null or empty args");
@@ -537,30 +515,9 @@ public class ChatListActivity extends AppCompatActivity {
             } catch (Exception e) {
                 Log.e(TAG, "Failed to process join group request: " + e.getMessage(), e);
             }
-        }));
-
-        socketManager.getSocket().on("joinGroupResponse", args -> runOnUiThread(() -> {
-            try {
-                if (args == null || args.length == 0) {
-                    Log.e(TAG, "joinGroupResponse event received null or empty args");
-                    return;
-                }
-                JSONObject response = (JSONObject) args[0];
-                boolean success = response.optBoolean("success", false);
-                if (success) {
-                    Log.d(TAG, "Join group request sent successfully");
-                    Toast.makeText(ChatListActivity.this, getString(R.string.join_group_request_sent), Toast.LENGTH_SHORT).show();
-                } else {
-                    String message = response.optString("message", getString(R.string.join_group_failed_generic));
-                    Log.d(TAG, "Join group request failed: " + message);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to process join group response: " + e.getMessage(), e);
-                Toast.makeText(ChatListActivity.this, getString(R.string.join_group_failed_generic), Toast.LENGTH_SHORT).show();
-            }
-        }));
+        });
 
-        socketManager.getSocket().on("joinGroupApproved", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "joinGroupApproved", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "joinGroupApproved event received null or empty args");
@@ -574,16 +531,15 @@ public class ChatListActivity extends AppCompatActivity {
                     return;
                 }
                 Log.d(TAG, "Join group approved, Chat ID: " + chatId);
-                chatList.add(new ChatItem(chatId, "group", name, null));
-                chatListAdapter.notifyDataSetChanged();
+                repository.putChat(chatId, "group", name);
                 Toast.makeText(ChatListActivity.this, getString(R.string.joined_group, name), Toast.LENGTH_SHORT).show();
             } catch (Exception e) {
                 Log.e(TAG, "Failed to process join group approval: " + e.getMessage(), e);
                 Toast.makeText(ChatListActivity.this, getString(R.string.join_group_failed_generic), Toast.LENGTH_SHORT).show();
             }
-        }));
+        });
 
-        socketManager.getSocket().on("inviteToGroup", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "inviteToGroup", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "inviteToGroup event received null or empty args");
@@ -632,9 +588,9 @@ public class ChatListActivity extends AppCompatActivity {
             } catch (Exception e) {
                 Log.e(TAG, "Failed to process group invite: " + e.getMessage(), e);
             }
-        }));
+        });
 
-        socketManager.getSocket().on("updateNicknameResponse", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "updateNicknameResponse", args -> {
             try {
                 if (args == null || args.length == 0) {
                     Log.e(TAG, "updateNicknameResponse event received null or empty args");
@@ -653,7 +609,7 @@ public class ChatListActivity extends AppCompatActivity {
             } catch (Exception e) {
                 Log.e(TAG, "Failed to process nickname update response: " + e.getMessage(), e);
             }
-        }));
+        });
     }
 
     private void showAddFriendDialog() {
@@ -908,69 +864,17 @@ public class ChatListActivity extends AppCompatActivity {
         if (!socketManager.isConnected()) {
             Toast.makeText(ChatListActivity.this, getString(R.string.connection_lost), Toast.LENGTH_SHORT).show();
             socketManager.connect();
-            new Handler(Looper.getMainLooper()).postDelayed(() -> sendFriendRequestWithRetry(toUid, 3), 1000);
-            return;
-        }
-
-        sendFriendRequestWithRetry(toUid, 3);
-    }
-
-    private void sendFriendRequestWithRetry(String toUid, int retryCount) {
-        if (retryCount <= 0) {
-            runOnUiThread(() -> {
-                AlertDialog.Builder builder = new AlertDialog.Builder(ChatListActivity.this);
-                builder.setTitle("發送好友請求失敗");
-                builder.setMessage("無法發送好友請求，是否重試？");
-                builder.setPositiveButton("重試", (dialog, which) -> sendFriendRequestWithRetry(toUid, 3));
-                builder.setNegativeButton("取消", null);
-                builder.show();
-            });
-            return;
         }
 
         try {
             JSONObject data = new JSONObject();
             data.put("fromUid", uid);
             data.put("toUid", toUid);
-            Log.d(TAG, "Sending friend request (Attempts left: " + retryCount + "): " + data.toString());
-
-            final boolean[] responseReceived = {false};
-            socketManager.getSocket().once("friendRequestResponse", args -> runOnUiThread(() -> {
-                responseReceived[0] = true;
-                try {
-                    JSONObject response = (JSONObject) args[0];
-                    if (response.getBoolean("success")) {
-                        Log.d(TAG, "Friend request sent successfully");
-                        Toast.makeText(ChatListActivity.this, getString(R.string.friend_request_sent), Toast.LENGTH_SHORT).show();
-                    } else {
-                        String message = response.getString("message");
-                        Log.d(TAG, "Friend request failed: " + message);
-                        Toast.makeText(ChatListActivity.this, getString(R.string.friend_request_failed, message), Toast.LENGTH_SHORT).show();
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to process friend request response: " + e.getMessage(), e);
-                    Toast.makeText(ChatListActivity.this, getString(R.string.friend_request_failed_generic), Toast.LENGTH_SHORT).show();
-                }
-            }));
-
-            socketManager.getSocket().emit("friendRequest", data);
-
-            new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                if (!responseReceived[0]) {
-                    Log.w(TAG, "Friend request timeout, retrying... (Attempts left: " + (retryCount - 1) + ")");
-                    sendFriendRequestWithRetry(toUid, retryCount - 1);
-                }
-            }, 5000);
+            Log.d(TAG, "Sending friend request: " + data.toString());
+            callFriendRequest("friendRequest", data, () -> sendFriendRequest(toUid));
         } catch (Exception e) {
             Log.e(TAG, "Failed to send friend request: " + e.getMessage(), e);
-            runOnUiThread(() -> {
-                AlertDialog.Builder builder = new AlertDialog.Builder(ChatListActivity.this);
-                builder.setTitle("發送好友請求失敗");
-                builder.setMessage("無法發送好友請求，是否重試？\n錯誤：" + e.getMessage());
-                builder.setPositiveButton("重試", (dialog, which) -> sendFriendRequestWithRetry(toUid, 3));
-                builder.setNegativeButton("取消", null);
-                builder.show();
-            });
+            showFriendRequestRetryDialog(e.getMessage(), () -> sendFriendRequest(toUid));
         }
     }
 
@@ -986,13 +890,48 @@ public class ChatListActivity extends AppCompatActivity {
             data.put("fromUid", uid);
             data.put("nickname", nickname);
             Log.d(TAG, "Sending friend request by nickname: " + data.toString());
-            socketManager.getSocket().emit("friendRequestByNickname", data);
+            callFriendRequest("friendRequestByNickname", data, () -> sendFriendRequestByNickname(nickname));
         } catch (Exception e) {
             Log.e(TAG, "Failed to send friend request by nickname: " + e.getMessage(), e);
             Toast.makeText(ChatListActivity.this, getString(R.string.friend_request_failed_generic), Toast.LENGTH_SHORT).show();
         }
     }
 
+    // 兩種好友請求共用 friendRequestResponse 回應，畫面關閉時自動取消；
+    // 伺服器不保證重複的好友請求只處理一次，逾時不自動重試，由使用者決定是否重送
+    private void callFriendRequest(String event, JSONObject data, Runnable retry) {
+        socketManager.getRpcClient()
+                .call(event, "friendRequestResponse", data, RpcClient.successOrThrow(), RpcClient.DEFAULT_TIMEOUT_MS, 1)
+                .bindTo(this)
+                .then(new RpcClient.Callback<JSONObject>() {
+                    @Override
+                    public void onSuccess(JSONObject response) {
+                        Log.d(TAG, "Friend request sent successfully");
+                        Toast.makeText(ChatListActivity.this, getString(R.string.friend_request_sent), Toast.LENGTH_SHORT).show();
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        if (e instanceof RpcClient.RemoteException) {
+                            Log.d(TAG, "Friend request failed: " + e.getMessage());
+                            Toast.makeText(ChatListActivity.this, getString(R.string.friend_request_failed, e.getMessage()), Toast.LENGTH_SHORT).show();
+                        } else {
+                            Log.w(TAG, "Friend request failed: " + e.getMessage());
+                            showFriendRequestRetryDialog(null, retry);
+                        }
+                    }
+                });
+    }
+
+    private void showFriendRequestRetryDialog(String error, Runnable retry) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(ChatListActivity.this);
+        builder.setTitle("發送好友請求失敗");
+        builder.setMessage("無法發送好友請求，是否重試？" + (error != null ? "\n錯誤：" + error : ""));
+        builder.setPositiveButton("重試", (dialog, which) -> retry.run());
+        builder.setNegativeButton("取消", null);
+        builder.show();
+    }
+
     private void searchUsers(String query) {
         if (!socketManager.isConnected()) {
             Toast.makeText(ChatListActivity.this, getString(R.string.connection_lost), Toast.LENGTH_SHORT).show();
@@ -1000,70 +939,62 @@ public class ChatListActivity extends AppCompatActivity {
             return;
         }
 
-        searchUsersWithRetry(query, 3);
-    }
-
-    private void searchUsersWithRetry(String query, int retryCount) {
-        if (retryCount <= 0) {
-            runOnUiThread(() -> {
-                AlertDialog.Builder builder = new AlertDialog.Builder(ChatListActivity.this);
-                builder.setTitle("搜尋用戶失敗");
-                builder.setMessage("無法搜尋用戶，是否重試？");
-                builder.setPositiveButton("重試", (dialog, which) -> searchUsersWithRetry(query, 3));
-                builder.setNegativeButton("取消", null);
-                builder.show();
-            });
-            return;
-        }
-
         try {
             JSONObject data = new JSONObject();
             data.put("query", query);
-            Log.d(TAG, "Searching users (Attempts left: " + retryCount + "): " + data.toString());
-
-            final boolean[] responseReceived = {false};
-            socketManager.getSocket().once("searchUsersResponse", args -> runOnUiThread(() -> {
-                responseReceived[0] = true;
-                try {
-                    JSONObject response = (JSONObject) args[0];
-                    if (response.getBoolean("success")) {
-                        JSONArray users = response.getJSONArray("users");
-                        List<UserItem> userList = new ArrayList<>();
-                        for (int i = 0; i < users.length(); i++) {
-                            JSONObject user = users.getJSONObject(i);
-                            userList.add(new UserItem(user.getString("uid"), user.getString("nickname")));
+            Log.d(TAG, "Searching users: " + data.toString());
+            socketManager.getRpcClient()
+                    .call("searchUsers", "searchUsersResponse", data, userSearchParser)
+                    .bindTo(this)
+                    .then(new RpcClient.Callback<List<UserItem>>() {
+                        @Override
+                        public void onSuccess(List<UserItem> userList) {
+                            showUserSearchResults(userList);
                         }
-                        showUserSearchResults(userList);
-                    } else {
-                        String message = response.getString("message");
-                        Toast.makeText(ChatListActivity.this, getString(R.string.search_failed, message), Toast.LENGTH_SHORT).show();
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to process search users response: " + e.getMessage(), e);
-                }
-            }));
-
-            socketManager.getSocket().emit("searchUsers", data);
 
-            new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                if (!responseReceived[0]) {
-                    Log.w(TAG, "Search users timeout, retrying... (Attempts left: " + (retryCount - 1) + ")");
-                    searchUsersWithRetry(query, retryCount - 1);
-                }
-            }, 5000);
+                        @Override
+                        public void onFailure(Exception e) {
+                            if (e instanceof RpcClient.RemoteException) {
+                                String message = e.getMessage().isEmpty() ? getString(R.string.search_failed_generic) : e.getMessage();
+                                Toast.makeText(ChatListActivity.this, getString(R.string.search_failed, message), Toast.LENGTH_SHORT).show();
+                            } else {
+                                Log.w(TAG, "Search users failed: " + e.getMessage());
+                                showSearchUsersRetryDialog(null, query);
+                            }
+                        }
+                    });
         } catch (Exception e) {
             Log.e(TAG, "Failed to search users: " + e.getMessage(), e);
-            runOnUiThread(() -> {
-                AlertDialog.Builder builder = new AlertDialog.Builder(ChatListActivity.this);
-                builder.setTitle("搜尋用戶失敗");
-                builder.setMessage("無法搜尋用戶，是否重試？\n錯誤：" + e.getMessage());
-                builder.setPositiveButton("重試", (dialog, which) -> searchUsersWithRetry(query, 3));
-                builder.setNegativeButton("取消", null);
-                builder.show();
-            });
+            showSearchUsersRetryDialog(e.getMessage(), query);
         }
     }
 
+    private List<UserItem> parseUserSearchResponse(JSONObject response) throws Exception {
+        RpcClient.successOrThrow().parse(response);
+        JSONArray users = response.optJSONArray("users");
+        if (users == null) {
+            throw new IllegalStateException("searchUsersResponse event missing users array");
+        }
+        List<UserItem> userList = new ArrayList<>();
+        for (int i = 0; i < users.length(); i++) {
+            JSONObject user = users.getJSONObject(i);
+            String userUid = user.optString("uid", null);
+            if (userUid != null) {
+                userList.add(new UserItem(userUid, user.optString("nickname", "Unknown")));
+            }
+        }
+        return userList;
+    }
+
+    private void showSearchUsersRetryDialog(String error, String query) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(ChatListActivity.this);
+        builder.setTitle("搜尋用戶失敗");
+        builder.setMessage("無法搜尋用戶，是否重試？" + (error != null ? "\n錯誤：" + error : ""));
+        builder.setPositiveButton("重試", (dialog, which) -> searchUsers(query));
+        builder.setNegativeButton("取消", null);
+        builder.show();
+    }
+
     private void acceptFriendRequest(String fromUid) {
         try {
             JSONObject data = new JSONObject()
@@ -1103,14 +1034,27 @@ public class ChatListActivity extends AppCompatActivity {
             data.put("password", password);
             data.put("fromUid", uid);
             Log.d(TAG, "Sending join group request: " + data.toString());
-            socketManager.getSocket().emit("joinGroupRequest", data);
+            socketManager.getRpcClient()
+                    // 加入請求不是冪等的，逾時不自動重試
+                    .call("joinGroupRequest", "joinGroupResponse", data, RpcClient.successOrThrow(), RpcClient.DEFAULT_TIMEOUT_MS, 1)
+                    .bindTo(this)
+                    .then(new RpcClient.Callback<JSONObject>() {
+                        @Override
+                        public void onSuccess(JSONObject response) {
+                            Log.d(TAG, "Join group request sent successfully");
+                            Toast.makeText(ChatListActivity.this, getString(R.string.join_group_request_sent), Toast.LENGTH_SHORT).show();
+                        }
 
-            new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                if (!chatList.stream().anyMatch(chat -> chat.chatId.contains(groupId))) {
-                    Log.w(TAG, "Join group request timeout, retrying...");
-                    socketManager.getSocket().emit("joinGroupRequest", data);
-                }
-            }, 5000);
+                        @Override
+                        public void onFailure(Exception e) {
+                            Log.d(TAG, "Join group request failed: " + e.getMessage());
+                            if (e instanceof RpcClient.RemoteException && !e.getMessage().isEmpty()) {
+                                Toast.makeText(ChatListActivity.this, getString(R.string.join_group_request_failed, e.getMessage()), Toast.LENGTH_SHORT).show();
+                            } else {
+                                Toast.makeText(ChatListActivity.this, getString(R.string.join_group_failed_generic), Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
         } catch (Exception e) {
             Log.e(TAG, "Failed to send join group request: " + e.getMessage(), e);
             Toast.makeText(ChatListActivity.this, getString(R.string.join_group_failed_generic), Toast.LENGTH_SHORT).show();
@@ -1147,6 +1091,7 @@ public class ChatListActivity extends AppCompatActivity {
             groupChatData.put("groupName", groupName);
             groupChatData.put("password", password);
             groupChatData.put("memberUids", new JSONArray().put(uid));
+            pendingGroupName = groupName;
             socketManager.getSocket().emit("createGroupChat", groupChatData);
         } catch (Exception e) {
             Log.e(TAG, "Failed to send createGroupChat request: " + e.getMessage(), e);
@@ -1191,6 +1136,22 @@ public class ChatListActivity extends AppCompatActivity {
         }
     }
 
+    // 趁閒置先抓最近幾個聊天室的最新一頁，點進去時可直接從快取顯示
+    private void prefetchRecentChats() {
+        List<MessageRepository.ChatSummary> recent = new ArrayList<>();
+        for (int i = 0; i < chatOrder.size() && recent.size() < HistoryPrefetcher.UNMETERED_CHATS; i++) {
+            MessageRepository.ChatSummary summary = repository.getChat(chatOrder.get(i).chatId);
+            if (summary != null) recent.add(summary);
+        }
+        socketManager.getPrefetcher().prefetch(recent);
+    }
+
+    private void applyChatChanges(List<MessageRepository.ChatSummary> changed) {
+        for (MessageRepository.ChatSummary summary : changed) {
+            chatOrder.apply(summary);
+        }
+    }
+
     private void loadFriendList() {
         if (!socketManager.isConnected()) {
             Log.w(TAG, "Connection not established, attempting to reconnect");
@@ -1227,6 +1188,8 @@ public class ChatListActivity extends AppCompatActivity {
         }
     }
 
+    // 與點擊聊天列表不同，這裡無法在點擊時先送出歷史紀錄請求：startFriendChat 只帶 uid，
+    // 客戶端沒有收到對應 chatId 的回應，聊天室由伺服器之後的聊天列表更新帶入，點擊時還不知道要請求哪個聊天室
     private void startChatWithFriend(String friendUid) {
         if (!socketManager.isConnected()) {
             Log.w(TAG, "Connection not established, attempting to reconnect");
@@ -1295,24 +1258,6 @@ public class ChatListActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (socketManager != null && socketManager.getSocket() != null) {
-            socketManager.getSocket().off("friendRequest");
-            socketManager.getSocket().off("friendRequestResponse");
-            socketManager.getSocket().off("searchUsersResponse");
-            socketManager.getSocket().off("friendRequestAccepted");
-            socketManager.getSocket().off("friendRequestRejected");
-            socketManager.getSocket().off("getFriendListResponse");
-            socketManager.getSocket().off("getChatListResponse");
-            socketManager.getSocket().off("createGroupChatResponse");
-            socketManager.getSocket().off("groupChatCreated");
-            socketManager.getSocket().off("searchGroupsResponse");
-            socketManager.getSocket().off("joinGroupRequest");
-            socketManager.getSocket().off("joinGroupResponse");
-            socketManager.getSocket().off("joinGroupApproved");
-            socketManager.getSocket().off("joinGroupRejected");
-            socketManager.getSocket().off("inviteToGroup");
-            socketManager.getSocket().off("updateNicknameResponse");
-        }
         Log.d(TAG, "ChatListActivity onDestroy");
     }
 }
@@ -1373,12 +1318,28 @@ class ChatItem {
     String type;
     String name;
     String lastMessage;
+    int unreadCount;
+    // 最後一則訊息的時間，聊天列表依此由新到舊排序
+    long lastActivity;
+    // ChatListOrder 內部使用的加入序號，最後活動時間相同時的排序依據
+    long sequence;
+
+    ChatItem(MessageRepository.ChatSummary summary) {
+        this.chatId = summary.chatId;
+        this.type = summary.type != null ? summary.type : "private";
+        this.name = summary.name != null ? summary.name : "Unknown";
+        this.lastMessage = summary.getLastMessageText();
+        this.unreadCount = summary.unreadCount;
+        this.lastActivity = summary.lastMessage != null ? summary.lastMessage.getTimestamp() : 0;
+    }
 
-    ChatItem(String chatId, String type, String name, String lastMessage) {
-        this.chatId = chatId;
-        this.type = type != null ? type : "private";
-        this.name = name != null ? name : "Unknown";
-        this.lastMessage = lastMessage;
+    void update(MessageRepository.ChatSummary summary) {
+        name = summary.name != null ? summary.name : name;
+        lastMessage = summary.getLastMessageText();
+        unreadCount = summary.unreadCount;
+        if (summary.lastMessage != null) {
+            lastActivity = Math.max(lastActivity, summary.lastMessage.getTimestamp());
+        }
     }
 }
 
@@ -1406,7 +1367,9 @@ class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ChatViewHolde
     @Override
     public void onBindViewHolder(ChatViewHolder holder, int position) {
         ChatItem chat = chatList.get(position);
-        holder.chatName.setText(chat.name);
+        holder.chatName.setText(chat.unreadCount > 0
+                ? holder.itemView.getContext().getString(R.string.chat_name_unread, chat.name, chat.unreadCount)
+                : chat.name);
         holder.lastMessage.setText(chat.lastMessage != null ? chat.lastMessage : "");
         holder.itemView.setOnClickListener(v -> listener.onChatClick(chat));
     }
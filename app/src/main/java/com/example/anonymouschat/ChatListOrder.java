@@ -0,0 +1,171 @@
+package com.example.anonymouschat;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 依最後活動時間（新到舊）排序的聊天列表，同時以 chatId 索引。
+ * 收到新訊息時以二分搜尋（O(log n)）找出舊位置與新位置，並回報精確的插入／移動／變更位置給 adapter。
+ * 移動本身要把兩個位置之間的列各挪一格，是 O(移動距離)；聊天列表只有數百列，且活躍的聊天室多半已在頂端附近，
+ * 不值得改用平衡樹。最後活動時間相同時維持加入的先後順序（例如伺服器列表原本的順序）。須在主執行緒使用。
+ */
+public class ChatListOrder {
+
+    public interface Callback {
+        void onInserted(int position);
+
+        void onMoved(int fromPosition, int toPosition);
+
+        void onChanged(int position);
+    }
+
+    private final List<ChatItem> items = new ArrayList<>();
+    private final Map<String, ChatItem> byId = new HashMap<>();
+    private final Callback callback;
+    private long nextSequence = 0;
+
+    public ChatListOrder(Callback callback) {
+        this.callback = callback;
+    }
+
+    /** 給 adapter 使用的唯讀檢視，內容隨排序即時變化。 */
+    public List<ChatItem> asList() {
+        return new AbstractList<ChatItem>() {
+            @Override
+            public ChatItem get(int index) {
+                return items.get(index);
+            }
+
+            @Override
+            public int size() {
+                return items.size();
+            }
+        };
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public ChatItem get(int position) {
+        return items.get(position);
+    }
+
+    public boolean contains(String chatId) {
+        return byId.containsKey(chatId);
+    }
+
+    public int indexOf(String chatId) {
+        ChatItem item = byId.get(chatId);
+        return item != null ? search(item) : -1;
+    }
+
+    /** 加入新的聊天室或更新既有的聊天室，回傳它的新位置。 */
+    public int apply(MessageRepository.ChatSummary summary) {
+        ChatItem item = byId.get(summary.chatId);
+        if (item == null) {
+            item = new ChatItem(summary);
+            item.sequence = nextSequence++;
+            byId.put(item.chatId, item);
+            int position = insertionPoint(item);
+            items.add(position, item);
+            callback.onInserted(position);
+            return position;
+        }
+        // 先用舊的排序鍵找到目前位置，再更新內容
+        int from = search(item);
+        item.update(summary);
+        int to = from;
+        if (!inPlace(from)) {
+            to = move(from, item);
+            callback.onMoved(from, to);
+        }
+        callback.onChanged(to);
+        return to;
+    }
+
+    /** 以整份列表取代目前內容（例如伺服器回傳的聊天列表），呼叫端需自行整體重繪。 */
+    public void replaceAll(List<MessageRepository.ChatSummary> summaries) {
+        items.clear();
+        byId.clear();
+        for (MessageRepository.ChatSummary summary : summaries) {
+            if (byId.containsKey(summary.chatId)) continue;
+            ChatItem item = new ChatItem(summary);
+            item.sequence = nextSequence++;
+            byId.put(item.chatId, item);
+            items.add(item);
+        }
+        Collections.sort(items, ChatListOrder::compare);
+    }
+
+    // 新到舊；相同時間時先加入的在前
+    static int compare(ChatItem a, ChatItem b) {
+        if (a.lastActivity != b.lastActivity) {
+            return a.lastActivity > b.lastActivity ? -1 : 1;
+        }
+        return Long.compare(a.sequence, b.sequence);
+    }
+
+    private boolean inPlace(int position) {
+        ChatItem item = items.get(position);
+        return (position == 0 || compare(items.get(position - 1), item) < 0)
+                && (position == items.size() - 1 || compare(item, items.get(position + 1)) < 0);
+    }
+
+    // item 以目前的排序鍵位於列表中
+    private int search(ChatItem item) {
+        int low = 0;
+        int high = items.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(items.get(mid), item);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        throw new IllegalStateException("Chat not found in order: " + item.chatId);
+    }
+
+    // 只挪動舊位置與新位置之間的列，不像 remove + add 那樣移動到列表尾端
+    private int move(int from, ChatItem item) {
+        int to;
+        if (from > 0 && compare(items.get(from - 1), item) > 0) {
+            to = insertionPoint(item, 0, from);
+            for (int i = from; i > to; i--) {
+                items.set(i, items.get(i - 1));
+            }
+        } else {
+            to = insertionPoint(item, from + 1, items.size()) - 1;
+            for (int i = from; i < to; i++) {
+                items.set(i, items.get(i + 1));
+            }
+        }
+        items.set(to, item);
+        return to;
+    }
+
+    private int insertionPoint(ChatItem item) {
+        return insertionPoint(item, 0, items.size());
+    }
+
+    // [low, high) 範圍內第一個排在 item 之後的位置
+    private int insertionPoint(ChatItem item, int low, int high) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(items.get(mid), item) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
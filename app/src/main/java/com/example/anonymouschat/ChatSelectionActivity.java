@@ -88,7 +88,7 @@ public class ChatSelectionActivity extends AppCompatActivity {
             socketManager.connect();
         }
 
-        socketManager.getSocket().on("friendRequest", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "friendRequest", args -> {
             try {
                 JSONObject response = (JSONObject) args[0];
                 String fromUid = response.getString("fromUid");
@@ -127,26 +127,9 @@ public class ChatSelectionActivity extends AppCompatActivity {
                 e.printStackTrace();
                 Log.e(TAG, "處理好友請求失敗: " + e.getMessage());
             }
-        }));
-
-        socketManager.getSocket().on("friendRequestResponse", args -> runOnUiThread(() -> {
-            try {
-                JSONObject response = (JSONObject) args[0];
-                if (response.getBoolean("success")) {
-                    Log.d(TAG, "好友請求發送成功");
-                    Toast.makeText(ChatSelectionActivity.this, "好友請求已發送", Toast.LENGTH_SHORT).show();
-                } else {
-                    String message = response.getString("message");
-                    Log.d(TAG, "好友請求失敗: " + message);
-                    Toast.makeText(ChatSelectionActivity.this, message, Toast.LENGTH_SHORT).show();
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                Log.e(TAG, "處理好友請求回應失敗: " + e.getMessage());
-            }
-        }));
+        });
 
-        socketManager.getSocket().on("friendRequestAccepted", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "friendRequestAccepted", args -> {
             try {
                 JSONObject response = (JSONObject) args[0];
                 String fromUid = response.getString("fromUid");
@@ -157,9 +140,9 @@ public class ChatSelectionActivity extends AppCompatActivity {
                 e.printStackTrace();
                 Log.e(TAG, "處理好友接受失敗: " + e.getMessage());
             }
-        }));
+        });
 
-        socketManager.getSocket().on("friendRequestRejected", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "friendRequestRejected", args -> {
             try {
                 JSONObject response = (JSONObject) args[0];
                 String fromUid = response.getString("fromUid");
@@ -169,7 +152,7 @@ public class ChatSelectionActivity extends AppCompatActivity {
                 e.printStackTrace();
                 Log.e(TAG, "處理好友拒絕失敗: " + e.getMessage());
             }
-        }));
+        });
 
         startChatButton.setOnClickListener(v -> {
             String toUid = toUidEditText.getText().toString().trim();
@@ -255,7 +238,24 @@ public class ChatSelectionActivity extends AppCompatActivity {
             data.put("fromUid", uid);
             data.put("toUid", toUid);
             Log.d(TAG, "發送好友請求: " + data.toString());
-            socketManager.getSocket().emit("friendRequest", data);
+            socketManager.getRpcClient()
+                    // 好友請求不是冪等的，逾時不自動重試
+                    .call("friendRequest", "friendRequestResponse", data, RpcClient.successOrThrow(), RpcClient.DEFAULT_TIMEOUT_MS, 1)
+                    .bindTo(this)
+                    .then(new RpcClient.Callback<JSONObject>() {
+                        @Override
+                        public void onSuccess(JSONObject response) {
+                            Log.d(TAG, "好友請求發送成功");
+                            Toast.makeText(ChatSelectionActivity.this, "好友請求已發送", Toast.LENGTH_SHORT).show();
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            Log.d(TAG, "好友請求失敗: " + e.getMessage());
+                            String message = e instanceof RpcClient.RemoteException ? e.getMessage() : "好友請求逾時，請稍後再試";
+                            Toast.makeText(ChatSelectionActivity.this, message, Toast.LENGTH_SHORT).show();
+                        }
+                    });
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(TAG, "發送好友請求失敗: " + e.getMessage());
@@ -325,10 +325,6 @@ public class ChatSelectionActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        socketManager.getSocket().off("friendRequest");
-        socketManager.getSocket().off("friendRequestResponse");
-        socketManager.getSocket().off("friendRequestAccepted");
-        socketManager.getSocket().off("friendRequestRejected");
         Log.d(TAG, "ChatSelectionActivity onDestroy");
     }
 }
\ No newline at end of file
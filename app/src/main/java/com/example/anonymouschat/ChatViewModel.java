@@ -1,32 +1,82 @@
 package com.example.anonymouschat;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.util.Log;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 
 public class ChatViewModel extends ViewModel {
     private static final String TAG = "ChatViewModel";
+    public static final int PAGE_SIZE = 50;
+    // 超過這段時間仍未收到回應，允許重新請求同一頁
+    private static final long PAGE_TIMEOUT_MS = 10000;
+    // 記憶體中最多保留的最新訊息數，另外保留畫面上的訊息與其上方一頁；更舊的可從本地快取讀回
+    public static final int DEFAULT_WINDOW_SIZE = 1000;
+    public static final int LOW_RAM_WINDOW_SIZE = 300;
+    private static final int SEARCH_LIMIT = 100;
     private MutableLiveData<List<Message>> messagesLiveData = new MutableLiveData<>(new ArrayList<>());
+    // 依時間排序的訊息，同時以 clientMsgId 索引，用來把伺服器回傳的訊息與本地樂觀顯示的訊息對上
+    private final MessageStore store = new MessageStore();
+    // 收到的訊息先暫存，每個畫面最多套用一次，群組洗版時不會每則訊息都重建清單
+    private final FrameCoalescer<Message> incomingMessages = new FrameCoalescer<>(FrameCoalescer.nextFrame(), this::applyIncoming);
     private SocketManager socketManager;
+    private MessageRepository repository;
+    private MessageCache cache;
     private String chatId;
     private String chatType;
     private String uid;
     private boolean hasLeftGroup = false;
+    // 目前等待中的歷史紀錄請求，畫面關閉時取消
+    private volatile String pageRequestId;
+    // 分頁狀態：是否還有更舊的訊息、是否正在載入，避免捲動時重複請求同一頁
+    private volatile boolean hasMoreHistory = true;
+    private volatile boolean loadingPage = false;
+    private volatile long pageRequestedAt;
+    // 伺服器的最新一頁已套用後，較晚讀完的本地快取就不再使用
+    private volatile boolean networkPageApplied = false;
+    private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+    // 畫面上最早一則訊息的時間，-1 表示停在最底部
+    private volatile long viewportTimestamp = -1;
+    // 本次開啟後載入過、且連續的最舊訊息時間；記憶體中最舊的訊息比它新，表示中間被移出了記憶體
+    private volatile long oldestLoaded = Long.MAX_VALUE;
+    // 往回翻頁的游標包含最舊一則的時間，與它同一毫秒的訊息才不會被略過，重複的由 addOlderPage 去除；
+    // 某一頁全是已有的訊息時（同一毫秒的訊息多於一頁），下一次改用不含的游標以免一直請求同一頁
+    private volatile boolean strictCursor = false;
 
     public void init(Context context, String chatId, String chatType, String uid) {
+        if (socketManager != null && chatId.equals(this.chatId)) {
+            // 設定變更（如旋轉）後 ViewModel 仍保留，不需重新訂閱與載入
+            return;
+        }
         this.socketManager = SocketManager.getInstance(context);
+        this.repository = MessageRepository.getInstance(context);
+        this.cache = MessageCache.getInstance(context);
         this.chatId = chatId;
         this.chatType = chatType;
         this.uid = uid;
+        repository.setUid(uid);
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null && activityManager.isLowRamDevice()) {
+            windowSize = LOW_RAM_WINDOW_SIZE;
+        }
         setupSocketListeners();
-        loadChatHistory();
+        loadCachedMessages();
+        PendingHistory pending = socketManager.takePendingHistory(chatId);
+        if (pending != null) {
+            attachHistory(pending);
+        } else {
+            loadChatHistory();
+        }
         Log.d(TAG, "ChatViewModel initialized for chatId: " + chatId + ", chatType: " + chatType);
     }
 
@@ -38,24 +88,152 @@ public class ChatViewModel extends ViewModel {
         if (messageText.isEmpty()) return;
 
         long timestamp = System.currentTimeMillis();
+        String clientMsgId = UUID.randomUUID().toString();
+        Message localMessage = new Message(uid, messageText, "You", timestamp, clientMsgId, Message.State.PENDING);
+        addMessage(localMessage);
+        repository.onLocalMessage(chatId, localMessage);
         try {
             JSONObject messageData = new JSONObject();
             messageData.put("chatId", chatId);
             messageData.put("fromUid", uid);
             messageData.put("message", messageText);
             messageData.put("timestamp", timestamp);
+            messageData.put("clientMsgId", clientMsgId);
             if (chatType.equals("group")) {
-                socketManager.sendGroupMessage(messageData);
+                socketManager.sendGroupMessage(messageData, sendCallback);
                 Log.d(TAG, "Sent group message: " + messageText);
             } else {
-                socketManager.sendChatMessage(messageData);
+                socketManager.sendChatMessage(messageData, sendCallback);
                 Log.d(TAG, "Sent chat message: " + messageText);
             }
         } catch (Exception e) {
             Log.e(TAG, "Failed to send message: " + e.getMessage(), e);
+            updateState(clientMsgId, Message.State.FAILED);
+        }
+    }
+
+    private final SocketManager.SendCallback sendCallback = new SocketManager.SendCallback() {
+        @Override
+        public void onSent(String clientMsgId, long latencyMs) {
+            Log.d(TAG, "Message " + clientMsgId + " sent, latency: " + latencyMs + "ms");
+            updateState(clientMsgId, Message.State.SENT);
+        }
+
+        @Override
+        public void onFailed(String clientMsgId) {
+            updateState(clientMsgId, Message.State.FAILED);
+        }
+    };
+
+    private void updateState(String clientMsgId, Message.State state) {
+        synchronized (store) {
+            if (store.updateState(clientMsgId, state)) {
+                messagesLiveData.postValue(store.snapshot());
+                if (state == Message.State.SENT) {
+                    cache.put(chatId, store.findByClientMsgId(clientMsgId));
+                }
+            }
+        }
+    }
+
+    // MessageRepository 已解析並寫入快取，這裡只負責顯示
+    private final MessageRepository.MessageListener messageListener = (eventChatId, incoming) -> incomingMessages.add(incoming);
+
+    private void addMessage(Message message) {
+        addMessages(Collections.singletonList(message));
+    }
+
+    private void addMessages(List<Message> incoming) {
+        synchronized (store) {
+            if (store.addAll(incoming)) {
+                messagesLiveData.postValue(store.snapshot());
+            }
+        }
+    }
+
+    // 主執行緒
+    private void applyIncoming(List<Message> incoming) {
+        synchronized (store) {
+            if (store.addAll(incoming)) {
+                trimWindow(windowSize);
+                messagesLiveData.setValue(store.snapshot());
+            }
         }
     }
 
+    public void setWindowSize(int windowSize) {
+        this.windowSize = Math.max(PAGE_SIZE, windowSize);
+    }
+
+    /** 捲動停止時由畫面回報最早一則可見訊息的時間；停在最底部時傳入 -1，並順便縮減視窗。 */
+    public void onViewportChanged(long firstVisibleTimestamp) {
+        viewportTimestamp = firstVisibleTimestamp;
+        synchronized (store) {
+            if (trimWindow(windowSize)) {
+                messagesLiveData.setValue(store.snapshot());
+            }
+        }
+    }
+
+    /** 系統記憶體吃緊時縮小視窗；介面已隱藏或記憶體偏低時只保留畫面附近的訊息。須在主執行緒呼叫。 */
+    public void onTrimMemory(int level) {
+        int window;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            window = PAGE_SIZE;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            window = Math.max(PAGE_SIZE, windowSize / 2);
+        } else {
+            return;
+        }
+        synchronized (store) {
+            if (trimWindow(window)) {
+                messagesLiveData.setValue(store.snapshot());
+            }
+        }
+    }
+
+    /**
+     * 移出視窗外最舊的訊息。已送出的訊息都已寫入本地快取，往回捲時由 loadOlderMessages 讀回。
+     * 須持有 store 的鎖，回傳內容是否有變化。
+     */
+    private boolean trimWindow(int window) {
+        int keepFrom = store.size() - window;
+        long viewport = viewportTimestamp;
+        if (viewport >= 0) {
+            keepFrom = Math.min(keepFrom, store.indexAtOrAfter(viewport) - PAGE_SIZE);
+        }
+        if (keepFrom <= 0) return false;
+        int evicted = store.evictOldest(keepFrom);
+        if (evicted == 0) return false;
+        Runtime runtime = Runtime.getRuntime();
+        Log.d(TAG, "Evicted " + evicted + " old message(s), in memory: " + store.size()
+                + ", heap used: " + (runtime.totalMemory() - runtime.freeMemory()) / 1024 + "KB");
+        return true;
+    }
+
+    // 去除已有的訊息後加入較舊的一頁，回傳實際加入的則數；須持有 store 的鎖
+    private int addOlderPage(List<Message> page) {
+        List<Message> fresh = new ArrayList<>(page.size());
+        for (Message m : page) {
+            if (!store.contains(m)) fresh.add(m);
+        }
+        int added = store.addOlder(fresh);
+        strictCursor = !page.isEmpty() && added == 0;
+        return added;
+    }
+
+    private void noteOldest() {
+        if (store.size() > 0) {
+            oldestLoaded = Math.min(oldestLoaded, oldestTimestamp());
+        }
+    }
+
+    // 移出視窗時保留在最前面的未送出訊息不算，須持有 store 的鎖且 store 不為空
+    private long oldestTimestamp() {
+        int index = store.oldestSentIndex();
+        return store.get(Math.max(index, 0)).getTimestamp();
+    }
+
     public void leaveGroup() {
         if (!chatType.equals("group") || hasLeftGroup) {
             Log.d(TAG, "Not a group chat or already left group, skipping leaveGroup");
@@ -75,127 +253,282 @@ public class ChatViewModel extends ViewModel {
     }
 
     private void setupSocketListeners() {
-        socketManager.getSocket().on("chatMessage", args -> {
-            try {
-                if (args == null || args.length == 0) {
-                    Log.e(TAG, "chatMessage event received null or empty args");
-                    return;
-                }
-                JSONObject messageData = (JSONObject) args[0];
-                String receivedChatId = messageData.optString("chatId", null);
-                if (receivedChatId == null || !receivedChatId.equals(chatId)) return;
-
-                String fromUid = messageData.optString("fromUid", null);
-                String messageText = messageData.optString("message", "");
-                String nickname = messageData.optString("nickname", "Unknown");
-                long timestamp = messageData.optLong("timestamp", System.currentTimeMillis());
-                if (fromUid == null) {
-                    Log.e(TAG, "chatMessage event missing fromUid");
-                    return;
-                }
+        repository.addMessageListener(chatId, messageListener);
+        // 重連後 SocketManager 替這個聊天室取回的訊息
+        socketManager.getGapFiller().track(chatId, new GapFiller.Listener() {
+            @Override
+            public void onGapPage(MessageCodec.HistoryPage page) {
+                applyGap(page);
+            }
 
-                List<Message> currentMessages = new ArrayList<>(messagesLiveData.getValue() != null ? messagesLiveData.getValue() : new ArrayList<>());
-                currentMessages.add(new Message(fromUid, messageText, nickname, timestamp));
-                Collections.sort(currentMessages, (m1, m2) -> Long.compare(m1.getTimestamp(), m2.getTimestamp()));
-                messagesLiveData.postValue(currentMessages);
-                Log.d(TAG, "Received chat message: " + messageText);
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to process chat message: " + e.getMessage(), e);
+            @Override
+            public void onLatestPage(MessageCodec.HistoryPage page) {
+                applyHistory(page, true);
             }
         });
+    }
 
-        socketManager.getSocket().on("groupMessage", args -> {
-            try {
-                if (args == null || args.length == 0) {
-                    Log.e(TAG, "groupMessage event received null or empty args");
-                    return;
+    // 回應已依 requestId 對應到這個聊天室的請求，latest 表示請求的是最新一頁而不是往回翻頁
+    private void applyHistory(MessageCodec.HistoryPage page, boolean latest) {
+        loadingPage = false;
+        if (!page.success) {
+            Log.e(TAG, "Failed to load chat history: " + page.errorMessage);
+            return;
+        }
+        List<Message> newMessages = page.messages;
+        cache.put(chatId, newMessages);
+        if (latest) {
+            socketManager.getGapFiller().observe(chatId, newMessages);
+        }
+        int total;
+        synchronized (store) {
+            if (!latest) {
+                if (addOlderPage(newMessages) > 0) {
+                    noteOldest();
+                    messagesLiveData.postValue(store.snapshot());
+                }
+            } else {
+                networkPageApplied = true;
+                // 最新一頁：保留已載入、比這一頁更舊的訊息，以及尚未被伺服器確認的本地訊息
+                long oldestInPage = Long.MAX_VALUE;
+                Set<String> historyIds = new HashSet<>();
+                boolean overlaps = false;
+                for (Message m : newMessages) {
+                    oldestInPage = Math.min(oldestInPage, m.getTimestamp());
+                    if (m.getClientMsgId() != null) historyIds.add(m.getClientMsgId());
+                    overlaps |= store.contains(m);
                 }
-                JSONObject messageData = (JSONObject) args[0];
-                String receivedChatId = messageData.optString("chatId", null);
-                if (receivedChatId == null || !receivedChatId.equals(chatId)) return;
-
-                String type = messageData.optString("type", "user");
-                List<Message> currentMessages = new ArrayList<>(messagesLiveData.getValue() != null ? messagesLiveData.getValue() : new ArrayList<>());
-                if (type.equals("system")) {
-                    String messageText = messageData.optString("message", "");
-                    currentMessages.add(new Message("system", messageText, "System", System.currentTimeMillis()));
-                    Log.d(TAG, "Received system message: " + messageText);
-                } else {
-                    String fromUid = messageData.optString("fromUid", null);
-                    String messageText = messageData.optString("message", "");
-                    String nickname = messageData.optString("nickname", "Unknown");
-                    long timestamp = messageData.optLong("timestamp", System.currentTimeMillis());
-                    if (fromUid == null) {
-                        Log.e(TAG, "groupMessage event missing fromUid");
-                        return;
+                // 已有的較舊訊息（例如來自快取）與這一頁沒有交集且伺服器還有更舊的時，中間可能有缺漏，不保留
+                boolean keepOlder = overlaps || !page.hasMore;
+                List<Message> merged = new ArrayList<>(newMessages.size() + store.size());
+                for (Message m : store.snapshot()) {
+                    if (m.getClientMsgId() != null && historyIds.contains(m.getClientMsgId())) continue;
+                    if (m.getState() != Message.State.SENT || (keepOlder && m.getTimestamp() < oldestInPage)) {
+                        merged.add(m);
                     }
-                    currentMessages.add(new Message(fromUid, messageText, nickname, timestamp));
-                    Log.d(TAG, "Received group message: " + messageText);
                 }
-                Collections.sort(currentMessages, (m1, m2) -> Long.compare(m1.getTimestamp(), m2.getTimestamp()));
-                messagesLiveData.postValue(currentMessages);
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to process group message: " + e.getMessage(), e);
+                merged.addAll(newMessages);
+                // 快取已顯示的內容與伺服器一致時不重繪
+                if (!sameMessages(merged, store.snapshot())) {
+                    store.replaceAll(merged);
+                    trimWindow(windowSize);
+                    messagesLiveData.postValue(store.snapshot());
+                }
+                oldestLoaded = store.size() > 0 ? oldestTimestamp() : Long.MAX_VALUE;
+            }
+            total = store.size();
+        }
+        hasMoreHistory = page.hasMore;
+        Runtime runtime = Runtime.getRuntime();
+        Log.d(TAG, "Loaded history page of " + newMessages.size() + " in "
+                + (System.currentTimeMillis() - pageRequestedAt) + "ms, total: " + total
+                + ", hasMore: " + page.hasMore
+                + ", heap used: " + (runtime.totalMemory() - runtime.freeMemory()) / 1024 + "KB");
+    }
+
+    /**
+     * 第一次載入時，解析到一段就先顯示，不等整份歷史紀錄解析完；
+     * 之後的完整一頁會在 applyHistory 中取代這些訊息。
+     */
+    private void applyFirstChunk(List<Message> chunk) {
+        if (networkPageApplied) return;
+        synchronized (store) {
+            if (networkPageApplied) return;
+            List<Message> fresh = new ArrayList<>(chunk.size());
+            for (Message m : chunk) {
+                if (!store.contains(m)) fresh.add(m);
+            }
+            if (store.addAll(fresh)) {
+                messagesLiveData.postValue(store.snapshot());
+            }
+        }
+    }
+
+    /** 重連後補上的訊息：只加入還沒有的，重複收到同一頁也不會產生重複訊息。 */
+    private void applyGap(MessageCodec.HistoryPage page) {
+        if (!page.success) {
+            Log.e(TAG, "Failed to fill message gap: " + page.errorMessage);
+            return;
+        }
+        List<Message> missed = new ArrayList<>(page.messages.size());
+        synchronized (store) {
+            for (Message m : page.messages) {
+                if (!store.contains(m)) missed.add(m);
+            }
+            if (store.addAll(missed)) {
+                trimWindow(windowSize);
+                messagesLiveData.postValue(store.snapshot());
             }
+        }
+        cache.put(chatId, missed);
+        socketManager.getGapFiller().onGapPage(chatId, page);
+        Log.d(TAG, "Filled gap after " + page.after + " with " + missed.size() + " of " + page.messages.size() + " message(s)");
+    }
+
+    private static boolean sameMessages(List<Message> a, List<Message> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).getKey().equals(b.get(i).getKey())) return false;
+        }
+        return true;
+    }
+
+    /** 先顯示本地快取的最新一頁，不必等伺服器回應。 */
+    private void loadCachedMessages() {
+        long start = System.currentTimeMillis();
+        cache.loadAsync(chatId, -1, PAGE_SIZE, cached -> {
+            if (cached.isEmpty() || networkPageApplied) return;
+            synchronized (store) {
+                if (networkPageApplied) return;
+                store.addOlder(cached);
+                noteOldest();
+                messagesLiveData.postValue(store.snapshot());
+            }
+            socketManager.getGapFiller().observe(chatId, cached);
+            Log.d(TAG, "Showing " + cached.size() + " cached messages after " + (System.currentTimeMillis() - start) + "ms");
         });
+    }
 
-        socketManager.getSocket().on("getChatHistoryResponse", args -> {
-            try {
-                if (args == null || args.length == 0) {
-                    Log.e(TAG, "getChatHistoryResponse event received null or empty args");
-                    return;
-                }
-                JSONObject response = (JSONObject) args[0];
-                boolean success = response.optBoolean("success", false);
-                if (success) {
-                    JSONArray history = response.optJSONArray("messages");
-                    if (history == null) {
-                        Log.e(TAG, "getChatHistoryResponse event missing messages array");
-                        return;
+    private void loadChatHistory() {
+        requestPage(-1);
+    }
+
+    // 接手聊天列表點擊時已送出的請求，失敗或逾時時改為自行請求
+    private void attachHistory(PendingHistory pending) {
+        loadingPage = true;
+        pageRequestedAt = pending.getRequestedAt();
+        Log.d(TAG, "Attached to history request started " + (System.currentTimeMillis() - pending.getRequestedAt())
+                + "ms ago for chatId: " + chatId);
+        pending.attach(new SocketManager.HistoryCallback() {
+            @Override
+            public void onChunk(List<Message> chunk) {
+                applyFirstChunk(chunk);
+            }
+
+            @Override
+            public void onHistory(MessageCodec.HistoryPage page) {
+                applyHistory(page, true);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.w(TAG, "History request started on tap failed, requesting again: " + e.getMessage());
+                loadingPage = false;
+                requestPage(-1);
+            }
+        });
+    }
+
+    /**
+     * 捲動接近最舊的訊息時呼叫，載入更早的一頁；沒有更多或正在載入時不做任何事。
+     * 先前移出記憶體的範圍與離線時都從本地快取讀回，其餘向伺服器請求。
+     * 回傳是否有一頁正在載入。
+     */
+    public boolean loadOlderMessages() {
+        if (socketManager == null) return false;
+        if (loadingPage && System.currentTimeMillis() - pageRequestedAt < PAGE_TIMEOUT_MS) return true;
+        long before;
+        synchronized (store) {
+            if (store.size() == 0) return false;
+            before = oldestTimestamp();
+        }
+        long floor = oldestLoaded;
+        boolean evictedRange = before > floor;
+        if (!hasMoreHistory && !evictedRange) return false;
+        if (evictedRange || !socketManager.isConnected()) {
+            loadingPage = true;
+            pageRequestedAt = System.currentTimeMillis();
+            cache.loadAsync(chatId, strictCursor ? before - 1 : before, PAGE_SIZE, older -> {
+                loadingPage = false;
+                List<Message> page = older;
+                if (evictedRange) {
+                    // 只讀回本次載入過的連續範圍，快取中更早的訊息之間可能有缺漏
+                    page = new ArrayList<>(older.size());
+                    for (Message m : older) {
+                        if (m.getTimestamp() >= floor) page.add(m);
                     }
-                    List<Message> newMessages = new ArrayList<>();
-                    for (int i = 0; i < history.length(); i++) {
-                        JSONObject msg = history.getJSONObject(i);
-                        String fromUid = msg.optString("fromUid", null);
-                        String messageText = msg.optString("message", "");
-                        String nickname = msg.optString("nickname", "Unknown");
-                        long timestamp = msg.optLong("timestamp", System.currentTimeMillis());
-                        if (fromUid == null) {
-                            Log.w(TAG, "Message missing fromUid at index: " + i);
-                            continue;
-                        }
-                        newMessages.add(new Message(fromUid, messageText, nickname, timestamp));
+                    if (page.isEmpty()) {
+                        // 快取中已沒有這段範圍的訊息，之後改向伺服器請求
+                        oldestLoaded = before;
                     }
-                    Collections.sort(newMessages, (m1, m2) -> Long.compare(m1.getTimestamp(), m2.getTimestamp()));
-                    messagesLiveData.postValue(newMessages);
-                    Log.d(TAG, "Loaded chat history, message count: " + newMessages.size());
-                } else {
-                    String message = response.optString("message", "Unknown error");
-                    Log.e(TAG, "Failed to load chat history: " + message);
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to process chat history: " + e.getMessage(), e);
-            }
-        });
+                synchronized (store) {
+                    if (addOlderPage(page) > 0) {
+                        messagesLiveData.postValue(store.snapshot());
+                    }
+                }
+            });
+            return true;
+        }
+        // 伺服器的 before 不含該時間，加一才會包含同一毫秒的訊息
+        requestPage(strictCursor ? before : before + 1);
+        return true;
     }
 
-    private void loadChatHistory() {
+    /** 在本地快取中搜尋這個聊天室的訊息，結果在背景執行緒回傳。 */
+    public void searchMessages(String query, MessageCache.SearchCallback callback) {
+        if (cache == null) return;
+        cache.searchAsync(query, chatId, SEARCH_LIMIT, callback);
+    }
+
+    public boolean hasMoreHistory() {
+        return hasMoreHistory;
+    }
+
+    private void requestPage(long before) {
+        boolean latest = before < 0;
         try {
             JSONObject request = new JSONObject();
             request.put("chatId", chatId);
-            socketManager.getSocket().emit("getChatHistory", request);
-            Log.d(TAG, "Requested chat history for chatId: " + chatId);
+            request.put("limit", PAGE_SIZE);
+            if (!latest) {
+                request.put("before", before);
+            }
+            if (latest) {
+                socketManager.getHistoryMetrics().onRequest(chatId);
+            }
+            loadingPage = true;
+            pageRequestedAt = System.currentTimeMillis();
+            pageRequestId = socketManager.requestHistory(request, new SocketManager.HistoryCallback() {
+                @Override
+                public void onChunk(List<Message> chunk) {
+                    if (latest) applyFirstChunk(chunk);
+                }
+
+                @Override
+                public void onHistory(MessageCodec.HistoryPage page) {
+                    applyHistory(page, latest);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    loadingPage = false;
+                    Log.e(TAG, "Failed to load chat history: " + e.getMessage(), e);
+                }
+            });
+            Log.d(TAG, "Requested chat history for chatId: " + chatId + (latest ? "" : ", before: " + before));
         } catch (Exception e) {
+            loadingPage = false;
             Log.e(TAG, "Failed to request chat history: " + e.getMessage(), e);
         }
     }
 
     public void cleanup() {
-        if (socketManager != null && socketManager.getSocket() != null) {
-            socketManager.getSocket().off("chatMessage");
-            socketManager.getSocket().off("groupMessage");
-            socketManager.getSocket().off("getChatHistoryResponse");
+        if (socketManager != null) {
+            socketManager.removeSendCallback(sendCallback);
+            repository.removeMessageListener(chatId, messageListener);
+            socketManager.getGapFiller().untrack(chatId);
+            String requestId = pageRequestId;
+            if (requestId != null) {
+                socketManager.cancelHistoryRequest(requestId);
+            }
         }
         Log.d(TAG, "ChatViewModel cleanup");
     }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        cleanup();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package com.example.anonymouschat;
+
+import android.os.SystemClock;
+
+// 可替換的時間來源，測試時注入假時鐘
+interface Clock {
+    Clock ELAPSED_REALTIME = SystemClock::elapsedRealtime;
+
+    long nowMs();
+}
@@ -0,0 +1,335 @@
+package com.example.anonymouschat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 以欄位方式存放大量訊息：時間、發送者索引等存在平行的基本型別陣列，
+ * uid 與暱稱放在共用的字串池（同一個成員只存一份），內文與 clientMsgId 存在分塊的位元組區。
+ * 與 Java 的 compact strings 相同，只含 Latin-1 字元的文字每字一個位元組，其餘每字兩個位元組。
+ * 讀取透過可重複使用的 Cursor，逐則走訪時不會替每則訊息配置物件。
+ * 訊息須依時間順序加入。本類別不是執行緒安全的。
+ */
+public class CompactMessageList {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final Message.State[] STATES = Message.State.values();
+
+    // 文字參照：區塊 22 位元 | 區塊內位移 17 位元 | 位元組長度 24 位元 | 是否為 UTF-16 1 位元；-1 表示 null
+    private static final int OFFSET_BITS = 17;
+    private static final int LENGTH_BITS = 24;
+    private static final long NULL_REF = -1;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] senders = new int[INITIAL_CAPACITY];
+    private int[] nicknames = new int[INITIAL_CAPACITY];
+    private long[] texts = new long[INITIAL_CAPACITY];
+    private long[] clientMsgIds = new long[INITIAL_CAPACITY];
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private final List<String> pool = new ArrayList<>();
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] currentChunk;
+    private int currentChunkIndex = -1;
+    private int chunkUsed = CHUNK_BYTES;
+
+    public int size() {
+        return size;
+    }
+
+    public void addAll(List<Message> messages) {
+        for (Message message : messages) {
+            add(message);
+        }
+    }
+
+    public int add(Message message) {
+        return add(message.getFromUid(), message.getNickname(), message.getText(), message.getTimestamp(),
+                message.getClientMsgId(), message.getState());
+    }
+
+    public int add(String fromUid, String nickname, String text, long timestamp, String clientMsgId, Message.State state) {
+        if (size > 0 && timestamp < timestamps[size - 1]) {
+            throw new IllegalArgumentException("Messages must be added in timestamp order");
+        }
+        ensureCapacity(size + 1);
+        timestamps[size] = timestamp;
+        senders[size] = intern(fromUid);
+        nicknames[size] = intern(nickname);
+        texts[size] = store(text);
+        clientMsgIds[size] = store(clientMsgId);
+        states[size] = (byte) state.ordinal();
+        return size++;
+    }
+
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    /** 回傳字串池中的同一個實例，不會配置新物件。 */
+    public String getFromUid(int index) {
+        checkIndex(index);
+        return pool.get(senders[index]);
+    }
+
+    public String getNickname(int index) {
+        checkIndex(index);
+        return pool.get(nicknames[index]);
+    }
+
+    public Message.State getState(int index) {
+        checkIndex(index);
+        return STATES[states[index]];
+    }
+
+    public void setState(int index, Message.State state) {
+        checkIndex(index);
+        states[index] = (byte) state.ordinal();
+    }
+
+    /** 會配置新的 String；逐則顯示時改用 Cursor.getText()。 */
+    public String getText(int index) {
+        checkIndex(index);
+        return decode(texts[index]);
+    }
+
+    public String getClientMsgId(int index) {
+        checkIndex(index);
+        return decode(clientMsgIds[index]);
+    }
+
+    /** 轉回一般的 Message，例如要交給只接受 Message 的程式碼時。 */
+    public Message toMessage(int index) {
+        return new Message(getFromUid(index), getText(index), getNickname(index), getTimestamp(index),
+                getClientMsgId(index), getState(index));
+    }
+
+    /** 第一則時間不早於 timestamp 的訊息位置，全部都較早時回傳 size()。 */
+    public int indexAtOrAfter(long timestamp) {
+        int index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+        if (index < 0) return -index - 1;
+        while (index > 0 && timestamps[index - 1] == timestamp) index--;
+        return index;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /** 估計佔用的位元組數（陣列與文字區塊，不含字串池中字串本身）。 */
+    public long estimatedBytes() {
+        long bytes = (long) timestamps.length * (8 + 4 + 4 + 8 + 8 + 1);
+        for (byte[] chunk : chunks) {
+            bytes += chunk.length;
+        }
+        return bytes;
+    }
+
+    public int poolSize() {
+        return pool.size();
+    }
+
+    /**
+     * 指向某一則訊息的可重複使用檢視。moveTo 之後的所有 getter 都不配置物件；
+     * getText() 回傳的 CharSequence 也會被下一次 moveTo 重複使用，需要保留時請呼叫 toString()。
+     */
+    public final class Cursor {
+        private final TextSlice text = new TextSlice();
+        private int index = -1;
+
+        public Cursor moveTo(int index) {
+            checkIndex(index);
+            this.index = index;
+            text.set(texts[index]);
+            return this;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getTimestamp() {
+            return timestamps[index];
+        }
+
+        public String getFromUid() {
+            return pool.get(senders[index]);
+        }
+
+        public String getNickname() {
+            return pool.get(nicknames[index]);
+        }
+
+        public Message.State getState() {
+            return STATES[states[index]];
+        }
+
+        public CharSequence getText() {
+            return text;
+        }
+    }
+
+    private final class TextSlice implements CharSequence {
+        private byte[] chunk;
+        private int offset;
+        private int length;
+        private boolean utf16;
+
+        void set(long ref) {
+            if (ref == NULL_REF) {
+                chunk = null;
+                length = 0;
+                return;
+            }
+            chunk = chunks.get(chunkOf(ref));
+            offset = offsetOf(ref);
+            utf16 = isUtf16(ref);
+            length = utf16 ? byteLengthOf(ref) / 2 : byteLengthOf(ref);
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int i) {
+            if (i < 0 || i >= length) throw new IndexOutOfBoundsException("Index: " + i + ", length: " + length);
+            return charAtRaw(chunk, offset, utf16, i);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            if (chunk == null) return "";
+            return decode(chunk, offset, length, utf16);
+        }
+    }
+
+    private int intern(String value) {
+        if (value == null) value = "";
+        Integer index = poolIndex.get(value);
+        if (index == null) {
+            index = pool.size();
+            pool.add(value);
+            poolIndex.put(value, index);
+        }
+        return index;
+    }
+
+    private long store(String value) {
+        if (value == null) return NULL_REF;
+        int length = value.length();
+        boolean utf16 = false;
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) > 0xFF) {
+                utf16 = true;
+                break;
+            }
+        }
+        int bytes = utf16 ? length * 2 : length;
+        if (bytes >= (1 << LENGTH_BITS)) {
+            throw new IllegalArgumentException("Text too long: " + length);
+        }
+        byte[] chunk;
+        int chunkIndex;
+        int offset;
+        if (bytes > CHUNK_BYTES) {
+            // 超過一個區塊的長文字單獨放一塊
+            chunk = new byte[bytes];
+            chunkIndex = chunks.size();
+            chunks.add(chunk);
+            offset = 0;
+        } else {
+            if (currentChunk == null || chunkUsed + bytes > CHUNK_BYTES) {
+                currentChunk = new byte[CHUNK_BYTES];
+                currentChunkIndex = chunks.size();
+                chunks.add(currentChunk);
+                chunkUsed = 0;
+            }
+            chunk = currentChunk;
+            chunkIndex = currentChunkIndex;
+            offset = chunkUsed;
+            chunkUsed += bytes;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (utf16) {
+                chunk[offset + 2 * i] = (byte) (c >> 8);
+                chunk[offset + 2 * i + 1] = (byte) c;
+            } else {
+                chunk[offset + i] = (byte) c;
+            }
+        }
+        return ((long) chunkIndex << (OFFSET_BITS + LENGTH_BITS + 1))
+                | ((long) offset << (LENGTH_BITS + 1))
+                | ((long) bytes << 1)
+                | (utf16 ? 1 : 0);
+    }
+
+    private String decode(long ref) {
+        if (ref == NULL_REF) return null;
+        boolean utf16 = isUtf16(ref);
+        int bytes = byteLengthOf(ref);
+        return decode(chunks.get(chunkOf(ref)), offsetOf(ref), utf16 ? bytes / 2 : bytes, utf16);
+    }
+
+    private static String decode(byte[] chunk, int offset, int length, boolean utf16) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = charAtRaw(chunk, offset, utf16, i);
+        }
+        return new String(chars);
+    }
+
+    private static char charAtRaw(byte[] chunk, int offset, boolean utf16, int i) {
+        if (utf16) {
+            return (char) (((chunk[offset + 2 * i] & 0xFF) << 8) | (chunk[offset + 2 * i + 1] & 0xFF));
+        }
+        return (char) (chunk[offset + i] & 0xFF);
+    }
+
+    private static int chunkOf(long ref) {
+        return (int) (ref >>> (OFFSET_BITS + LENGTH_BITS + 1));
+    }
+
+    private static int offsetOf(long ref) {
+        return (int) ((ref >>> (LENGTH_BITS + 1)) & ((1 << OFFSET_BITS) - 1));
+    }
+
+    private static int byteLengthOf(long ref) {
+        return (int) ((ref >>> 1) & ((1 << LENGTH_BITS) - 1));
+    }
+
+    private static boolean isUtf16(long ref) {
+        return (ref & 1) != 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= timestamps.length) return;
+        int next = Math.max(capacity, timestamps.length * 2);
+        timestamps = Arrays.copyOf(timestamps, next);
+        senders = Arrays.copyOf(senders, next);
+        nicknames = Arrays.copyOf(nicknames, next);
+        texts = Arrays.copyOf(texts, next);
+        clientMsgIds = Arrays.copyOf(clientMsgIds, next);
+        states = Arrays.copyOf(states, next);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.anonymouschat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 連線品質統計：應用層 ping 的 RTT、斷線次數與時長、連線所需時間。
+ * 全部以原子變數記錄，可在 socket 執行緒上直接更新；snapshot() 給除錯畫面或測試讀取。
+ */
+public class ConnectionStats {
+    private final Clock clock;
+    private final LatencyHistogram rttMs = new LatencyHistogram();
+    private final LatencyHistogram timeToConnectMs = new LatencyHistogram();
+    private final LatencyHistogram disconnectDurationMs = new LatencyHistogram();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final AtomicLong connectErrors = new AtomicLong();
+    private final AtomicLong pingsSent = new AtomicLong();
+    private final AtomicLong pongsMissed = new AtomicLong();
+    // 本輪斷線後第一次嘗試連線的時間，包含退避等待，量的是使用者實際感受到的連線時間
+    private volatile long connectStartedAt = -1;
+    private volatile long disconnectedAt = -1;
+    private volatile long connectedAt = -1;
+
+    public ConnectionStats() {
+        this(Clock.ELAPSED_REALTIME);
+    }
+
+    ConnectionStats(Clock clock) {
+        this.clock = clock;
+    }
+
+    public void onConnectAttempt() {
+        if (connectStartedAt < 0) {
+            connectStartedAt = clock.nowMs();
+        }
+    }
+
+    public void onConnected() {
+        long now = clock.nowMs();
+        connects.incrementAndGet();
+        long started = connectStartedAt;
+        if (started >= 0) {
+            timeToConnectMs.record(now - started);
+            connectStartedAt = -1;
+        }
+        long downSince = disconnectedAt;
+        if (downSince >= 0) {
+            disconnectDurationMs.record(now - downSince);
+            disconnectedAt = -1;
+        }
+        connectedAt = now;
+    }
+
+    public void onDisconnected() {
+        disconnects.incrementAndGet();
+        disconnectedAt = clock.nowMs();
+        connectedAt = -1;
+    }
+
+    public void onConnectError() {
+        connectErrors.incrementAndGet();
+    }
+
+    public void onPingSent() {
+        pingsSent.incrementAndGet();
+    }
+
+    public void onPong(long rtt) {
+        rttMs.record(rtt);
+    }
+
+    public void onPongMissed() {
+        pongsMissed.incrementAndGet();
+    }
+
+    public Snapshot snapshot() {
+        long now = clock.nowMs();
+        long up = connectedAt;
+        long down = disconnectedAt;
+        return new Snapshot(rttMs.snapshot(), timeToConnectMs.snapshot(), disconnectDurationMs.snapshot(),
+                connects.get(), disconnects.get(), connectErrors.get(), pingsSent.get(), pongsMissed.get(),
+                up >= 0 ? now - up : 0, down >= 0 ? now - down : 0);
+    }
+
+    public static class Snapshot {
+        public final LatencyHistogram.Snapshot rttMs;
+        public final LatencyHistogram.Snapshot timeToConnectMs;
+        public final LatencyHistogram.Snapshot disconnectDurationMs;
+        public final long connects;
+        public final long disconnects;
+        public final long connectErrors;
+        public final long pingsSent;
+        public final long pongsMissed;
+        public final long currentUptimeMs;
+        public final long currentDowntimeMs;
+
+        Snapshot(LatencyHistogram.Snapshot rttMs, LatencyHistogram.Snapshot timeToConnectMs,
+                 LatencyHistogram.Snapshot disconnectDurationMs, long connects, long disconnects, long connectErrors,
+                 long pingsSent, long pongsMissed, long currentUptimeMs, long currentDowntimeMs) {
+            this.rttMs = rttMs;
+            this.timeToConnectMs = timeToConnectMs;
+            this.disconnectDurationMs = disconnectDurationMs;
+            this.connects = connects;
+            this.disconnects = disconnects;
+            this.connectErrors = connectErrors;
+            this.pingsSent = pingsSent;
+            this.pongsMissed = pongsMissed;
+            this.currentUptimeMs = currentUptimeMs;
+            this.currentDowntimeMs = currentDowntimeMs;
+        }
+
+        @Override
+        public String toString() {
+            return "rtt(ms): " + rttMs
+                    + "\ntime to connect(ms): " + timeToConnectMs
+                    + "\ndisconnect duration(ms): " + disconnectDurationMs
+                    + "\nconnects=" + connects + " disconnects=" + disconnects + " connectErrors=" + connectErrors
+                    + "\npings=" + pingsSent + " missedPongs=" + pongsMissed
+                    + "\nuptime=" + currentUptimeMs + "ms downtime=" + currentDowntimeMs + "ms";
+        }
+    }
+}
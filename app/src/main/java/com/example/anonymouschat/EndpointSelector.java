@@ -0,0 +1,249 @@
+package com.example.anonymouschat;
+
+import android.util.Log;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 從多個候選伺服器中挑選延遲最低的可用者。
+ * 探測時平行對每個伺服器做一次 Engine.IO 握手並量測耗時；
+ * 失敗的伺服器進入冷卻期（每次失敗加倍），冷卻期間不會被選中。
+ */
+public class EndpointSelector {
+    private static final String TAG = "EndpointSelector";
+    public static final int PROBE_TIMEOUT_MS = 3000;
+    private static final long BASE_COOLDOWN_MS = 30000;
+    private static final long MAX_COOLDOWN_MS = 10 * 60 * 1000;
+    // 新的伺服器要快這麼多才值得切換，避免在差不多快的伺服器之間來回跳
+    private static final long SWITCH_MARGIN_MS = 50;
+    private static final double SWITCH_RATIO = 0.7;
+
+    public interface Prober {
+        /** 回傳握手耗時（毫秒），無法連線時拋出例外。 */
+        long probe(String url) throws IOException;
+    }
+
+    public interface ProbeListener {
+        void onProbed(String best);
+    }
+
+    private static class EndpointState {
+        final String url;
+        long latencyMs = -1;
+        int failures = 0;
+        long cooldownUntil = 0;
+
+        EndpointState(String url) {
+            this.url = url;
+        }
+    }
+
+    private final List<EndpointState> endpoints = new ArrayList<>();
+    private final Prober prober;
+    private final Clock clock;
+    private final ExecutorService probeExecutor;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "endpoint-reprobe");
+        t.setDaemon(true);
+        return t;
+    });
+    private String current;
+    private ScheduledFuture<?> periodicProbe;
+
+    public EndpointSelector(List<String> urls) {
+        this(urls, EndpointSelector::handshake, Clock.ELAPSED_REALTIME);
+    }
+
+    EndpointSelector(List<String> urls, Prober prober, Clock clock) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("No endpoints configured");
+        }
+        for (String url : urls) {
+            endpoints.add(new EndpointState(url));
+        }
+        this.prober = prober;
+        this.clock = clock;
+        this.current = urls.get(0);
+        this.probeExecutor = Executors.newFixedThreadPool(urls.size(), r -> {
+            Thread t = new Thread(r, "endpoint-probe");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public synchronized String current() {
+        return current;
+    }
+
+    public int size() {
+        return endpoints.size();
+    }
+
+    /** 平行探測所有伺服器並更新目前選擇，會阻塞直到全部完成或逾時。 */
+    public String probeAll() {
+        Map<EndpointState, Future<Long>> futures = new HashMap<>();
+        for (EndpointState endpoint : endpoints) {
+            futures.put(endpoint, probeExecutor.submit(() -> prober.probe(endpoint.url)));
+        }
+        Map<EndpointState, Long> results = new HashMap<>();
+        // 所有探測共用同一個期限，整體最多等 PROBE_TIMEOUT_MS
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT_MS);
+        for (Map.Entry<EndpointState, Future<Long>> entry : futures.entrySet()) {
+            long latency;
+            try {
+                latency = entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (Exception e) {
+                entry.getValue().cancel(true);
+                latency = -1;
+                Log.w(TAG, "Probe failed for " + entry.getKey().url + ": " + e);
+            }
+            results.put(entry.getKey(), latency);
+        }
+        synchronized (this) {
+            for (Map.Entry<EndpointState, Long> entry : results.entrySet()) {
+                if (entry.getValue() >= 0) {
+                    // 握手成功不代表 socket 能連上，冷卻期仍要等到期或實際連線成功才解除
+                    entry.getKey().latencyMs = entry.getValue();
+                } else {
+                    demote(entry.getKey());
+                }
+            }
+            EndpointState best = best();
+            if (best != null && shouldMoveTo(best)) {
+                Log.d(TAG, "Selected " + best.url + " (" + best.latencyMs + "ms)");
+                current = best.url;
+            }
+            return current;
+        }
+    }
+
+    /** 在背景探測，完成後通知 listener。 */
+    public void probeAsync(ProbeListener listener) {
+        scheduler.execute(() -> listener.onProbed(probeAll()));
+    }
+
+    /** 定期重新探測，讓連線閒置時可以換回較快的伺服器。 */
+    public synchronized void startPeriodicProbe(long intervalMs, ProbeListener listener) {
+        if (periodicProbe != null || endpoints.size() < 2) return;
+        periodicProbe = scheduler.scheduleWithFixedDelay(() -> listener.onProbed(probeAll()),
+                intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void reportSuccess(String url) {
+        EndpointState endpoint = find(url);
+        if (endpoint != null) {
+            endpoint.failures = 0;
+            endpoint.cooldownUntil = 0;
+        }
+    }
+
+    /** 連線失敗時呼叫；若失敗的是目前的伺服器，改選下一個可用者。 */
+    public synchronized void reportFailure(String url) {
+        EndpointState endpoint = find(url);
+        if (endpoint == null) return;
+        demote(endpoint);
+        if (url.equals(current)) {
+            EndpointState next = best();
+            if (next != null) {
+                current = next.url;
+            } else {
+                // 全部都在冷卻中時選最快解除冷卻的那個
+                EndpointState soonest = endpoints.get(0);
+                for (EndpointState e : endpoints) {
+                    if (e.cooldownUntil < soonest.cooldownUntil) soonest = e;
+                }
+                current = soonest.url;
+            }
+            Log.d(TAG, "Failing over from " + url + " to " + current);
+        }
+    }
+
+    public synchronized boolean isCoolingDown(String url) {
+        EndpointState endpoint = find(url);
+        return endpoint != null && endpoint.cooldownUntil > clock.nowMs();
+    }
+
+    public synchronized List<String> ranking() {
+        List<EndpointState> sorted = new ArrayList<>(endpoints);
+        Collections.sort(sorted, (a, b) -> Long.compare(rankLatency(a), rankLatency(b)));
+        List<String> urls = new ArrayList<>(sorted.size());
+        for (EndpointState e : sorted) urls.add(e.url);
+        return urls;
+    }
+
+    private void demote(EndpointState endpoint) {
+        endpoint.failures++;
+        long cooldown = Math.min(MAX_COOLDOWN_MS, BASE_COOLDOWN_MS << Math.min(endpoint.failures - 1, 10));
+        endpoint.cooldownUntil = clock.nowMs() + cooldown;
+        Log.w(TAG, endpoint.url + " demoted for " + cooldown + "ms (failures: " + endpoint.failures + ")");
+    }
+
+    // 冷卻中或尚未量到延遲的伺服器排在最後；尚未量測的依設定順序
+    private long rankLatency(EndpointState e) {
+        if (e.cooldownUntil > clock.nowMs()) return Long.MAX_VALUE;
+        return e.latencyMs >= 0 ? e.latencyMs : Long.MAX_VALUE - 1;
+    }
+
+    private EndpointState best() {
+        long now = clock.nowMs();
+        EndpointState best = null;
+        for (EndpointState e : endpoints) {
+            if (e.cooldownUntil > now) continue;
+            if (best == null || rankLatency(e) < rankLatency(best)) best = e;
+        }
+        return best;
+    }
+
+    private boolean shouldMoveTo(EndpointState candidate) {
+        if (candidate.url.equals(current)) return false;
+        EndpointState now = find(current);
+        if (now == null || now.cooldownUntil > clock.nowMs() || now.latencyMs < 0) return true;
+        return candidate.latencyMs >= 0
+                && candidate.latencyMs + SWITCH_MARGIN_MS < now.latencyMs
+                && candidate.latencyMs < now.latencyMs * SWITCH_RATIO;
+    }
+
+    private EndpointState find(String url) {
+        for (EndpointState e : endpoints) {
+            if (e.url.equals(url)) return e;
+        }
+        return null;
+    }
+
+    // Engine.IO polling 握手：同時量到 TCP/TLS 連線與伺服器回應時間，冷啟動中的主機會明顯較慢
+    static long handshake(String url) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection conn = (HttpURLConnection) new URL(url + "/socket.io/?EIO=4&transport=polling").openConnection();
+        conn.setConnectTimeout(PROBE_TIMEOUT_MS);
+        conn.setReadTimeout(PROBE_TIMEOUT_MS);
+        conn.setUseCaches(false);
+        try {
+            int code = conn.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code);
+            }
+            try (InputStream in = conn.getInputStream()) {
+                byte[] buffer = new byte[512];
+                while (in.read(buffer) != -1) {
+                    // 讀完握手回應
+                }
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            conn.disconnect();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.anonymouschat;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把任意執行緒送來的項目暫存起來，在主執行緒每個畫面（或每個固定間隔）最多交付一次。
+ * 一波湧入的訊息因此只造成一次清單更新與一次重繪，而不是每則訊息各一次。
+ */
+public class FrameCoalescer<T> {
+    private static final String TAG = "FrameCoalescer";
+
+    public interface Sink<T> {
+        /** 在主執行緒呼叫，items 依加入順序排列。 */
+        void flush(List<T> items);
+    }
+
+    public interface Scheduler {
+        void schedule(Runnable flush);
+    }
+
+    /** 在下一個 Choreographer 畫面回呼時交付。 */
+    public static Scheduler nextFrame() {
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        return flush -> {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                Choreographer.getInstance().postFrameCallback(frameTimeNanos -> flush.run());
+            } else {
+                mainHandler.post(() -> Choreographer.getInstance().postFrameCallback(frameTimeNanos -> flush.run()));
+            }
+        };
+    }
+
+    /** 第一個項目到達後 intervalMs 交付，適合不需要逐畫面更新的畫面。 */
+    public static Scheduler every(long intervalMs) {
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        return flush -> mainHandler.postDelayed(flush, intervalMs);
+    }
+
+    private final Scheduler scheduler;
+    private final Sink<T> sink;
+    private final Object lock = new Object();
+    private List<T> buffer = new ArrayList<>();
+    private boolean flushScheduled = false;
+    private long flushCount;
+    private long itemCount;
+    private int largestFlush;
+
+    public FrameCoalescer(Scheduler scheduler, Sink<T> sink) {
+        this.scheduler = scheduler;
+        this.sink = sink;
+    }
+
+    public void add(List<T> items) {
+        if (items.isEmpty()) return;
+        boolean schedule;
+        synchronized (lock) {
+            buffer.addAll(items);
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) {
+            scheduler.schedule(this::flush);
+        }
+    }
+
+    private void flush() {
+        List<T> items;
+        synchronized (lock) {
+            items = buffer;
+            buffer = new ArrayList<>();
+            flushScheduled = false;
+            if (items.isEmpty()) return;
+            flushCount++;
+            itemCount += items.size();
+            largestFlush = Math.max(largestFlush, items.size());
+        }
+        Log.d(TAG, "Applying " + items.size() + " item(s) in one flush");
+        sink.flush(items);
+    }
+
+    public long getFlushCount() {
+        synchronized (lock) {
+            return flushCount;
+        }
+    }
+
+    public long getItemCount() {
+        synchronized (lock) {
+            return itemCount;
+        }
+    }
+
+    public int getLargestFlush() {
+        synchronized (lock) {
+            return largestFlush;
+        }
+    }
+}
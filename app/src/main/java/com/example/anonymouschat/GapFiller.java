@@ -0,0 +1,100 @@
+package com.example.anonymouschat;
+
+import android.util.Log;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 記錄每個開啟中聊天室已收到的最新訊息時間（高水位），斷線重連後只請求這之後的訊息，
+ * 而不是重新載入整段歷史紀錄。請求的游標包含高水位本身，同一時間的訊息由呼叫端去重。
+ * 還沒有高水位的聊天室（例如第一頁還沒載入就斷線）重連後改為請求最新一頁。
+ */
+public class GapFiller {
+    private static final String TAG = "GapFiller";
+    public static final int PAGE_SIZE = 100;
+    public static final int LATEST_PAGE_SIZE = ChatViewModel.PAGE_SIZE;
+
+    public interface Requester {
+        void requestAfter(String chatId, long after, int limit);
+
+        void requestLatest(String chatId, int limit);
+    }
+
+    /** 開啟中的聊天室接收重連後替它取回的訊息。 */
+    public interface Listener {
+        // requestAfter 取回的一頁，套用後應呼叫 onGapPage
+        void onGapPage(MessageCodec.HistoryPage page);
+
+        // 沒有高水位時 requestLatest 取回的最新一頁
+        void onLatestPage(MessageCodec.HistoryPage page);
+    }
+
+    private final Requester requester;
+    // chatId -> 高水位，-1 表示尚未收到任何伺服器確認的訊息
+    private final Map<String, Long> marks = new ConcurrentHashMap<>();
+    private final Map<String, Listener> listeners = new ConcurrentHashMap<>();
+
+    public GapFiller(Requester requester) {
+        this.requester = requester;
+    }
+
+    /** 聊天室開啟時呼叫，之後重連才會替它補漏，取回的訊息交給 listener。 */
+    public void track(String chatId, Listener listener) {
+        listeners.put(chatId, listener);
+        marks.putIfAbsent(chatId, -1L);
+    }
+
+    public void untrack(String chatId) {
+        marks.remove(chatId);
+        listeners.remove(chatId);
+    }
+
+    /** 請求送出後聊天室已關閉時回傳 null。 */
+    public Listener listener(String chatId) {
+        return listeners.get(chatId);
+    }
+
+    public long mark(String chatId) {
+        Long mark = marks.get(chatId);
+        return mark != null ? mark : -1;
+    }
+
+    /** 以伺服器送來的訊息推進高水位；本地尚未確認的訊息時間來自本機時鐘，不採用。 */
+    public void observe(String chatId, List<Message> messages) {
+        long latest = -1;
+        for (Message message : messages) {
+            if (message.getState() == Message.State.SENT && !"system".equals(message.getFromUid())) {
+                latest = Math.max(latest, message.getTimestamp());
+            }
+        }
+        if (latest < 0) return;
+        long newest = latest;
+        marks.computeIfPresent(chatId, (k, mark) -> Math.max(mark, newest));
+    }
+
+    /** 連線（重新）建立後呼叫，替每個追蹤中的聊天室請求缺漏的訊息。 */
+    public void onConnected() {
+        for (Map.Entry<String, Long> entry : marks.entrySet()) {
+            if (entry.getValue() >= 0) {
+                Log.d(TAG, "Filling gap for " + entry.getKey() + " after " + entry.getValue());
+                requester.requestAfter(entry.getKey(), entry.getValue(), PAGE_SIZE);
+            } else {
+                // 沒有高水位可作為游標，斷線前的請求可能已經遺失
+                Log.d(TAG, "No high-water mark for " + entry.getKey() + ", requesting latest page");
+                requester.requestLatest(entry.getKey(), LATEST_PAGE_SIZE);
+            }
+        }
+    }
+
+    /** 補漏的一頁套用後呼叫；缺漏超過一頁時接著請求下一頁。 */
+    public void onGapPage(String chatId, MessageCodec.HistoryPage page) {
+        long previous = mark(chatId);
+        observe(chatId, page.messages);
+        long next = mark(chatId);
+        // 高水位沒有前進時停止，避免同一時間的訊息多於一頁時無限重複請求
+        if (page.hasMore && next > previous) {
+            requester.requestAfter(chatId, next, PAGE_SIZE);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.anonymouschat;
+
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 應用層心跳：連線期間定期送出 appPing，以伺服器的 ack 計算 RTT。
+ * 下一次心跳時上一個 ping 仍未回應即記為遺失。
+ */
+public class Heartbeat {
+    private static final String TAG = "Heartbeat";
+    public static final long DEFAULT_INTERVAL_MS = 15000;
+
+    public interface Pinger {
+        void ping(long seq, Runnable onPong) throws Exception;
+    }
+
+    private final Pinger pinger;
+    private final ConnectionStats stats;
+    private final long intervalMs;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "socket-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong sequence = new AtomicLong();
+    // 等待回應中的 ping 序號，0 表示沒有
+    private final AtomicLong outstanding = new AtomicLong();
+    private ScheduledFuture<?> task;
+
+    public Heartbeat(Pinger pinger, ConnectionStats stats, long intervalMs) {
+        this.pinger = pinger;
+        this.stats = stats;
+        this.intervalMs = intervalMs;
+    }
+
+    public synchronized void start() {
+        if (task != null) return;
+        outstanding.set(0);
+        task = executor.scheduleAtFixedRate(this::tick, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        outstanding.set(0);
+    }
+
+    private void tick() {
+        if (outstanding.getAndSet(0) != 0) {
+            stats.onPongMissed();
+            Log.w(TAG, "Previous ping was not answered");
+        }
+        long seq = sequence.incrementAndGet();
+        long sentAt = SystemClock.elapsedRealtime();
+        outstanding.set(seq);
+        stats.onPingSent();
+        try {
+            pinger.ping(seq, () -> {
+                // 只接受最新一個 ping 的回應，遲到的回應不計入 RTT
+                if (outstanding.compareAndSet(seq, 0)) {
+                    stats.onPong(SystemClock.elapsedRealtime() - sentAt);
+                }
+            });
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to send ping: " + e.getMessage(), e);
+        }
+    }
+}
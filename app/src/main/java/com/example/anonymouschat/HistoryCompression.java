@@ -0,0 +1,84 @@
+package com.example.anonymouschat;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 聊天歷史紀錄的壓縮格式：raw deflate 搭配與伺服器共用的預設字典。
+ * 字典收錄歷史紀錄中反覆出現的欄位名稱與片段，讓短訊息也能有效壓縮。
+ * 只有當歷史紀錄大於用戶端提出的 minBytes 時，伺服器才會壓縮。
+ */
+public final class HistoryCompression {
+    public static final String ENCODING = "deflate-chat-v1";
+    // 小於此大小時壓縮省下的流量不值得解壓縮的成本
+    public static final int MIN_COMPRESS_BYTES = 8 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    // deflate 偏好出現在字典尾端的字串，最常見的片段放最後；字典一旦發佈就不可修改，只能換新的 ENCODING
+    static final byte[] DICTIONARY = ("type\"system\"\"user\"success\"errorMessage\"message\":\"Unknown\""
+            + "\"chatId\":\"group-\"nickname\":\"\",\"message\":\"\",\"timestamp\":17"
+            + "\",\"clientMsgId\":\"\",\"fromUid\":\"},{\"chatId\":\""
+            + "{\"success\":true,\"messages\":[{\"chatId\":\""
+            + "chatIdfromUidnicknamemessagetimestampclientMsgId"
+            + "\",\"nickname\":\"\",\"message\":\"\",\"timestamp\":"
+            + ",\"clientMsgId\":\"\"},{\"chatId\":\"\",\"fromUid\":\"")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private HistoryCompression() {
+    }
+
+    /** getChatHistory 請求中附帶的壓縮提議。 */
+    public static JSONObject offer() throws JSONException {
+        JSONObject offer = new JSONObject();
+        offer.put("encoding", ENCODING);
+        offer.put("minBytes", MIN_COMPRESS_BYTES);
+        return offer;
+    }
+
+    public static boolean isCompressed(Object wire) {
+        return wire instanceof JSONObject && ENCODING.equals(((JSONObject) wire).optString("encoding", null));
+    }
+
+    public static byte[] compress(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** 回傳邊讀邊解壓縮的串流，關閉串流時一併釋放 Inflater。 */
+    public static InputStream inflate(byte[] compressed) {
+        return inflate(new ByteArrayInputStream(compressed));
+    }
+
+    public static InputStream inflate(InputStream compressed) {
+        Inflater inflater = new Inflater(true);
+        inflater.setDictionary(DICTIONARY);
+        return new InflaterInputStream(compressed, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+}
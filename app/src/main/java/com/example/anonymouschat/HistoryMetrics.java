@@ -0,0 +1,79 @@
+package com.example.anonymouschat;
+
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 歷史紀錄載入的量測：實際收到的位元組、解壓縮後的大小，以及從送出請求、從點擊聊天室到畫面第一次顯示訊息的時間。
+ */
+public class HistoryMetrics {
+    private static final String TAG = "HistoryMetrics";
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+    private final AtomicLong compressedResponses = new AtomicLong();
+    private final AtomicLong plainResponses = new AtomicLong();
+    private volatile long lastTimeToFirstRenderMs = -1;
+    private volatile long lastTapToFirstRenderMs = -1;
+    // chatId -> 送出 getChatHistory 的時間
+    private final Map<String, Long> requestedAt = new ConcurrentHashMap<>();
+    // chatId -> 在聊天列表點擊的時間
+    private final Map<String, Long> tappedAt = new ConcurrentHashMap<>();
+
+    public void onRequest(String chatId) {
+        requestedAt.put(chatId, SystemClock.elapsedRealtime());
+    }
+
+    public void onTap(String chatId) {
+        tappedAt.put(chatId, SystemClock.elapsedRealtime());
+    }
+
+    public void onResponse(long wireBytes, long rawBytes, boolean compressed) {
+        bytesIn.addAndGet(wireBytes);
+        decodedBytes.addAndGet(rawBytes);
+        (compressed ? compressedResponses : plainResponses).incrementAndGet();
+        Log.d(TAG, "History response: " + wireBytes + " bytes in, " + rawBytes + " bytes decoded"
+                + (compressed ? " (" + HistoryCompression.ENCODING + ")" : ""));
+    }
+
+    /** 畫面第一次顯示歷史訊息後呼叫；同一次請求只記錄一次。 */
+    public void onFirstRender(String chatId) {
+        long now = SystemClock.elapsedRealtime();
+        Long tapped = tappedAt.remove(chatId);
+        if (tapped != null) {
+            lastTapToFirstRenderMs = now - tapped;
+            Log.d(TAG, "Tap to first message for " + chatId + ": " + lastTapToFirstRenderMs + "ms");
+        }
+        Long start = requestedAt.remove(chatId);
+        if (start == null) return;
+        lastTimeToFirstRenderMs = now - start;
+        Log.d(TAG, "Time to first render for " + chatId + ": " + lastTimeToFirstRenderMs + "ms");
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getDecodedBytes() {
+        return decodedBytes.get();
+    }
+
+    public long getCompressedResponses() {
+        return compressedResponses.get();
+    }
+
+    public long getPlainResponses() {
+        return plainResponses.get();
+    }
+
+    public long getLastTimeToFirstRenderMs() {
+        return lastTimeToFirstRenderMs;
+    }
+
+    public long getLastTapToFirstRenderMs() {
+        return lastTapToFirstRenderMs;
+    }
+}
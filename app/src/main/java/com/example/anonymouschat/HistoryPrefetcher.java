@@ -0,0 +1,226 @@
+package com.example.anonymouschat;
+
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 聊天列表載入後，趁連線閒置時替最近的幾個聊天室預先抓取最新一頁歷史紀錄並寫入本地快取，
+ * 開啟聊天室時 ChatViewModel 就能直接從快取顯示，不必等待伺服器往返。
+ * 計量網路（行動數據）下抓得較少，並以最近一小時（滑動視窗）的位元組預算與同時進行的請求數上限控制流量。
+ * 除了 hasInFlight 之外，所有狀態只在 Executor 的單一執行緒上存取。
+ */
+public class HistoryPrefetcher {
+    private static final String TAG = "HistoryPrefetcher";
+    public static final int PAGE_SIZE = ChatViewModel.PAGE_SIZE;
+    static final int UNMETERED_CHATS = 10;
+    static final int METERED_CHATS = 3;
+    static final long UNMETERED_BUDGET_BYTES = 2 * 1024 * 1024;
+    static final long METERED_BUDGET_BYTES = 256 * 1024;
+    static final long BUDGET_WINDOW_MS = 60 * 60 * 1000;
+    static final int MAX_IN_FLIGHT = 2;
+    // 連線忙碌時過這麼久再檢查一次
+    static final long IDLE_RETRY_MS = 2000;
+    static final long REQUEST_TIMEOUT_MS = 10000;
+
+    public interface Requester {
+        /** 請求最新一頁，結果只交給這個 response。 */
+        void requestLatest(String chatId, int limit, Response response);
+    }
+
+    /** 一個預先抓取請求的結果，可在任何執行緒回呼。 */
+    public interface Response {
+        void onPage(MessageCodec.HistoryPage page, long wireBytes);
+
+        void onError(Exception e);
+    }
+
+    public interface Conditions {
+        /** 連線中，且最近沒有訊息往來或待送出的訊息。 */
+        boolean isIdle();
+
+        boolean isMetered();
+    }
+
+    public interface Store {
+        /** 快取中這個聊天室最新一則訊息的時間，沒有時回傳 -1。 */
+        long latestTimestamp(String chatId);
+
+        void put(String chatId, List<Message> messages);
+    }
+
+    public interface Executor {
+        void execute(Runnable task, long delayMs);
+    }
+
+    private final Requester requester;
+    private final Conditions conditions;
+    private final Store store;
+    private final Executor executor;
+    private final Clock clock;
+
+    private final Deque<MessageRepository.ChatSummary> queue = new ArrayDeque<>();
+    // chatId -> 送出請求的時間；會由其他執行緒讀取
+    private final Map<String, Long> inFlight = new ConcurrentHashMap<>();
+    // chatId -> 已預先抓取到的最新訊息時間，之後沒有新訊息就不再抓
+    private final Map<String, Long> fetched = new HashMap<>();
+    private boolean pumpScheduled = false;
+    // 最近一小時內每則回應的 {收到時間, 位元組數}，依時間排序
+    private final Deque<long[]> spent = new ArrayDeque<>();
+    private long bytesInWindow = 0;
+    private long requests;
+    private long pages;
+    private long skipped;
+
+    public HistoryPrefetcher(Requester requester, Conditions conditions, Store store, Executor executor, Clock clock) {
+        this.requester = requester;
+        this.conditions = conditions;
+        this.store = store;
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    /** 以最近活動排序（新到舊）的聊天室排入預先抓取，取代尚未開始的上一批。 */
+    public void prefetch(List<MessageRepository.ChatSummary> recentFirst) {
+        executor.execute(() -> {
+            queue.clear();
+            int limit = conditions.isMetered() ? METERED_CHATS : UNMETERED_CHATS;
+            for (MessageRepository.ChatSummary chat : recentFirst) {
+                if (queue.size() >= limit) break;
+                // 沒有任何訊息的聊天室沒有東西可抓
+                if (chat.lastMessage == null || inFlight.containsKey(chat.chatId)) continue;
+                queue.add(chat);
+            }
+            Log.d(TAG, "Queued " + queue.size() + " chat(s) for prefetch");
+            pump();
+        }, 0);
+    }
+
+    public boolean hasInFlight() {
+        return !inFlight.isEmpty();
+    }
+
+    // chatId 與送出時間來自請求本身，不依回應中的 chatId 判斷
+    private void onPage(String chatId, long requestedAt, MessageCodec.HistoryPage page, long wireBytes) {
+        // 逾時後才到的回應仍佔用了流量
+        if (wireBytes > 0) {
+            spent.add(new long[]{clock.nowMs(), wireBytes});
+            bytesInWindow += wireBytes;
+        }
+        if (!isCurrent(chatId, requestedAt)) return;
+        inFlight.remove(chatId);
+        if (page.success) {
+            store.put(chatId, page.messages);
+            long newest = -1;
+            for (Message m : page.messages) {
+                newest = Math.max(newest, m.getTimestamp());
+            }
+            fetched.put(chatId, newest);
+            pages++;
+        }
+        Log.d(TAG, "Prefetched " + page.messages.size() + " message(s) for " + chatId + ", "
+                + wireBytes + " bytes, " + bytesInWindow + " bytes used in the last hour");
+        pump();
+    }
+
+    private void onError(String chatId, long requestedAt, Exception e) {
+        if (!isCurrent(chatId, requestedAt)) return;
+        inFlight.remove(chatId);
+        Log.w(TAG, "Prefetch for " + chatId + " failed: " + e.getMessage());
+        pump();
+    }
+
+    // 同一聊天室逾時後可能已送出新的請求，舊請求的結果不算數
+    private boolean isCurrent(String chatId, long requestedAt) {
+        Long current = inFlight.get(chatId);
+        return current != null && current == requestedAt;
+    }
+
+    // 移除已滑出一小時視窗的紀錄
+    private void expire(long now) {
+        while (!spent.isEmpty() && now - spent.peek()[0] >= BUDGET_WINDOW_MS) {
+            bytesInWindow -= spent.poll()[1];
+        }
+    }
+
+    private void pump() {
+        pumpScheduled = false;
+        if (queue.isEmpty() || inFlight.size() >= MAX_IN_FLIGHT) return;
+        if (!conditions.isIdle()) {
+            schedulePump(IDLE_RETRY_MS);
+            return;
+        }
+        long now = clock.nowMs();
+        expire(now);
+        long budget = conditions.isMetered() ? METERED_BUDGET_BYTES : UNMETERED_BUDGET_BYTES;
+        while (inFlight.size() < MAX_IN_FLIGHT && !queue.isEmpty()) {
+            if (bytesInWindow >= budget) {
+                Log.d(TAG, "Prefetch budget of " + budget + " bytes used up, dropping " + queue.size() + " chat(s)");
+                queue.clear();
+                return;
+            }
+            MessageRepository.ChatSummary chat = queue.poll();
+            if (isWarm(chat)) {
+                skipped++;
+                continue;
+            }
+            String chatId = chat.chatId;
+            inFlight.put(chatId, now);
+            requests++;
+            requester.requestLatest(chatId, PAGE_SIZE, new Response() {
+                @Override
+                public void onPage(MessageCodec.HistoryPage page, long wireBytes) {
+                    executor.execute(() -> HistoryPrefetcher.this.onPage(chatId, now, page, wireBytes), 0);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    executor.execute(() -> HistoryPrefetcher.this.onError(chatId, now, e), 0);
+                }
+            });
+            executor.execute(() -> onTimeout(chatId, now), REQUEST_TIMEOUT_MS);
+        }
+    }
+
+    private void schedulePump(long delayMs) {
+        if (pumpScheduled) return;
+        pumpScheduled = true;
+        executor.execute(this::pump, delayMs);
+    }
+
+    private void onTimeout(String chatId, long requestedAt) {
+        if (!isCurrent(chatId, requestedAt)) return;
+        inFlight.remove(chatId);
+        Log.w(TAG, "Prefetch for " + chatId + " timed out");
+        pump();
+    }
+
+    // 快取中已有最後一則訊息時不必再抓
+    private boolean isWarm(MessageRepository.ChatSummary chat) {
+        long last = chat.lastMessage.getTimestamp();
+        Long prefetched = fetched.get(chat.chatId);
+        if (prefetched != null && prefetched >= last) return true;
+        return store.latestTimestamp(chat.chatId) >= last;
+    }
+
+    long getRequestCount() {
+        return requests;
+    }
+
+    long getPageCount() {
+        return pages;
+    }
+
+    long getSkippedCount() {
+        return skipped;
+    }
+
+    long getBytesInWindow() {
+        expire(clock.nowMs());
+        return bytesInWindow;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.anonymouschat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 進行中的 getChatHistory 請求。與 RpcClient 相同，每個請求帶 requestId，伺服器在 getChatHistoryResponse 中原樣帶回，
+ * 回應只交給送出該請求的一方，不依回應中的 chatId、before、after 判斷；
+ * 舊版伺服器不帶 requestId 時，依送出順序對應最早的請求。執行緒安全。
+ */
+public class HistoryRequests {
+    // requestId -> 回呼，依送出順序
+    private final LinkedHashMap<String, SocketManager.HistoryCallback> pending = new LinkedHashMap<>();
+
+    /** 登記一個即將送出的請求，回傳要放進請求中的 requestId。 */
+    public synchronized String add(SocketManager.HistoryCallback callback) {
+        String requestId = UUID.randomUUID().toString();
+        pending.put(requestId, callback);
+        return requestId;
+    }
+
+    /** 取出回應所屬的請求；requestId 為 null 時取最早的請求。已逾時、取消或不認得時回傳 null。 */
+    public synchronized SocketManager.HistoryCallback take(String requestId) {
+        if (requestId != null) {
+            return pending.remove(requestId);
+        }
+        Iterator<Map.Entry<String, SocketManager.HistoryCallback>> it = pending.entrySet().iterator();
+        if (!it.hasNext()) return null;
+        SocketManager.HistoryCallback oldest = it.next().getValue();
+        it.remove();
+        return oldest;
+    }
+
+    /** 逾時或取消時呼叫，回傳仍在等待中的回呼；已收到回應時回傳 null。 */
+    public synchronized SocketManager.HistoryCallback remove(String requestId) {
+        return pending.remove(requestId);
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+}
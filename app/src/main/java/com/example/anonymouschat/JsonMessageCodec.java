@@ -0,0 +1,238 @@
+package com.example.anonymouschat;
+
+import android.util.Log;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JsonMessageCodec implements MessageCodec {
+    private static final String TAG = "JsonMessageCodec";
+    public static final String NAME = "json";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public Object encode(JSONObject payload) {
+        return payload;
+    }
+
+    @Override
+    public JSONObject decode(Object wire) throws IOException {
+        if (wire instanceof JSONObject) {
+            return (JSONObject) wire;
+        }
+        try {
+            if (wire instanceof byte[]) {
+                return new JSONObject(new String((byte[]) wire, StandardCharsets.UTF_8));
+            }
+            if (wire instanceof String) {
+                return new JSONObject((String) wire);
+            }
+        } catch (Exception e) {
+            throw new IOException("Invalid JSON payload", e);
+        }
+        throw new IOException("Unsupported payload type: " + (wire == null ? "null" : wire.getClass().getName()));
+    }
+
+    @Override
+    public HistoryPage decodeHistory(Object wire) throws IOException {
+        return decodeHistory(wire, Integer.MAX_VALUE, null);
+    }
+
+    @Override
+    public HistoryPage decodeHistory(Object wire, int chunkSize, ChunkListener listener) throws IOException {
+        // socket 已把文字封包解析成 JSONObject 時無法再串流，直接走訪，轉換途中同樣分段交給 listener
+        if (wire instanceof JSONObject) {
+            return decodeHistoryTree((JSONObject) wire, chunkSize, listener);
+        }
+        if (wire instanceof byte[]) {
+            return decodeHistory(new ByteArrayInputStream((byte[]) wire), chunkSize, listener);
+        }
+        if (wire instanceof String) {
+            return readHistory(new JsonReader(new StringReader((String) wire)), chunkSize, listener);
+        }
+        throw new IOException("Unsupported payload type: " + (wire == null ? "null" : wire.getClass().getName()));
+    }
+
+    @Override
+    public HistoryPage decodeHistory(InputStream in) throws IOException {
+        return decodeHistory(in, Integer.MAX_VALUE, null);
+    }
+
+    @Override
+    public HistoryPage decodeHistory(InputStream in, int chunkSize, ChunkListener listener) throws IOException {
+        return readHistory(new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)), chunkSize, listener);
+    }
+
+    private HistoryPage decodeHistoryTree(JSONObject response, int chunkSize, ChunkListener listener) {
+        if (!response.optBoolean("success", false)) {
+            return new HistoryPage(false, response.optString("message", "Unknown error"), new ArrayList<>());
+        }
+        JSONArray history = response.optJSONArray("messages");
+        if (history == null) {
+            return new HistoryPage(false, "missing messages array", new ArrayList<>());
+        }
+        List<Message> messages = new ArrayList<>(history.length());
+        int chunkStart = 0;
+        for (int i = 0; i < history.length(); i++) {
+            JSONObject msg = history.optJSONObject(i);
+            if (msg == null) continue;
+            String fromUid = msg.optString("fromUid", null);
+            if (fromUid == null) {
+                Log.w(TAG, "Message missing fromUid at index: " + i);
+                continue;
+            }
+            messages.add(new Message(fromUid, msg.optString("message", ""), msg.optString("nickname", "Unknown"),
+                    msg.optLong("timestamp", System.currentTimeMillis()), msg.optString("clientMsgId", null), Message.State.SENT));
+            if (listener != null && messages.size() - chunkStart >= chunkSize) {
+                listener.onChunk(new ArrayList<>(messages.subList(chunkStart, messages.size())));
+                chunkStart = messages.size();
+            }
+        }
+        return new HistoryPage(true, null, messages, response.optBoolean("hasMore", false), response.optLong("before", -1),
+                response.optLong("after", -1), response.optString("chatId", null));
+    }
+
+    /**
+     * 邊讀邊解析，不建立整份文字或 JSONObject 樹，記憶體中只有解出的 Message。
+     * 已確認 success 後，每解出 chunkSize 則就交給 listener，讓畫面不必等整份解析完。
+     */
+    private static HistoryPage readHistory(JsonReader reader, int chunkSize, ChunkListener listener) throws IOException {
+        boolean success = false;
+        String errorMessage = null;
+        boolean hasMore = false;
+        long before = -1;
+        long after = -1;
+        String chatId = null;
+        List<Message> messages = null;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.skipValue();
+                    continue;
+                }
+                switch (key) {
+                    case "success":
+                        success = reader.nextBoolean();
+                        break;
+                    case "message":
+                        errorMessage = reader.nextString();
+                        break;
+                    case "hasMore":
+                        hasMore = reader.nextBoolean();
+                        break;
+                    case "before":
+                        before = readLong(reader);
+                        break;
+                    case "after":
+                        after = readLong(reader);
+                        break;
+                    case "chatId":
+                        chatId = reader.nextString();
+                        break;
+                    case "messages":
+                        messages = readMessages(reader, success ? chunkSize : Integer.MAX_VALUE, success ? listener : null);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid JSON history", e);
+        }
+        if (!success) {
+            return new HistoryPage(false, errorMessage != null ? errorMessage : "Unknown error", new ArrayList<>());
+        }
+        if (messages == null) {
+            return new HistoryPage(false, "missing messages array", new ArrayList<>());
+        }
+        return new HistoryPage(true, null, messages, hasMore, before, after, chatId);
+    }
+
+    private static List<Message> readMessages(JsonReader reader, int chunkSize, ChunkListener listener) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        int chunkStart = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            Message message = readMessage(reader);
+            if (message == null) {
+                Log.w(TAG, "Message missing fromUid at index: " + messages.size());
+                continue;
+            }
+            messages.add(message);
+            if (listener != null && messages.size() - chunkStart >= chunkSize) {
+                listener.onChunk(new ArrayList<>(messages.subList(chunkStart, messages.size())));
+                chunkStart = messages.size();
+            }
+        }
+        reader.endArray();
+        return messages;
+    }
+
+    private static Message readMessage(JsonReader reader) throws IOException {
+        String fromUid = null;
+        String text = "";
+        String nickname = "Unknown";
+        long timestamp = 0;
+        String clientMsgId = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (key) {
+                case "fromUid":
+                    fromUid = reader.nextString();
+                    break;
+                case "message":
+                    text = reader.nextString();
+                    break;
+                case "nickname":
+                    nickname = reader.nextString();
+                    break;
+                case "timestamp":
+                    timestamp = readLong(reader);
+                    break;
+                case "clientMsgId":
+                    clientMsgId = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (fromUid == null) return null;
+        if (timestamp == 0) timestamp = System.currentTimeMillis();
+        return new Message(fromUid, text, nickname, timestamp, clientMsgId, Message.State.SENT);
+    }
+
+    // 時間戳記偶爾以浮點數送來
+    private static long readLong(JsonReader reader) throws IOException {
+        try {
+            return reader.nextLong();
+        } catch (NumberFormatException e) {
+            return (long) reader.nextDouble();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.anonymouschat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 無鎖的延遲直方圖，可在 socket 執行緒上直接記錄。
+ * 桶採對數線性分佈：每個 2 的次方區間再細分 SUB_BUCKETS 格，相對誤差約 1/SUB_BUCKETS。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 涵蓋 0 ~ 2^23 ms（約 2.3 小時），更大的值都算在最後一格
+    private static final int MAX_EXPONENT = 20;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public void record(long valueMs) {
+        long value = Math.max(0, valueMs);
+        buckets.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // 重試直到寫入或已有更小的值
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // 重試直到寫入或已有更大的值
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) (value >>> (exponent - 1)) & (SUB_BUCKETS - 1);
+        return exponent * SUB_BUCKETS + sub;
+    }
+
+    // 桶的上界（含），用來回報百分位數
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 1)) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = buckets.get(i);
+            total += copy[i];
+        }
+        long n = count.get();
+        return new Snapshot(copy, total, n == 0 ? 0 : sum.get() / n,
+                n == 0 ? 0 : min.get(), n == 0 ? 0 : max.get());
+    }
+
+    public static class Snapshot {
+        private final long[] buckets;
+        public final long count;
+        public final long mean;
+        public final long min;
+        public final long max;
+
+        Snapshot(long[] buckets, long count, long mean, long min, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.mean = mean;
+            this.min = min;
+            this.max = max;
+        }
+
+        /** p 介於 0 到 100，回傳該百分位所在桶的上界。 */
+        public long percentile(double p) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, p)) / 100.0);
+            rank = Math.max(1, rank);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(max, upperBoundOf(i));
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " min=" + min + " p50=" + percentile(50) + " p90=" + percentile(90)
+                    + " p99=" + percentile(99) + " max=" + max + " mean=" + mean;
+        }
+    }
+}
@@ -43,7 +43,7 @@ public class MainActivity extends AppCompatActivity {
         registerButton.setOnClickListener(v -> register());
         loginButton.setOnClickListener(v -> login());
 
-        socketManager.getSocket().on("registerResponse", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "registerResponse", args -> {
             try {
                 JSONObject response = (JSONObject) args[0];
                 if (response.getBoolean("success")) {
@@ -56,9 +56,9 @@ public class MainActivity extends AppCompatActivity {
                 Log.e(TAG, "處理註冊回應失敗: " + e.getMessage(), e);
                 Toast.makeText(MainActivity.this, getString(R.string.register_failed_generic), Toast.LENGTH_SHORT).show();
             }
-        }));
+        });
 
-        socketManager.getSocket().on("loginResponse", args -> runOnUiThread(() -> {
+        socketManager.subscribe(this, "loginResponse", args -> {
             try {
                 JSONObject response = (JSONObject) args[0];
                 if (response.getBoolean("success")) {
@@ -81,7 +81,7 @@ public class MainActivity extends AppCompatActivity {
                 Log.e(TAG, "處理登入回應失敗: " + e.getMessage(), e);
                 Toast.makeText(MainActivity.this, getString(R.string.login_failed_generic), Toast.LENGTH_SHORT).show();
             }
-        }));
+        });
     }
 
     private void register() {
@@ -133,11 +133,4 @@ public class MainActivity extends AppCompatActivity {
             Toast.makeText(this, getString(R.string.login_failed_generic), Toast.LENGTH_SHORT).show();
         }
     }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        socketManager.getSocket().off("registerResponse");
-        socketManager.getSocket().off("loginResponse");
-    }
 }
\ No newline at end of file
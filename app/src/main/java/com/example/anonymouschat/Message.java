@@ -1,16 +1,34 @@
 package com.example.anonymouschat;
 
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
+import java.io.IOException;
+
 public class Message {
+    public enum State {
+        PENDING,
+        SENT,
+        FAILED
+    }
+
     String fromUid;
     String text;
     String nickname;
     long timestamp;
+    String clientMsgId;
+    final State state;
 
     public Message(String fromUid, String text, String nickname, long timestamp) {
+        this(fromUid, text, nickname, timestamp, null, State.SENT);
+    }
+
+    public Message(String fromUid, String text, String nickname, long timestamp, String clientMsgId, State state) {
         this.fromUid = fromUid;
         this.text = text;
         this.nickname = nickname;
         this.timestamp = timestamp;
+        this.clientMsgId = clientMsgId;
+        this.state = state;
     }
 
     public String getFromUid() {
@@ -28,4 +46,62 @@ public class Message {
     public long getTimestamp() {
         return timestamp;
     }
-}
\ No newline at end of file
+
+    public String getClientMsgId() {
+        return clientMsgId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /** 狀態不同的複本；已交給畫面的訊息不原地修改，比對差異時才看得出變化。 */
+    public Message withState(State state) {
+        return new Message(fromUid, text, nickname, timestamp, clientMsgId, state);
+    }
+
+    // 用來辨識同一則訊息：有 clientMsgId 時直接使用，舊訊息則以發送者、時間與內容組合
+    public String getKey() {
+        return clientMsgId != null ? "c:" + clientMsgId : "t:" + fromUid + ":" + timestamp + ":" + (text != null ? text.hashCode() : 0);
+    }
+
+    /** 直接從 MessagePack map 解出一則訊息；缺少 fromUid 時回傳 null。 */
+    static Message unpack(MessageUnpacker unpacker) throws IOException {
+        String fromUid = null;
+        String text = "";
+        String nickname = "Unknown";
+        long timestamp = 0;
+        String clientMsgId = null;
+        int fields = unpacker.unpackMapHeader();
+        for (int i = 0; i < fields; i++) {
+            String key = unpacker.unpackString();
+            if (unpacker.getNextFormat().getValueType() == ValueType.NIL) {
+                unpacker.unpackNil();
+                continue;
+            }
+            switch (key) {
+                case "fromUid":
+                    fromUid = unpacker.unpackString();
+                    break;
+                case "message":
+                    text = unpacker.unpackString();
+                    break;
+                case "nickname":
+                    nickname = unpacker.unpackString();
+                    break;
+                case "timestamp":
+                    timestamp = unpacker.getNextFormat().getValueType() == ValueType.FLOAT
+                            ? (long) unpacker.unpackDouble() : unpacker.unpackLong();
+                    break;
+                case "clientMsgId":
+                    clientMsgId = unpacker.unpackString();
+                    break;
+                default:
+                    unpacker.skipValue();
+            }
+        }
+        if (fromUid == null) return null;
+        if (timestamp == 0) timestamp = System.currentTimeMillis();
+        return new Message(fromUid, text, nickname, timestamp, clientMsgId, State.SENT);
+    }
+}
@@ -6,35 +6,95 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
+/**
+ * 聊天訊息列表。新的快照在背景執行緒與目前內容比對，只通知實際插入、移除或變更的列，
+ * 收到一則新訊息只會綁定那一列，也保留 RecyclerView 的動畫與預先載入。
+ * 以訊息身分（getKey）產生穩定的 id，樂觀顯示的訊息改為已送出時仍是同一列。
+ */
 public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     private static final String TAG = "MessageAdapter";
     private static final int VIEW_TYPE_SENT = 1;
     private static final int VIEW_TYPE_RECEIVED = 2;
-    private List<Message> messages;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    static final DiffUtil.ItemCallback<Message> DIFF_CALLBACK = new DiffUtil.ItemCallback<Message>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+            return oldItem == newItem || oldItem.getKey().equals(newItem.getKey());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+            // 訊息不會原地修改，同一個物件內容必定相同
+            if (oldItem == newItem) return true;
+            return oldItem.getState() == newItem.getState()
+                    && oldItem.getTimestamp() == newItem.getTimestamp()
+                    && equals(oldItem.getText(), newItem.getText())
+                    && equals(oldItem.getNickname(), newItem.getNickname());
+        }
+
+        private boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    };
+
+    private final AsyncListDiffer<Message> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
     private String currentUserId;
 
     public MessageAdapter(List<Message> messages, String currentUserId) {
-        this.messages = messages != null ? messages : new ArrayList<>();
         this.currentUserId = currentUserId;
+        setHasStableIds(true);
+        if (messages != null && !messages.isEmpty()) {
+            differ.submitList(messages);
+        }
     }
 
-    public void updateMessages(List<Message> newMessages) {
-        this.messages.clear();
-        this.messages.addAll(newMessages != null ? newMessages : new ArrayList<>());
-        notifyDataSetChanged();
-        Log.d(TAG, "Updated messages, count: " + messages.size());
+    /**
+     * newMessages 是 ViewModel 的不可變快照，直接引用而不複製。比對完成、列表已更新後在主執行緒執行 onCommitted；
+     * 比對期間又送來新的快照時，舊的那次不會執行。
+     */
+    public void updateMessages(List<Message> newMessages, Runnable onCommitted) {
+        List<Message> list = newMessages != null ? newMessages : Collections.emptyList();
+        differ.submitList(list, () -> {
+            Log.d(TAG, "Updated messages, count: " + list.size());
+            if (onCommitted != null) onCommitted.run();
+        });
+    }
+
+    /** 目前顯示中的內容，位置與 adapter 的位置一致。 */
+    public List<Message> getMessages() {
+        return differ.getCurrentList();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableId(differ.getCurrentList().get(position));
+    }
+
+    // 訊息身分的 64 位元 FNV-1a 雜湊
+    static long stableId(Message message) {
+        String key = message.getKey();
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
     }
 
     @Override
     public int getItemViewType(int position) {
-        Message message = messages.get(position);
+        Message message = differ.getCurrentList().get(position);
         return message.getFromUid().equals(currentUserId) ? VIEW_TYPE_SENT : VIEW_TYPE_RECEIVED;
     }
 
@@ -52,7 +112,7 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
-        Message message = messages.get(position);
+        Message message = differ.getCurrentList().get(position);
         if (holder instanceof SentMessageViewHolder) {
             ((SentMessageViewHolder) holder).bind(message);
         } else {
@@ -62,7 +122,7 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 
     @Override
     public int getItemCount() {
-        return messages.size();
+        return differ.getCurrentList().size();
     }
 
     static class SentMessageViewHolder extends RecyclerView.ViewHolder {
@@ -78,8 +138,14 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         void bind(Message message) {
             String text = message.getText() != null ? message.getText() : "";
             messageText.setText(text);
-            timestampText.setText(formatTimestamp(message.getTimestamp()));
-            Log.d(TAG, "Bound sent message: " + text);
+            String timestamp = formatTimestamp(message.getTimestamp());
+            if (message.getState() == Message.State.PENDING) {
+                timestamp += " · " + itemView.getContext().getString(R.string.message_pending);
+            } else if (message.getState() == Message.State.FAILED) {
+                timestamp += " · " + itemView.getContext().getString(R.string.message_failed);
+            }
+            timestampText.setText(timestamp);
+            Log.d(TAG, "Bound sent message: " + text + ", state: " + message.getState());
         }
     }
 
@@ -0,0 +1,309 @@
+package com.example.anonymouschat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 每個聊天室的本地訊息快取（SQLite，WAL 模式），開啟聊天室時先從這裡顯示，再與伺服器同步。
+ * 寫入先排入佇列，由單一寫入執行緒合併成一個交易，socket 執行緒不會被磁碟 I/O 卡住。
+ * 同一個交易也更新 FTS4 全文索引（詞由 SearchTokenizer 切好），供本機搜尋訊息。
+ */
+public class MessageCache extends SQLiteOpenHelper {
+    private static final String TAG = "MessageCache";
+    private static final String DB_NAME = "message_cache.db";
+    private static final int DB_VERSION = 3;
+    private static final String TABLE = "messages";
+    // docid 對應 messages 的 id
+    private static final String FTS_TABLE = "messages_fts";
+    // id = 訊息時間 * IDS_PER_MS + 同一毫秒內的序號，id 與全文索引的 docid 因此依訊息時間排序，與寫入順序無關
+    private static final long IDS_PER_MS = 1000;
+    private static MessageCache instance;
+
+    private static class PendingWrite {
+        final String chatId;
+        final Message message;
+
+        PendingWrite(String chatId, Message message) {
+            this.chatId = chatId;
+            this.message = message;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "message-cache");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "message-cache-read");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public interface LoadCallback {
+        void onLoaded(List<Message> messages);
+    }
+
+    public interface SearchCallback {
+        void onResults(List<SearchHit> hits);
+    }
+
+    /** 一筆搜尋結果：所在聊天室與訊息，以訊息時間定位到對話中的位置。 */
+    public static class SearchHit {
+        public final String chatId;
+        public final Message message;
+
+        SearchHit(String chatId, Message message) {
+            this.chatId = chatId;
+            this.message = message;
+        }
+    }
+
+    public static synchronized MessageCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageCache(context.getApplicationContext(), DB_NAME);
+        }
+        return instance;
+    }
+
+    MessageCache(Context context, String name) {
+        super(context, name, null, DB_VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // WAL 讓讀取不被寫入交易擋住
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        // id 明確宣告，VACUUM 後 rowid 也不會改變，全文索引的 docid 才能一直對得上
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "id INTEGER PRIMARY KEY, "
+                + "chatId TEXT NOT NULL, "
+                + "msgKey TEXT NOT NULL, "
+                + "clientMsgId TEXT, "
+                + "fromUid TEXT NOT NULL, "
+                + "nickname TEXT, "
+                + "text TEXT, "
+                + "timestamp INTEGER NOT NULL, "
+                + "UNIQUE (chatId, msgKey))");
+        db.execSQL("CREATE INDEX idx_messages_chat_time ON " + TABLE + " (chatId, timestamp)");
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE + " USING fts4(tokens)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // 快取可隨時重建
+        db.execSQL("DROP TABLE IF EXISTS " + FTS_TABLE);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /** 排入寫入佇列；只快取伺服器已確認的訊息，尚未送出的訊息由 Outbox 負責保存。 */
+    public void put(String chatId, List<Message> messages) {
+        for (Message message : messages) {
+            if (message.getState() == Message.State.SENT && !"system".equals(message.getFromUid())) {
+                pendingWrites.add(new PendingWrite(chatId, message));
+            }
+        }
+        scheduleFlush();
+    }
+
+    public void put(String chatId, Message message) {
+        put(chatId, Collections.singletonList(message));
+    }
+
+    private void scheduleFlush() {
+        if (pendingWrites.isEmpty() || !flushScheduled.compareAndSet(false, true)) return;
+        writer.execute(() -> {
+            flushScheduled.set(false);
+            flush();
+        });
+    }
+
+    private void flush() {
+        if (pendingWrites.isEmpty()) return;
+        int count = 0;
+        long start = System.nanoTime();
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            // 同一個 key 的訊息內容相同，已存在時略過，索引也不重複加入
+            SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + TABLE
+                    + " (chatId, msgKey, clientMsgId, fromUid, nickname, text, timestamp, id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            SQLiteStatement nextId = db.compileStatement("SELECT IFNULL(MAX(id) + 1, ?1) FROM " + TABLE + " WHERE id BETWEEN ?1 AND ?2");
+            SQLiteStatement index = db.compileStatement("INSERT INTO " + FTS_TABLE + " (docid, tokens) VALUES (?, ?)");
+            db.beginTransactionNonExclusive();
+            try {
+                PendingWrite write;
+                while ((write = pendingWrites.poll()) != null) {
+                    Message m = write.message;
+                    long first = Math.max(0, m.getTimestamp()) * IDS_PER_MS;
+                    nextId.bindLong(1, first);
+                    nextId.bindLong(2, first + IDS_PER_MS - 1);
+                    long id = nextId.simpleQueryForLong();
+                    if (id >= first + IDS_PER_MS) {
+                        Log.w(TAG, "Too many messages at " + m.getTimestamp() + ", not caching " + m.getKey());
+                        continue;
+                    }
+                    insert.clearBindings();
+                    insert.bindString(1, write.chatId);
+                    insert.bindString(2, m.getKey());
+                    if (m.getClientMsgId() != null) {
+                        insert.bindString(3, m.getClientMsgId());
+                    }
+                    insert.bindString(4, m.getFromUid());
+                    insert.bindString(5, m.getNickname() != null ? m.getNickname() : "");
+                    insert.bindString(6, m.getText() != null ? m.getText() : "");
+                    insert.bindLong(7, m.getTimestamp());
+                    insert.bindLong(8, id);
+                    long rowId = insert.executeInsert();
+                    if (rowId == -1) continue;
+                    String tokens = SearchTokenizer.tokenize(m.getText());
+                    if (!tokens.isEmpty()) {
+                        index.bindLong(1, rowId);
+                        index.bindString(2, tokens);
+                        index.executeInsert();
+                    }
+                    count++;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                insert.close();
+                nextId.close();
+                index.close();
+            }
+            Log.d(TAG, "Cached " + count + " messages in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write message cache: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 依時間由舊到新回傳時間不晚於 before 的最新 limit 則；before 為 -1 時從最新開始。
+     * 游標包含 before 本身，與目前最舊一則同一毫秒的訊息才不會被略過，呼叫端需去除已有的訊息。
+     */
+    public List<Message> load(String chatId, long before, int limit) {
+        SQLiteDatabase db = getReadableDatabase();
+        String selection = before >= 0 ? "chatId = ? AND timestamp <= ?" : "chatId = ?";
+        String[] args = before >= 0 ? new String[]{chatId, String.valueOf(before)} : new String[]{chatId};
+        List<Message> messages = new ArrayList<>(limit);
+        try (Cursor cursor = db.query(TABLE, new String[]{"fromUid", "text", "nickname", "timestamp", "clientMsgId"},
+                selection, args, null, null, "timestamp DESC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                messages.add(new Message(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getLong(3), cursor.isNull(4) ? null : cursor.getString(4), Message.State.SENT));
+            }
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    public void loadAsync(String chatId, long before, int limit, LoadCallback callback) {
+        reader.execute(() -> {
+            List<Message> messages;
+            try {
+                messages = load(chatId, before, limit);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to read message cache: " + e.getMessage(), e);
+                messages = new ArrayList<>();
+            }
+            callback.onLoaded(messages);
+        });
+    }
+
+    /**
+     * 全文搜尋已快取的訊息，回傳時間最新的最多 limit 筆，依時間由新到舊排序；chatId 為 null 時搜尋所有聊天室。
+     * 查詢字串中的詞須在訊息中依序相鄰出現，最後一詞可只輸入開頭。
+     */
+    public List<SearchHit> search(String query, String chatId, int limit) {
+        List<SearchHit> hits = new ArrayList<>();
+        String match = SearchTokenizer.matchQuery(query);
+        if (match == null) return hits;
+        String sql = "SELECT m.chatId, m.fromUid, m.text, m.nickname, m.timestamp, m.clientMsgId FROM " + FTS_TABLE
+                + " f JOIN " + TABLE + " m ON m.id = f.docid WHERE f.tokens MATCH ?"
+                // 一元 + 讓 SQLite 不改用 chatId 索引逐列比對 MATCH，一律由全文索引找出候選再過濾
+                + (chatId != null ? " AND +m.chatId = ?" : "")
+                // docid 依訊息時間遞增，全文索引本身就依 docid 排序，不必先取出所有符合的訊息再依時間排序
+                + " ORDER BY f.docid DESC LIMIT " + limit;
+        String[] args = chatId != null ? new String[]{match, chatId} : new String[]{match};
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                hits.add(new SearchHit(cursor.getString(0), new Message(cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getLong(4), cursor.isNull(5) ? null : cursor.getString(5), Message.State.SENT)));
+            }
+        }
+        return hits;
+    }
+
+    public void searchAsync(String query, String chatId, int limit, SearchCallback callback) {
+        reader.execute(() -> {
+            List<SearchHit> hits;
+            long start = System.nanoTime();
+            try {
+                hits = search(query, chatId, limit);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to search message cache: " + e.getMessage(), e);
+                hits = new ArrayList<>();
+            }
+            Log.d(TAG, "Search found " + hits.size() + " hit(s) in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+            callback.onResults(hits);
+        });
+    }
+
+    /** 快取中這個聊天室最新一則訊息的時間，沒有時回傳 -1。 */
+    public long latestTimestamp(String chatId) {
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT MAX(timestamp) FROM " + TABLE + " WHERE chatId = ?", new String[]{chatId})) {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        }
+    }
+
+    public int count(String chatId) {
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT COUNT(*) FROM " + TABLE + " WHERE chatId = ?", new String[]{chatId})) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    public void clear(String chatId) {
+        writer.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransactionNonExclusive();
+            try {
+                db.execSQL("DELETE FROM " + FTS_TABLE + " WHERE docid IN (SELECT id FROM " + TABLE + " WHERE chatId = ?)",
+                        new Object[]{chatId});
+                db.delete(TABLE, "chatId = ?", new String[]{chatId});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    /** 等待目前佇列中的寫入完成，供測試使用。 */
+    void awaitWrites() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        writer.execute(() -> {
+            flush();
+            latch.countDown();
+        });
+        latch.await(10, TimeUnit.SECONDS);
+    }
+}
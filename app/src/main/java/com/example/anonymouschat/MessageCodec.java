@@ -0,0 +1,64 @@
+package com.example.anonymouschat;
+
+import org.json.JSONObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Socket 封包的編解碼方式。JSON 為預設，伺服器支援時改用較精簡的二進位格式。
+ */
+public interface MessageCodec {
+    String name();
+
+    Object encode(JSONObject payload) throws IOException;
+
+    JSONObject decode(Object wire) throws IOException;
+
+    HistoryPage decodeHistory(Object wire) throws IOException;
+
+    // 從（通常是解壓縮中的）串流讀取歷史紀錄，呼叫端負責關閉串流
+    HistoryPage decodeHistory(InputStream in) throws IOException;
+
+    // 同上，但邊解析邊把每 chunkSize 則交給 listener（在解析的執行緒上呼叫）；回傳的 HistoryPage 仍包含全部訊息
+    HistoryPage decodeHistory(Object wire, int chunkSize, ChunkListener listener) throws IOException;
+
+    HistoryPage decodeHistory(InputStream in, int chunkSize, ChunkListener listener) throws IOException;
+
+    interface ChunkListener {
+        void onChunk(List<Message> chunk);
+    }
+
+    class HistoryPage {
+        public final boolean success;
+        public final String errorMessage;
+        public final List<Message> messages;
+        // 伺服器是否還有更舊的訊息；舊版伺服器一次回傳全部，視為沒有
+        public final boolean hasMore;
+        // 請求時帶的 before 游標，-1 表示最新一頁
+        public final long before;
+        // 重新連線補漏時帶的 after 游標（含），-1 表示不是補漏；此時 hasMore 表示之後還有更新的訊息
+        public final long after;
+        // 伺服器回傳的聊天室 ID，舊版伺服器不帶時為 null
+        public final String chatId;
+
+        public HistoryPage(boolean success, String errorMessage, List<Message> messages) {
+            this(success, errorMessage, messages, false, -1);
+        }
+
+        public HistoryPage(boolean success, String errorMessage, List<Message> messages, boolean hasMore, long before) {
+            this(success, errorMessage, messages, hasMore, before, -1, null);
+        }
+
+        public HistoryPage(boolean success, String errorMessage, List<Message> messages, boolean hasMore, long before,
+                           long after, String chatId) {
+            this.success = success;
+            this.errorMessage = errorMessage;
+            this.messages = messages;
+            this.hasMore = hasMore;
+            this.before = before;
+            this.after = after;
+            this.chatId = chatId;
+        }
+    }
+}
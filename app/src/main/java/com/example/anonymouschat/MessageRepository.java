@@ -0,0 +1,244 @@
+package com.example.anonymouschat;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 整個程式共用的訊息來源：持有所有聊天室的 socket 訂閱，每則訊息只解析一次，
+ * 寫入本地快取並更新各聊天室的最後一則訊息與未讀數，再分派給開啟中的聊天畫面。
+ * 聊天列表觀察這裡的增量更新，不必重新請求 getChatList 來保持最新。
+ */
+public class MessageRepository {
+    private static final String TAG = "MessageRepository";
+    private static MessageRepository instance;
+
+    /** 一個聊天室的摘要，不可變；每次變化都產生新的實例。 */
+    public static class ChatSummary {
+        public final String chatId;
+        public final String type;
+        public final String name;
+        public final Message lastMessage;
+        public final int unreadCount;
+
+        public ChatSummary(String chatId, String type, String name, Message lastMessage, int unreadCount) {
+            this.chatId = chatId;
+            this.type = type;
+            this.name = name;
+            this.lastMessage = lastMessage;
+            this.unreadCount = unreadCount;
+        }
+
+        public String getLastMessageText() {
+            return lastMessage != null ? lastMessage.getText() : null;
+        }
+    }
+
+    public interface ChatListObserver {
+        /** 在主執行緒呼叫；同一個畫面內有變化的聊天室各出現一次，為最新狀態。 */
+        void onChatsChanged(List<ChatSummary> changed);
+    }
+
+    public interface MessageListener {
+        /** 在 socket 執行緒呼叫，messages 為同一批次中這個聊天室的訊息。 */
+        void onMessages(String chatId, List<Message> messages);
+    }
+
+    private final Object lock = new Object();
+    private final Map<String, ChatSummary> chats = new ConcurrentHashMap<>();
+    private final Map<String, List<MessageListener>> messageListeners = new ConcurrentHashMap<>();
+    private final List<ChatListObserver> observers = new CopyOnWriteArrayList<>();
+    // 有變化的 chatId，每個畫面最多通知一次
+    private final FrameCoalescer<String> changes;
+    private SocketManager socketManager;
+    private MessageCache cache;
+    private volatile String uid;
+
+    public static synchronized MessageRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageRepository(FrameCoalescer.nextFrame());
+            instance.attach(SocketManager.getInstance(context), MessageCache.getInstance(context));
+        }
+        return instance;
+    }
+
+    MessageRepository(FrameCoalescer.Scheduler scheduler) {
+        this.changes = new FrameCoalescer<>(scheduler, this::publish);
+    }
+
+    private void attach(SocketManager socketManager, MessageCache cache) {
+        this.socketManager = socketManager;
+        this.cache = cache;
+        socketManager.subscribeAllChats(this::onChatEvents);
+    }
+
+    /** 目前登入的使用者；自己發出的訊息不計入未讀。 */
+    public void setUid(String uid) {
+        this.uid = uid;
+    }
+
+    public ChatSummary getChat(String chatId) {
+        return chats.get(chatId);
+    }
+
+    public List<ChatSummary> getChats() {
+        return new ArrayList<>(chats.values());
+    }
+
+    /**
+     * 以伺服器的聊天列表為準加入或更新聊天室，保留本地較新的最後一則訊息與未讀數。
+     * 回傳合併後的摘要，順序與傳入的相同。
+     */
+    public List<ChatSummary> putChats(List<ChatSummary> fromServer) {
+        List<ChatSummary> merged = new ArrayList<>(fromServer.size());
+        List<String> changed = new ArrayList<>();
+        synchronized (lock) {
+            for (ChatSummary server : fromServer) {
+                ChatSummary local = chats.get(server.chatId);
+                ChatSummary summary = server;
+                if (local != null) {
+                    Message last = newer(local.lastMessage, server.lastMessage);
+                    summary = new ChatSummary(server.chatId, server.type, server.name, last, local.unreadCount);
+                }
+                chats.put(summary.chatId, summary);
+                merged.add(summary);
+                changed.add(summary.chatId);
+            }
+        }
+        changes.add(changed);
+        return merged;
+    }
+
+    public void putChat(String chatId, String type, String name) {
+        putChats(Collections.singletonList(new ChatSummary(chatId, type, name, null, 0)));
+    }
+
+    public void markRead(String chatId) {
+        synchronized (lock) {
+            ChatSummary summary = chats.get(chatId);
+            if (summary == null || summary.unreadCount == 0) return;
+            chats.put(chatId, new ChatSummary(chatId, summary.type, summary.name, summary.lastMessage, 0));
+        }
+        changes.add(Collections.singletonList(chatId));
+    }
+
+    /** 本地剛送出的訊息，立即更新聊天列表的最後一則訊息。 */
+    public void onLocalMessage(String chatId, Message message) {
+        update(chatId, Collections.singletonList(message), false);
+    }
+
+    /** 觀察聊天列表的變化，owner 銷毀時自動取消。須在主執行緒呼叫。 */
+    public void observeChats(LifecycleOwner owner, ChatListObserver observer) {
+        Lifecycle lifecycle = owner.getLifecycle();
+        if (lifecycle.getCurrentState() == Lifecycle.State.DESTROYED) return;
+        observers.add(observer);
+        lifecycle.addObserver((LifecycleEventObserver) (source, event) -> {
+            if (event == Lifecycle.Event.ON_DESTROY) {
+                observers.remove(observer);
+            }
+        });
+    }
+
+    /** 開啟中的聊天畫面接收這個聊天室的新訊息；有監聽者時新訊息不計入未讀。 */
+    public void addMessageListener(String chatId, MessageListener listener) {
+        messageListeners.computeIfAbsent(chatId, k -> new CopyOnWriteArrayList<>()).add(listener);
+        markRead(chatId);
+    }
+
+    public void removeMessageListener(String chatId, MessageListener listener) {
+        messageListeners.computeIfPresent(chatId, (k, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    // socket 執行緒
+    void onChatEvents(String chatId, List<SocketManager.ChatEvent> events) {
+        List<Message> incoming = new ArrayList<>(events.size());
+        for (SocketManager.ChatEvent event : events) {
+            Message message = parseMessage(event.event, event.data);
+            if (message != null) incoming.add(message);
+        }
+        if (incoming.isEmpty()) return;
+        if (cache != null) {
+            cache.put(chatId, incoming);
+        }
+        if (socketManager != null) {
+            socketManager.getGapFiller().observe(chatId, incoming);
+        }
+        List<MessageListener> listeners = messageListeners.get(chatId);
+        update(chatId, incoming, listeners == null || listeners.isEmpty());
+        if (listeners != null) {
+            for (MessageListener listener : listeners) {
+                listener.onMessages(chatId, incoming);
+            }
+        }
+        Log.d(TAG, "Received " + incoming.size() + " message(s) for chatId: " + chatId);
+    }
+
+    private void update(String chatId, List<Message> messages, boolean countUnread) {
+        String self = uid;
+        synchronized (lock) {
+            ChatSummary summary = chats.get(chatId);
+            Message last = summary != null ? summary.lastMessage : null;
+            int unread = summary != null ? summary.unreadCount : 0;
+            for (Message message : messages) {
+                last = newer(last, message);
+                if (countUnread && !"system".equals(message.getFromUid()) && !message.getFromUid().equals(self)) {
+                    unread++;
+                }
+            }
+            // 列表中還沒有的聊天室（例如別人剛開始的私聊），先以 chatId 為名加入，下次載入列表時更新名稱
+            String type = summary != null ? summary.type : "private";
+            String name = summary != null ? summary.name : chatId;
+            chats.put(chatId, new ChatSummary(chatId, type, name, last, unread));
+        }
+        changes.add(Collections.singletonList(chatId));
+    }
+
+    private static Message newer(Message a, Message b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return b.getTimestamp() >= a.getTimestamp() ? b : a;
+    }
+
+    // 主執行緒
+    private void publish(List<String> chatIds) {
+        Set<String> unique = new LinkedHashSet<>(chatIds);
+        List<ChatSummary> changed = new ArrayList<>(unique.size());
+        for (String chatId : unique) {
+            ChatSummary summary = chats.get(chatId);
+            if (summary != null) changed.add(summary);
+        }
+        for (ChatListObserver observer : observers) {
+            observer.onChatsChanged(changed);
+        }
+    }
+
+    static Message parseMessage(String event, JSONObject messageData) {
+        if (event.equals("groupMessage") && messageData.optString("type", "user").equals("system")) {
+            return new Message("system", messageData.optString("message", ""), "System", System.currentTimeMillis());
+        }
+        String fromUid = messageData.optString("fromUid", null);
+        if (fromUid == null) {
+            Log.e(TAG, event + " event missing fromUid");
+            return null;
+        }
+        String messageText = messageData.optString("message", "");
+        String nickname = messageData.optString("nickname", "Unknown");
+        long timestamp = messageData.optLong("timestamp", System.currentTimeMillis());
+        String clientMsgId = messageData.optString("clientMsgId", null);
+        return new Message(fromUid, messageText, nickname, timestamp, clientMsgId, Message.State.SENT);
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.anonymouschat;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * 依時間排序的訊息儲存。依序到達的訊息直接附加在尾端（O(1)），
+ * 亂序的訊息以二分搜尋找到位置後插入。
+ * snapshot() 回傳不可變的清單並與儲存共用底層陣列：之後的附加只寫在快照範圍之外，
+ * 只有在需要移動既有元素時才複製陣列，因此每則訊息不必再複製整個清單。
+ * 本類別不是執行緒安全的，呼叫端需自行同步。
+ */
+public class MessageStore {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Message[] items = new Message[INITIAL_CAPACITY];
+    private int size = 0;
+    // 目前的陣列是否被快照引用，若是則原地移動元素前必須先複製
+    private boolean shared = false;
+    private final Map<String, Message> byClientMsgId = new HashMap<>();
+    private List<Message> lastSnapshot = Collections.emptyList();
+    private boolean dirty = false;
+
+    public int size() {
+        return size;
+    }
+
+    public Message get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return items[index];
+    }
+
+    public Message findByClientMsgId(String clientMsgId) {
+        return clientMsgId == null ? null : byClientMsgId.get(clientMsgId);
+    }
+
+    /** 是否已有同一則訊息：有 clientMsgId 時查索引，否則比對時間相同的訊息。 */
+    public boolean contains(Message message) {
+        if (message.getClientMsgId() != null) {
+            return byClientMsgId.containsKey(message.getClientMsgId());
+        }
+        long timestamp = message.getTimestamp();
+        String key = message.getKey();
+        for (int i = indexAtOrAfter(timestamp); i < size && items[i].getTimestamp() == timestamp; i++) {
+            if (items[i].getKey().equals(key)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 加入一則訊息。若 clientMsgId 已存在（自己樂觀顯示過的訊息），只把狀態更新為已送出。
+     * 狀態變更以新的物件取代原本的訊息，之前的快照維持不變。
+     * 沒有 clientMsgId 且 getKey 相同（同一發送者、同一毫秒、同樣內容）的訊息視為重複，不再加入，
+     * 每則訊息的 getKey 因此在儲存中唯一，可作為 adapter 的穩定 id。
+     * 回傳內容是否有變化。
+     */
+    public boolean add(Message message) {
+        String clientMsgId = message.getClientMsgId();
+        if (clientMsgId != null) {
+            Message existing = byClientMsgId.get(clientMsgId);
+            if (existing != null) {
+                if (existing.getState() == Message.State.SENT) return false;
+                replaceState(existing, Message.State.SENT);
+                return true;
+            }
+            byClientMsgId.put(clientMsgId, message);
+        } else if (contains(message)) {
+            return false;
+        }
+        insert(message);
+        return true;
+    }
+
+    public boolean addAll(List<Message> messages) {
+        boolean changed = false;
+        for (Message message : messages) {
+            changed |= add(message);
+        }
+        return changed;
+    }
+
+    /**
+     * 加入較舊的一頁訊息。整頁都比目前最舊的訊息早時一次複製完成，否則逐則插入。
+     * 回傳實際加入的則數。
+     */
+    public int addOlder(List<Message> page) {
+        if (page.isEmpty()) return 0;
+        List<Message> fresh = new ArrayList<>(page.size());
+        Set<String> keys = new HashSet<>();
+        for (Message message : page) {
+            String id = message.getClientMsgId();
+            if (id != null ? byClientMsgId.containsKey(id) : contains(message)) continue;
+            if (!keys.add(message.getKey())) continue;
+            fresh.add(message);
+        }
+        if (fresh.isEmpty()) return 0;
+        Message[] older = fresh.toArray(new Message[0]);
+        if (!isSorted(older, older.length)) {
+            Arrays.sort(older, (a, b) -> Long.compare(a.getTimestamp(), b.getTimestamp()));
+        }
+        if (size > 0 && older[older.length - 1].getTimestamp() > items[0].getTimestamp()) {
+            for (Message message : older) {
+                add(message);
+            }
+            return older.length;
+        }
+        Message[] next = new Message[Math.max(INITIAL_CAPACITY, Math.max(items.length, size + older.length))];
+        System.arraycopy(older, 0, next, 0, older.length);
+        System.arraycopy(items, 0, next, older.length, size);
+        items = next;
+        size += older.length;
+        shared = false;
+        for (Message message : older) {
+            String id = message.getClientMsgId();
+            if (id != null) byClientMsgId.put(id, message);
+        }
+        dirty = true;
+        return older.length;
+    }
+
+    public boolean updateState(String clientMsgId, Message.State state) {
+        Message message = findByClientMsgId(clientMsgId);
+        if (message == null || message.getState() == state) return false;
+        replaceState(message, state);
+        return true;
+    }
+
+    private void replaceState(Message message, Message.State state) {
+        int index = indexAtOrAfter(message.getTimestamp());
+        while (index < size && items[index] != message) {
+            index++;
+        }
+        if (index == size) {
+            throw new IllegalStateException("Message not found in store: " + message.getKey());
+        }
+        if (shared) {
+            // 快照引用同一個陣列，先複製再替換
+            items = Arrays.copyOf(items, items.length);
+            shared = false;
+        }
+        Message updated = message.withState(state);
+        items[index] = updated;
+        byClientMsgId.put(updated.getClientMsgId(), updated);
+        dirty = true;
+    }
+
+    /**
+     * 移除最舊的 count 則之中已送出的訊息。尚未送出的訊息只存在記憶體中，跳過並保留在原位。
+     * 回傳實際移除的則數。
+     */
+    public int evictOldest(int count) {
+        int end = Math.min(count, size);
+        int evicted = 0;
+        for (int i = 0; i < end; i++) {
+            if (items[i].getState() == Message.State.SENT) evicted++;
+        }
+        if (evicted == 0) return 0;
+        // 舊陣列可能仍被快照引用，保留的部分複製到新陣列
+        Message[] next = new Message[Math.max(INITIAL_CAPACITY, size - evicted)];
+        int kept = 0;
+        for (int i = 0; i < end; i++) {
+            Message message = items[i];
+            if (message.getState() != Message.State.SENT) {
+                next[kept++] = message;
+            } else if (message.getClientMsgId() != null) {
+                byClientMsgId.remove(message.getClientMsgId());
+            }
+        }
+        System.arraycopy(items, end, next, kept, size - end);
+        items = next;
+        size -= evicted;
+        shared = false;
+        dirty = true;
+        return evicted;
+    }
+
+    /** 最舊一則已送出訊息的位置，沒有時回傳 -1。尚未送出的訊息時間來自本機時鐘，不能當作翻頁的游標。 */
+    public int oldestSentIndex() {
+        for (int i = 0; i < size; i++) {
+            if (items[i].getState() == Message.State.SENT) return i;
+        }
+        return -1;
+    }
+
+    /** 第一則時間不早於 timestamp 的訊息位置，全部都較早時回傳 size()。 */
+    public int indexAtOrAfter(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (items[mid].getTimestamp() < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** 以新的內容取代全部訊息，例如載入歷史紀錄後；重複的訊息只保留第一則。 */
+    public void replaceAll(List<Message> messages) {
+        Message[] next = messages.toArray(new Message[Math.max(INITIAL_CAPACITY, messages.size())]);
+        int count = messages.size();
+        if (!isSorted(next, count)) {
+            // 穩定排序，相同時間的訊息保持原順序
+            Arrays.sort(next, 0, count, (a, b) -> Long.compare(a.getTimestamp(), b.getTimestamp()));
+        }
+        Set<String> keys = new HashSet<>();
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (keys.add(next[i].getKey())) next[unique++] = next[i];
+        }
+        Arrays.fill(next, unique, count, null);
+        count = unique;
+        items = next;
+        size = count;
+        shared = false;
+        byClientMsgId.clear();
+        for (int i = 0; i < count; i++) {
+            String id = next[i].getClientMsgId();
+            if (id != null) byClientMsgId.put(id, next[i]);
+        }
+        dirty = true;
+    }
+
+    /** 回傳目前內容的不可變快照，內容沒有變化時回傳同一個物件。 */
+    public List<Message> snapshot() {
+        if (dirty || lastSnapshot.size() != size) {
+            lastSnapshot = new Snapshot(items, size);
+            shared = true;
+            dirty = false;
+        }
+        return lastSnapshot;
+    }
+
+    private void insert(Message message) {
+        long timestamp = message.getTimestamp();
+        if (size == 0 || items[size - 1].getTimestamp() <= timestamp) {
+            ensureCapacity(size + 1);
+            items[size++] = message;
+            return;
+        }
+        // 找第一個時間大於此訊息的位置，相同時間時排在既有訊息之後
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (items[mid].getTimestamp() <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (shared || size == items.length) {
+            Message[] next = new Message[size == items.length ? items.length * 2 : items.length];
+            System.arraycopy(items, 0, next, 0, low);
+            System.arraycopy(items, low, next, low + 1, size - low);
+            items = next;
+            shared = false;
+        } else {
+            System.arraycopy(items, low, items, low + 1, size - low);
+        }
+        items[low] = message;
+        size++;
+        dirty = true;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= items.length) return;
+        // 舊陣列可能仍被快照引用，直接換新的，不影響快照
+        items = Arrays.copyOf(items, Math.max(capacity, items.length * 2));
+        shared = false;
+    }
+
+    private static boolean isSorted(Message[] array, int count) {
+        for (int i = 1; i < count; i++) {
+            if (array[i - 1].getTimestamp() > array[i].getTimestamp()) return false;
+        }
+        return true;
+    }
+
+    private static final class Snapshot extends AbstractList<Message> implements RandomAccess {
+        private final Message[] items;
+        private final int size;
+
+        Snapshot(Message[] items, int size) {
+            this.items = items;
+            this.size = size;
+        }
+
+        @Override
+        public Message get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            return items[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.anonymouschat;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * MessagePack 編解碼。歷史紀錄直接從位元組串流解成 Message，不經過 JSONObject/JSONArray。
+ */
+public class MsgPackMessageCodec implements MessageCodec {
+    public static final String NAME = "msgpack";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public Object encode(JSONObject payload) throws IOException {
+        try (MessageBufferPacker packer = MessagePack.newDefaultBufferPacker()) {
+            packValue(packer, payload);
+            return packer.toByteArray();
+        }
+    }
+
+    private static void packValue(MessagePacker packer, Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            packer.packNil();
+        } else if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            packer.packMapHeader(obj.length());
+            Iterator<String> keys = obj.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                packer.packString(key);
+                packValue(packer, obj.opt(key));
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            packer.packArrayHeader(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                packValue(packer, array.opt(i));
+            }
+        } else if (value instanceof Boolean) {
+            packer.packBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            packer.packLong(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            packer.packDouble(((Number) value).doubleValue());
+        } else {
+            packer.packString(value.toString());
+        }
+    }
+
+    @Override
+    public JSONObject decode(Object wire) throws IOException {
+        if (wire instanceof JSONObject) {
+            return (JSONObject) wire;
+        }
+        if (!(wire instanceof byte[])) {
+            throw new IOException("Expected binary payload");
+        }
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker((byte[]) wire)) {
+            Object value = unpackValue(unpacker);
+            if (!(value instanceof JSONObject)) {
+                throw new IOException("Payload is not a map");
+            }
+            return (JSONObject) value;
+        }
+    }
+
+    private static Object unpackValue(MessageUnpacker unpacker) throws IOException {
+        ValueType type = unpacker.getNextFormat().getValueType();
+        try {
+            switch (type) {
+                case NIL:
+                    unpacker.unpackNil();
+                    return JSONObject.NULL;
+                case BOOLEAN:
+                    return unpacker.unpackBoolean();
+                case INTEGER:
+                    return unpacker.unpackLong();
+                case FLOAT:
+                    return unpacker.unpackDouble();
+                case STRING:
+                    return unpacker.unpackString();
+                case ARRAY: {
+                    int size = unpacker.unpackArrayHeader();
+                    JSONArray array = new JSONArray();
+                    for (int i = 0; i < size; i++) {
+                        array.put(unpackValue(unpacker));
+                    }
+                    return array;
+                }
+                case MAP: {
+                    int size = unpacker.unpackMapHeader();
+                    JSONObject obj = new JSONObject();
+                    for (int i = 0; i < size; i++) {
+                        String key = unpacker.unpackString();
+                        obj.put(key, unpackValue(unpacker));
+                    }
+                    return obj;
+                }
+                default:
+                    unpacker.skipValue();
+                    return JSONObject.NULL;
+            }
+        } catch (JSONException e) {
+            throw new IOException("Invalid map entry", e);
+        }
+    }
+
+    @Override
+    public HistoryPage decodeHistory(Object wire) throws IOException {
+        return decodeHistory(wire, Integer.MAX_VALUE, null);
+    }
+
+    @Override
+    public HistoryPage decodeHistory(Object wire, int chunkSize, ChunkListener listener) throws IOException {
+        if (wire instanceof JSONObject) {
+            return new JsonMessageCodec().decodeHistory(wire, chunkSize, listener);
+        }
+        if (!(wire instanceof byte[])) {
+            throw new IOException("Expected binary payload");
+        }
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker((byte[]) wire)) {
+            return unpackHistory(unpacker, chunkSize, listener);
+        }
+    }
+
+    @Override
+    public HistoryPage decodeHistory(InputStream in) throws IOException {
+        return decodeHistory(in, Integer.MAX_VALUE, null);
+    }
+
+    @Override
+    public HistoryPage decodeHistory(InputStream in, int chunkSize, ChunkListener listener) throws IOException {
+        // 不關閉 unpacker，串流由呼叫端關閉
+        return unpackHistory(MessagePack.newDefaultUnpacker(in), chunkSize, listener);
+    }
+
+    /** 只讀出最上層 map 中的一個字串欄位，其餘的值略過不解析；沒有該欄位時回傳 null。 */
+    static String peekString(byte[] data, String key) throws IOException {
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(data)) {
+            if (!unpacker.hasNext() || unpacker.getNextFormat().getValueType() != ValueType.MAP) return null;
+            int fields = unpacker.unpackMapHeader();
+            for (int i = 0; i < fields; i++) {
+                String name = unpacker.unpackString();
+                if (key.equals(name) && unpacker.getNextFormat().getValueType() == ValueType.STRING) {
+                    return unpacker.unpackString();
+                }
+                unpacker.skipValue();
+            }
+        }
+        return null;
+    }
+
+    private static HistoryPage unpackHistory(MessageUnpacker unpacker, int chunkSize, ChunkListener listener) throws IOException {
+        boolean success = false;
+        String errorMessage = null;
+        boolean hasMore = false;
+        long before = -1;
+        long after = -1;
+        String chatId = null;
+        List<Message> messages = new ArrayList<>();
+        int fields = unpacker.unpackMapHeader();
+        for (int i = 0; i < fields; i++) {
+            String key = unpacker.unpackString();
+            switch (key) {
+                case "success":
+                    success = unpacker.unpackBoolean();
+                    break;
+                case "message":
+                    errorMessage = unpacker.unpackString();
+                    break;
+                case "hasMore":
+                    hasMore = unpacker.unpackBoolean();
+                    break;
+                case "before":
+                    before = unpacker.unpackLong();
+                    break;
+                case "after":
+                    after = unpacker.unpackLong();
+                    break;
+                case "chatId":
+                    chatId = unpacker.unpackString();
+                    break;
+                case "messages": {
+                    int count = unpacker.unpackArrayHeader();
+                    messages = new ArrayList<>(count);
+                    int chunkStart = 0;
+                    for (int j = 0; j < count; j++) {
+                        Message message = Message.unpack(unpacker);
+                        if (message == null) continue;
+                        messages.add(message);
+                        if (success && listener != null && messages.size() - chunkStart >= chunkSize) {
+                            listener.onChunk(new ArrayList<>(messages.subList(chunkStart, messages.size())));
+                            chunkStart = messages.size();
+                        }
+                    }
+                    break;
+                }
+                default:
+                    unpacker.skipValue();
+            }
+        }
+        return new HistoryPage(success, success ? null : (errorMessage != null ? errorMessage : "Unknown error"), messages, hasMore, before, after, chatId);
+    }
+}
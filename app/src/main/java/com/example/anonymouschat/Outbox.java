@@ -0,0 +1,159 @@
+package com.example.anonymouschat;
+
+import android.util.Log;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 待發送訊息佇列：先寫入 OutboxJournal，再依序送出，收到伺服器 ack 後才移除。
+ * 重連時依原順序重送，並限制同時等待 ack 的數量，避免一次湧出所有訊息。
+ * 在同一條連線上等不到 ack 的訊息逾時後以相同 id 重送，伺服器依 id 去重。
+ */
+public class Outbox {
+    private static final String TAG = "Outbox";
+    private static final int MAX_IN_FLIGHT = 16;
+    private static final long SYNC_DELAY_MS = 50;
+    private static final long ACK_TIMEOUT_MS = 10000;
+
+    public interface Transport {
+        boolean isConnected();
+
+        void emit(String id, String event, String payload, Runnable onAck);
+    }
+
+    public interface Listener {
+        void onAcked(String id, long latencyMs);
+
+        // 逾時只代表暫時失敗，訊息仍留在日誌中並會重送
+        void onAckTimeout(String id);
+    }
+
+    private final OutboxJournal journal;
+    private final Transport transport;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "outbox");
+        t.setDaemon(true);
+        return t;
+    });
+    private final long ackTimeoutMs;
+    private final Map<String, Long> inFlight = new HashMap<>();
+    private boolean syncScheduled = false;
+    private volatile Listener listener;
+
+    public Outbox(OutboxJournal journal, Transport transport) {
+        this(journal, transport, ACK_TIMEOUT_MS);
+    }
+
+    Outbox(OutboxJournal journal, Transport transport, long ackTimeoutMs) {
+        this.journal = journal;
+        this.transport = transport;
+        this.ackTimeoutMs = ackTimeoutMs;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void enqueue(String id, String event, String payload) {
+        executor.execute(() -> {
+            try {
+                journal.append(id, event, payload);
+                scheduleSync();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to journal message " + id + ", sending without persistence", e);
+                if (transport.isConnected()) {
+                    transport.emit(id, event, payload, () -> {});
+                }
+                return;
+            }
+            pump();
+        });
+    }
+
+    public void onConnected() {
+        executor.execute(() -> {
+            // 上一條連線上尚未 ack 的訊息需要重送
+            inFlight.clear();
+            Log.d(TAG, "Connected, replaying " + journal.size() + " pending messages");
+            pump();
+        });
+    }
+
+    public void onDisconnected() {
+        executor.execute(inFlight::clear);
+    }
+
+    public int pendingCount() {
+        return journal.size();
+    }
+
+    private void pump() {
+        if (!transport.isConnected()) return;
+        for (OutboxJournal.Entry entry : journal.pending()) {
+            if (inFlight.size() >= MAX_IN_FLIGHT) break;
+            String id = entry.getId();
+            if (inFlight.containsKey(id)) continue;
+            long sentAt = System.nanoTime();
+            inFlight.put(id, sentAt);
+            transport.emit(id, entry.getEvent(), entry.getPayload(), () -> {
+                long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt);
+                executor.execute(() -> onAck(id, latencyMs));
+            });
+            executor.schedule(() -> checkAckTimeout(id, sentAt), ackTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void onAck(String id, long latencyMs) {
+        inFlight.remove(id);
+        boolean removed;
+        try {
+            removed = journal.ack(id);
+            scheduleSync();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record ack for " + id, e);
+            removed = true;
+        }
+        Listener l = listener;
+        if (removed && l != null) {
+            l.onAcked(id, latencyMs);
+        }
+        pump();
+    }
+
+    private void checkAckTimeout(String id, long sentAt) {
+        Long current = inFlight.get(id);
+        if (current == null || current != sentAt) return;
+        Log.w(TAG, "Ack timeout for message " + id + ", resending");
+        // 讓出名額，否則遺失的 ack 累積到 MAX_IN_FLIGHT 後要等重連才會再送
+        inFlight.remove(id);
+        Listener l = listener;
+        if (l != null) {
+            l.onAckTimeout(id);
+        }
+        pump();
+    }
+
+    private void scheduleSync() {
+        if (syncScheduled) return;
+        syncScheduled = true;
+        executor.schedule(() -> {
+            syncScheduled = false;
+            try {
+                journal.sync();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to sync outbox journal", e);
+            }
+        }, SYNC_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void awaitIdle() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(latch::countDown);
+        latch.await(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.anonymouschat;
+
+import android.util.Log;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 以檔案保存的待發送訊息日誌（append-only）。
+ * 每筆記錄一行：新增為 "A\tid\tevent\tpayload"，確認為 "K\tid"。
+ * 寫入會累積後才 fsync，確認數量過多時會壓縮成只剩未確認的記錄。
+ * 無法開啟檔案時可改用 inMemory()，只在記憶體中保存，程式結束後不會保留。
+ */
+public class OutboxJournal {
+    private static final String TAG = "OutboxJournal";
+    private static final int SYNC_BATCH_SIZE = 32;
+    private static final int COMPACT_THRESHOLD = 256;
+
+    public static class Entry {
+        final String id;
+        final String event;
+        final String payload;
+
+        Entry(String id, String event, String payload) {
+            this.id = id;
+            this.event = event;
+            this.payload = payload;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getEvent() {
+            return event;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+    }
+
+    // null 表示只保存在記憶體中
+    private final File file;
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<>();
+    private FileOutputStream out;
+    private BufferedWriter writer;
+    private int unsyncedRecords = 0;
+    private int ackedRecords = 0;
+
+    public OutboxJournal(File file) throws IOException {
+        this.file = file;
+        replay();
+        openForAppend();
+    }
+
+    private OutboxJournal() {
+        this.file = null;
+    }
+
+    /** 不寫入檔案的日誌，用於無法開啟日誌檔時，讓發送流程仍能運作。 */
+    public static OutboxJournal inMemory() {
+        return new OutboxJournal();
+    }
+
+    private void replay() throws IOException {
+        if (!file.exists()) return;
+        byte[] bytes = readAll(file);
+        // 程式中途被終止時最後一行可能只寫了一半：截掉最後一個換行之後的內容，之後的寫入才不會接在殘缺的行後面
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        if (end < bytes.length) {
+            Log.w(TAG, "Truncating " + (bytes.length - end) + " bytes of torn journal record");
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(end);
+            }
+        }
+        for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            if (line.isEmpty()) continue;
+            String[] parts = line.split("\t", 4);
+            if (parts.length == 4 && parts[0].equals("A") && isValidPayload(parts[3])) {
+                pending.put(parts[1], new Entry(parts[1], parts[2], parts[3]));
+            } else if (parts.length == 2 && parts[0].equals("K")) {
+                pending.remove(parts[1]);
+                ackedRecords++;
+            } else {
+                Log.w(TAG, "Skipping corrupt journal record");
+            }
+        }
+        Log.d(TAG, "Replayed outbox journal, pending: " + pending.size());
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) file.length());
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    // 內容損壞的記錄重送也只會一直失敗，直接捨棄
+    private static boolean isValidPayload(String payload) {
+        try {
+            new JSONObject(payload);
+            return true;
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    private void openForAppend() throws IOException {
+        out = new FileOutputStream(file, true);
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    public synchronized void append(String id, String event, String payload) throws IOException {
+        if (pending.containsKey(id)) return;
+        pending.put(id, new Entry(id, event, payload));
+        writeRecord("A\t" + id + "\t" + event + "\t" + payload);
+    }
+
+    public synchronized boolean ack(String id) throws IOException {
+        if (pending.remove(id) == null) return false;
+        writeRecord("K\t" + id);
+        ackedRecords++;
+        if (ackedRecords >= COMPACT_THRESHOLD && ackedRecords > pending.size()) {
+            compact();
+        }
+        return true;
+    }
+
+    public synchronized List<Entry> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized boolean contains(String id) {
+        return pending.containsKey(id);
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    private void writeRecord(String record) throws IOException {
+        if (file == null) return;
+        writer.write(record);
+        writer.write('\n');
+        if (++unsyncedRecords >= SYNC_BATCH_SIZE) {
+            sync();
+        }
+    }
+
+    public synchronized void sync() throws IOException {
+        if (file == null || unsyncedRecords == 0) return;
+        writer.flush();
+        out.getFD().sync();
+        unsyncedRecords = 0;
+    }
+
+    private void compact() throws IOException {
+        if (file == null) return;
+        sync();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tmpOut = new FileOutputStream(tmp);
+             BufferedWriter tmpWriter = new BufferedWriter(new OutputStreamWriter(tmpOut, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Entry> e : pending.entrySet()) {
+                Entry entry = e.getValue();
+                tmpWriter.write("A\t" + entry.id + "\t" + entry.event + "\t" + entry.payload);
+                tmpWriter.write('\n');
+            }
+            tmpWriter.flush();
+            tmpOut.getFD().sync();
+        }
+        writer.close();
+        if (!tmp.renameTo(file)) {
+            openForAppend();
+            throw new IOException("Failed to replace outbox journal");
+        }
+        openForAppend();
+        ackedRecords = 0;
+        Log.d(TAG, "Compacted outbox journal, pending: " + pending.size());
+    }
+
+    public synchronized void close() throws IOException {
+        if (file == null) return;
+        sync();
+        writer.close();
+    }
+}
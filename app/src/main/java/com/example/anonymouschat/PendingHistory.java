@@ -0,0 +1,92 @@
+package com.example.anonymouschat;
+
+import java.util.List;
+
+/**
+ * 在聊天列表點擊時就送出的最新一頁歷史紀錄請求。ChatActivity 啟動、ChatViewModel 建立後以 attach 接手，
+ * 不必等畫面建立完才開始請求；回應在 attach 之前或之後到達都只會交付一次。
+ * SocketManager 依 requestId 收到這個請求的回應並解析後呼叫 complete，逾時或失敗時呼叫 fail，接手的一方此時應自行重新請求。
+ */
+public class PendingHistory {
+    private final String chatId;
+    private final long requestedAt;
+    private MessageCodec.HistoryPage page;
+    private Exception error;
+    private SocketManager.HistoryCallback callback;
+
+    public PendingHistory(String chatId, long requestedAt) {
+        this.chatId = chatId;
+        this.requestedAt = requestedAt;
+    }
+
+    public String getChatId() {
+        return chatId;
+    }
+
+    /** 送出請求的時間（System.currentTimeMillis）。 */
+    public long getRequestedAt() {
+        return requestedAt;
+    }
+
+    public synchronized boolean isDone() {
+        return page != null || error != null;
+    }
+
+    /**
+     * 已有結果時立即在呼叫端執行緒回呼，否則在結果到達的執行緒回呼。
+     * 只有 attach 之後、結果到達之前解析出的分段會交給 onChunk，之前的分段已被捨棄，完整的一頁仍會交付。
+     */
+    public void attach(SocketManager.HistoryCallback callback) {
+        MessageCodec.HistoryPage result;
+        Exception failure;
+        synchronized (this) {
+            if (!isDone()) {
+                this.callback = callback;
+                return;
+            }
+            result = page;
+            failure = error;
+        }
+        deliver(callback, result, failure);
+    }
+
+    /** 解析途中的一段訊息，交給已接手的一方；尚未接手或已完成時捨棄。 */
+    public void chunk(List<Message> messages) {
+        SocketManager.HistoryCallback target;
+        synchronized (this) {
+            if (isDone()) return;
+            target = callback;
+        }
+        if (target != null) target.onChunk(messages);
+    }
+
+    /** 回傳是否由這次呼叫完成；已完成或已失敗時忽略。 */
+    public boolean complete(MessageCodec.HistoryPage page) {
+        return finish(page, null);
+    }
+
+    public boolean fail(Exception error) {
+        return finish(null, error);
+    }
+
+    private boolean finish(MessageCodec.HistoryPage result, Exception failure) {
+        SocketManager.HistoryCallback target;
+        synchronized (this) {
+            if (isDone()) return false;
+            page = result;
+            error = failure;
+            target = callback;
+            callback = null;
+        }
+        if (target != null) deliver(target, result, failure);
+        return true;
+    }
+
+    private static void deliver(SocketManager.HistoryCallback callback, MessageCodec.HistoryPage result, Exception failure) {
+        if (result != null) {
+            callback.onHistory(result);
+        } else {
+            callback.onError(failure);
+        }
+    }
+}
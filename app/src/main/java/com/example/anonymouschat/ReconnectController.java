@@ -0,0 +1,162 @@
+package com.example.anonymouschat;
+
+import android.util.Log;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 唯一負責重連的狀態機。退避採用 decorrelated jitter：
+ * sleep = min(cap, random(base, prevSleep * 3))，網路恢復時重置。
+ * 所有狀態轉換都在自己的執行緒上進行，不佔用主執行緒。
+ */
+public class ReconnectController {
+    private static final String TAG = "ReconnectController";
+    private static final long BASE_DELAY_MS = 1000;
+    private static final long MAX_DELAY_MS = 30000;
+
+    public enum State {
+        DISCONNECTED,
+        CONNECTING,
+        CONNECTED,
+        BACKOFF,
+        WAITING_FOR_NETWORK
+    }
+
+    public interface Connector {
+        void connect();
+    }
+
+    private final Connector connector;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "socket-reconnect");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile State state = State.DISCONNECTED;
+    private volatile int attempt = 0;
+    private final AtomicLong totalAttempts = new AtomicLong();
+    private long lastDelayMs = BASE_DELAY_MS;
+    private boolean networkAvailable = true;
+    private ScheduledFuture<?> pendingRetry;
+
+    public ReconnectController(Connector connector) {
+        this.connector = connector;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // 目前這一輪斷線後的嘗試次數，連上後歸零
+    public int getAttempt() {
+        return attempt;
+    }
+
+    public long getTotalAttempts() {
+        return totalAttempts.get();
+    }
+
+    /** 要求連線；已在連線、已連上或正在退避時不做任何事，避免各 Activity 重複觸發。 */
+    public void requestConnect() {
+        executor.execute(() -> {
+            if (state == State.DISCONNECTED) {
+                connectNow();
+            }
+        });
+    }
+
+    public void onConnected() {
+        executor.execute(() -> {
+            cancelRetry();
+            state = State.CONNECTED;
+            attempt = 0;
+            lastDelayMs = BASE_DELAY_MS;
+            Log.d(TAG, "Connected");
+        });
+    }
+
+    public void onConnectionLost() {
+        executor.execute(() -> {
+            if (state == State.DISCONNECTED || state == State.BACKOFF) return;
+            if (!networkAvailable) {
+                state = State.WAITING_FOR_NETWORK;
+                Log.d(TAG, "Connection lost while offline, waiting for network");
+                return;
+            }
+            scheduleRetry();
+        });
+    }
+
+    public void onNetworkAvailable() {
+        executor.execute(() -> {
+            networkAvailable = true;
+            if (state == State.BACKOFF || state == State.WAITING_FOR_NETWORK) {
+                Log.d(TAG, "Network available, resetting backoff");
+                cancelRetry();
+                attempt = 0;
+                lastDelayMs = BASE_DELAY_MS;
+                connectNow();
+            }
+        });
+    }
+
+    public void onNetworkLost() {
+        executor.execute(() -> {
+            networkAvailable = false;
+            if (state == State.BACKOFF) {
+                cancelRetry();
+                state = State.WAITING_FOR_NETWORK;
+            }
+        });
+    }
+
+    /** 主動換線（例如切換伺服器）後立即重新連線，不經過退避。 */
+    public void reconnectNow() {
+        executor.execute(() -> {
+            cancelRetry();
+            attempt = 0;
+            lastDelayMs = BASE_DELAY_MS;
+            connectNow();
+        });
+    }
+
+    /** 使用者主動斷線，不再自動重連。 */
+    public void stop() {
+        executor.execute(() -> {
+            cancelRetry();
+            state = State.DISCONNECTED;
+        });
+    }
+
+    private void connectNow() {
+        state = State.CONNECTING;
+        attempt++;
+        totalAttempts.incrementAndGet();
+        Log.d(TAG, "Connecting (attempt " + attempt + ")");
+        connector.connect();
+    }
+
+    private void scheduleRetry() {
+        long delay = Math.min(MAX_DELAY_MS, ThreadLocalRandom.current().nextLong(BASE_DELAY_MS, lastDelayMs * 3 + 1));
+        lastDelayMs = delay;
+        state = State.BACKOFF;
+        Log.d(TAG, "Reconnecting in " + delay + "ms (attempt " + (attempt + 1) + ")");
+        pendingRetry = executor.schedule(() -> {
+            pendingRetry = null;
+            if (state == State.BACKOFF) {
+                connectNow();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelRetry() {
+        if (pendingRetry != null) {
+            pendingRetry.cancel(false);
+            pendingRetry = null;
+        }
+    }
+}
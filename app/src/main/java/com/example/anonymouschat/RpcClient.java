@@ -0,0 +1,437 @@
+package com.example.anonymouschat;
+
+import android.util.Log;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 以 socket 事件實作的請求/回應呼叫。每個請求帶 requestId，伺服器在回應事件中原樣帶回；
+ * 舊版伺服器不帶 requestId 時，依送出順序對應同一回應事件中最早的請求。
+ * 所有逾時與重試都由同一個排程執行緒處理，相同的請求在進行中時只會送出一次。
+ * 重試沿用同一個 requestId，但要伺服器依 requestId 去重才不會重複執行；
+ * 伺服器不保證這點的請求（好友請求、加入群組）應以 maxAttempts = 1 呼叫。
+ */
+public class RpcClient {
+    private static final String TAG = "RpcClient";
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_ATTEMPTS = 3;
+
+    public interface Transport {
+        boolean isConnected();
+
+        void emit(String event, JSONObject payload);
+
+        void listen(String event, ResponseHandler handler);
+    }
+
+    public interface ResponseHandler {
+        void onResponse(JSONObject response);
+    }
+
+    public interface Parser<T> {
+        T parse(JSONObject response) throws Exception;
+    }
+
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        void onFailure(Exception e);
+    }
+
+    /** 伺服器回應 success=false。 */
+    public static class RemoteException extends Exception {
+        public RemoteException(String message) {
+            super(message);
+        }
+    }
+
+    private static final Parser<JSONObject> SUCCESS_OR_THROW = response -> {
+        if (!response.optBoolean("success", false)) {
+            throw new RemoteException(response.optString("message", ""));
+        }
+        return response;
+    };
+
+    /** 每次回傳同一個實例，相同的呼叫可以合併。 */
+    public static Parser<JSONObject> successOrThrow() {
+        return SUCCESS_OR_THROW;
+    }
+
+    private final Transport transport;
+    private final Executor callbackExecutor;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rpc-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Object lock = new Object();
+    // responseEvent -> 進行中的請求（依送出順序）
+    private final Map<String, LinkedHashMap<String, Call<?>>> pending = new ConcurrentHashMap<>();
+    // event + payload -> 進行中的請求，用來合併重複的呼叫
+    private final Map<String, Call<?>> inFlightByKey = new ConcurrentHashMap<>();
+    private final Set<String> listening = ConcurrentHashMap.newKeySet();
+
+    public RpcClient(Transport transport, Executor callbackExecutor) {
+        this.transport = transport;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public <T> RpcFuture<T> call(String event, String responseEvent, JSONObject payload, Parser<T> parser) {
+        return call(event, responseEvent, payload, parser, DEFAULT_TIMEOUT_MS, DEFAULT_ATTEMPTS);
+    }
+
+    /**
+     * 只有 event、payload 與 parser 實例都相同的進行中呼叫會合併，parser 應保存在欄位中重複使用。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> RpcFuture<T> call(String event, String responseEvent, JSONObject payload, Parser<T> parser,
+                                 long timeoutMs, int maxAttempts) {
+        // 解析方式不同的呼叫不能共用結果，parser 也是合併的條件之一
+        String key = event + "|" + payload.toString() + "|" + System.identityHashCode(parser);
+        Call<T> call;
+        RpcFuture<T> future;
+        synchronized (lock) {
+            Call<?> existing = inFlightByKey.get(key);
+            if (existing != null && existing.parser == parser) {
+                Log.d(TAG, "Joining in-flight " + event + " request " + existing.requestId);
+                // 同一個 parser 解析出的結果型別相同
+                return ((Call<T>) existing).join();
+            }
+            call = new Call<>(UUID.randomUUID().toString(), event, responseEvent, key, payload, parser, timeoutMs, Math.max(1, maxAttempts));
+            if (existing == null) {
+                inFlightByKey.put(key, call);
+            }
+            pending.computeIfAbsent(responseEvent, k -> new LinkedHashMap<>()).put(call.requestId, call);
+            future = call.join();
+        }
+        ensureListening(responseEvent);
+        try {
+            payload.put("requestId", call.requestId);
+        } catch (Exception e) {
+            finish(call);
+            call.fail(e);
+            return future;
+        }
+        send(call);
+        return future;
+    }
+
+    private void ensureListening(String responseEvent) {
+        if (listening.add(responseEvent)) {
+            transport.listen(responseEvent, response -> onResponse(responseEvent, response));
+        }
+    }
+
+    private void send(Call<?> call) {
+        synchronized (lock) {
+            if (call.done) return;
+            call.attempt++;
+            call.emitted = transport.isConnected();
+            if (call.emitted) {
+                Log.d(TAG, "Sending " + call.event + " " + call.requestId + " (attempt " + call.attempt + "/" + call.maxAttempts + ")");
+                transport.emit(call.event, call.payload);
+            } else {
+                Log.w(TAG, "Not connected, " + call.event + " deferred until connected");
+            }
+            int attempt = call.attempt;
+            call.deadline = timer.schedule(() -> onDeadline(call, attempt), call.timeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** 連線建立後立即送出離線期間延後的請求，不必等到逾時。 */
+    public void onConnected() {
+        synchronized (lock) {
+            for (LinkedHashMap<String, Call<?>> calls : pending.values()) {
+                for (Call<?> call : calls.values()) {
+                    if (!call.emitted && !call.done) {
+                        call.emitted = true;
+                        Log.d(TAG, "Connected, sending deferred " + call.event + " " + call.requestId);
+                        transport.emit(call.event, call.payload);
+                    }
+                }
+            }
+        }
+    }
+
+    private void onDeadline(Call<?> call, int attempt) {
+        synchronized (lock) {
+            if (call.done || call.attempt != attempt) return;
+            if (attempt < call.maxAttempts) {
+                Log.w(TAG, call.event + " timed out, retrying (attempt " + (attempt + 1) + "/" + call.maxAttempts + ")");
+            }
+        }
+        if (attempt < call.maxAttempts) {
+            // 重試沿用同一個 requestId，伺服器可據此忽略重複請求，前一次的遲到回應也仍有效
+            send(call);
+        } else {
+            finish(call);
+            call.fail(new TimeoutException(call.event + " timed out after " + attempt + " attempts"));
+        }
+    }
+
+    private void onResponse(String responseEvent, JSONObject response) {
+        Call<?> call;
+        synchronized (lock) {
+            LinkedHashMap<String, Call<?>> calls = pending.get(responseEvent);
+            if (calls == null || calls.isEmpty()) {
+                Log.d(TAG, "Dropping unsolicited " + responseEvent);
+                return;
+            }
+            String requestId = response.optString("requestId", null);
+            if (requestId != null) {
+                call = calls.get(requestId);
+                if (call == null) {
+                    Log.d(TAG, "Dropping stale " + responseEvent + " for " + requestId);
+                    return;
+                }
+            } else {
+                call = calls.values().iterator().next();
+            }
+        }
+        finish(call);
+        call.complete(response);
+    }
+
+    private void finish(Call<?> call) {
+        synchronized (lock) {
+            call.done = true;
+            inFlightByKey.remove(call.key, call);
+            LinkedHashMap<String, Call<?>> calls = pending.get(call.responseEvent);
+            if (calls != null) {
+                calls.remove(call.requestId);
+            }
+            if (call.deadline != null) {
+                call.deadline.cancel(false);
+                call.deadline = null;
+            }
+        }
+    }
+
+    int pendingCount() {
+        synchronized (lock) {
+            int count = 0;
+            for (LinkedHashMap<String, Call<?>> calls : pending.values()) {
+                count += calls.size();
+            }
+            return count;
+        }
+    }
+
+    private class Call<T> {
+        final String requestId;
+        final String event;
+        final String responseEvent;
+        final String key;
+        final JSONObject payload;
+        final Parser<T> parser;
+        final long timeoutMs;
+        final int maxAttempts;
+        // 每個呼叫端各自的結果，取消其中一個不影響其他呼叫端
+        final List<RpcFuture<T>> futures = new ArrayList<>();
+        int attempt = 0;
+        boolean emitted;
+        // 已收到回應、逾時或全部呼叫端都已取消；在 lock 內讀寫
+        boolean done;
+        ScheduledFuture<?> deadline;
+
+        Call(String requestId, String event, String responseEvent, String key, JSONObject payload, Parser<T> parser,
+             long timeoutMs, int maxAttempts) {
+            this.requestId = requestId;
+            this.event = event;
+            this.responseEvent = responseEvent;
+            this.key = key;
+            this.payload = payload;
+            this.parser = parser;
+            this.timeoutMs = timeoutMs;
+            this.maxAttempts = maxAttempts;
+        }
+
+        // 須在 lock 內呼叫
+        @SuppressWarnings("unchecked")
+        RpcFuture<T> join() {
+            RpcFuture<T>[] holder = new RpcFuture[1];
+            holder[0] = new RpcFuture<>(callbackExecutor, () -> leave(holder[0]));
+            futures.add(holder[0]);
+            return holder[0];
+        }
+
+        // 最後一個呼叫端取消時才停止等待回應與重試
+        private void leave(RpcFuture<T> future) {
+            boolean last;
+            synchronized (lock) {
+                futures.remove(future);
+                last = futures.isEmpty() && !done;
+            }
+            if (last) finish(this);
+        }
+
+        private List<RpcFuture<T>> takeFutures() {
+            synchronized (lock) {
+                List<RpcFuture<T>> all = new ArrayList<>(futures);
+                futures.clear();
+                return all;
+            }
+        }
+
+        void complete(JSONObject response) {
+            List<RpcFuture<T>> all = takeFutures();
+            if (all.isEmpty()) return;
+            T result;
+            try {
+                result = parser.parse(response);
+            } catch (Exception e) {
+                for (RpcFuture<T> future : all) future.fail(e);
+                return;
+            }
+            for (RpcFuture<T> future : all) future.complete(result);
+        }
+
+        void fail(Exception e) {
+            for (RpcFuture<T> future : takeFutures()) future.fail(e);
+        }
+    }
+
+    /**
+     * 呼叫結果。回呼在建立 RpcClient 時指定的執行緒上執行，每個回呼最多執行一次。
+     * minSdk 21 沒有 CompletableFuture，因此自行實作。
+     */
+    public static class RpcFuture<T> {
+        private final Executor callbackExecutor;
+        private final Runnable onCancel;
+        private final List<Callback<T>> callbacks = new ArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private T result;
+        private Exception error;
+        private boolean completed;
+
+        RpcFuture(Executor callbackExecutor, Runnable onCancel) {
+            this.callbackExecutor = callbackExecutor;
+            this.onCancel = onCancel;
+        }
+
+        public RpcFuture<T> then(Callback<T> callback) {
+            synchronized (this) {
+                if (!completed) {
+                    callbacks.add(callback);
+                    return this;
+                }
+            }
+            dispatch(callback);
+            return this;
+        }
+
+        /** owner 銷毀時自動取消，已取消的呼叫不會再執行任何回呼。須在主執行緒呼叫。 */
+        public RpcFuture<T> bindTo(LifecycleOwner owner) {
+            Lifecycle lifecycle = owner.getLifecycle();
+            if (lifecycle.getCurrentState() == Lifecycle.State.DESTROYED) {
+                cancel();
+                return this;
+            }
+            lifecycle.addObserver(new LifecycleEventObserver() {
+                @Override
+                public void onStateChanged(LifecycleOwner source, Lifecycle.Event event) {
+                    if (event == Lifecycle.Event.ON_DESTROY) {
+                        lifecycle.removeObserver(this);
+                        cancel();
+                    }
+                }
+            });
+            return this;
+        }
+
+        public void cancel() {
+            synchronized (this) {
+                if (completed) return;
+                completed = true;
+                error = new CancellationException();
+                // 取消的呼叫不通知任何回呼
+                callbacks.clear();
+            }
+            done.countDown();
+            onCancel.run();
+        }
+
+        public synchronized boolean isDone() {
+            return completed;
+        }
+
+        public synchronized boolean isCancelled() {
+            return error instanceof CancellationException;
+        }
+
+        void complete(T value) {
+            List<Callback<T>> toRun;
+            synchronized (this) {
+                if (completed) return;
+                completed = true;
+                result = value;
+                toRun = new ArrayList<>(callbacks);
+                callbacks.clear();
+            }
+            done.countDown();
+            for (Callback<T> callback : toRun) {
+                dispatch(callback);
+            }
+        }
+
+        void fail(Exception e) {
+            List<Callback<T>> toRun;
+            synchronized (this) {
+                if (completed) return;
+                completed = true;
+                error = e;
+                toRun = new ArrayList<>(callbacks);
+                callbacks.clear();
+            }
+            done.countDown();
+            for (Callback<T> callback : toRun) {
+                dispatch(callback);
+            }
+        }
+
+        private void dispatch(Callback<T> callback) {
+            callbackExecutor.execute(() -> {
+                T value;
+                Exception e;
+                synchronized (this) {
+                    if (isCancelled()) return;
+                    value = result;
+                    e = error;
+                }
+                if (e != null) {
+                    callback.onFailure(e);
+                } else {
+                    callback.onSuccess(value);
+                }
+            });
+        }
+
+        /** 阻塞等待結果，僅供測試或背景執行緒使用。 */
+        public T get(long timeout, TimeUnit unit) throws Exception {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            synchronized (this) {
+                if (error != null) throw error;
+                return result;
+            }
+        }
+    }
+}
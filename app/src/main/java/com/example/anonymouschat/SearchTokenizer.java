@@ -0,0 +1,86 @@
+package com.example.anonymouschat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把訊息內文切成全文索引用的詞：英數字以連續的字母數字為一詞並轉小寫，
+ * 中日韓文字沒有空白分詞，改用相鄰兩字（bigram），每段的最後一字另外單獨成詞，
+ * 讓單字查詢也能以前綴比對找到。切好的詞以空白相連後交給 SQLite FTS 的 simple 斷詞器。
+ */
+public final class SearchTokenizer {
+
+    private SearchTokenizer() {
+    }
+
+    /** 索引用：回傳以空白分隔的詞。 */
+    public static String tokenize(String text) {
+        StringBuilder out = new StringBuilder(text == null ? 0 : text.length() * 3);
+        for (String token : tokens(text, true)) {
+            if (out.length() > 0) out.append(' ');
+            out.append(token);
+        }
+        return out.toString();
+    }
+
+    /**
+     * 查詢用：回傳 FTS MATCH 運算式，查詢字串中的詞必須依序相鄰（片語比對），最後一詞可為前綴。
+     * 沒有可查詢的詞時回傳 null。
+     */
+    public static String matchQuery(String query) {
+        List<String> tokens = tokens(query, false);
+        if (tokens.isEmpty()) return null;
+        StringBuilder out = new StringBuilder("\"");
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i > 0) out.append(' ');
+            out.append(tokens.get(i));
+        }
+        // 使用者還在輸入時最後一詞通常不完整；中文單字也要靠前綴比對到以它開頭的 bigram
+        String last = tokens.get(tokens.size() - 1);
+        if (!isCjk(last.charAt(0)) || last.length() == 1) {
+            out.append('*');
+        }
+        return out.append('"').toString();
+    }
+
+    static List<String> tokens(String text, boolean forIndex) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+        int length = text.length();
+        int i = 0;
+        boolean endsWithTrailingChar = false;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                int start = i;
+                while (i < length && isCjk(text.charAt(i))) i++;
+                for (int j = start; j + 1 < i; j++) {
+                    tokens.add(text.substring(j, j + 2));
+                }
+                tokens.add(text.substring(i - 1, i));
+                endsWithTrailingChar = i - start > 1;
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < length && Character.isLetterOrDigit(text.charAt(i)) && !isCjk(text.charAt(i))) i++;
+                tokens.add(text.substring(start, i).toLowerCase());
+                endsWithTrailingChar = false;
+            } else {
+                i++;
+            }
+        }
+        // 查詢的最後一段中文之後，訊息內文可能還有字，那裡不會有單字詞，去掉才能與內文相鄰比對
+        if (!forIndex && endsWithTrailingChar) {
+            tokens.remove(tokens.size() - 1);
+        }
+        return tokens;
+    }
+
+    // 中日韓統一表意文字（含擴充 A 與相容字）、平假名、片假名、韓文音節
+    static boolean isCjk(char c) {
+        return (c >= 0x3040 && c <= 0x30FF)
+                || (c >= 0x3400 && c <= 0x4DBF)
+                || (c >= 0x4E00 && c <= 0x9FFF)
+                || (c >= 0xAC00 && c <= 0xD7AF)
+                || (c >= 0xF900 && c <= 0xFAFF);
+    }
+}
@@ -1,25 +1,214 @@
 package com.example.anonymouschat;
 
 import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import io.socket.client.Ack;
 import io.socket.client.IO;
 import io.socket.client.Socket;
+import io.socket.emitter.Emitter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SocketManager {
     private static final String TAG = "SocketManager";
+    // 閒置這麼久才允許切換到較快的伺服器，避免打斷進行中的對話
+    private static final long IDLE_BEFORE_SWITCH_MS = 60000;
+    private static final long REPROBE_INTERVAL_MS = 5 * 60 * 1000;
+    // 須小於 ChatViewModel.PAGE_SIZE，最新一頁才會在解析完之前先顯示一部分
+    public static final int HISTORY_CHUNK_SIZE = 20;
+    // 一則 JSON 訊息中欄位名稱、引號與時間等固定部分的大約位元組數
+    private static final int JSON_MESSAGE_OVERHEAD_BYTES = 90;
     private static SocketManager instance;
-    private Socket socket;
+    private volatile Socket socket;
+    private IO.Options socketOptions;
+    private EndpointSelector endpointSelector;
+    // 由 switchSocket 在重連執行緒寫入，socket 與量測執行緒會讀取
+    private volatile String currentEndpoint;
+    private volatile long lastActivityAt;
     private Context context;
-    private List<JSONObject> messageQueue = new ArrayList<>();
-    private static final int MAX_RECONNECT_ATTEMPTS = 10;
-    private static final long INITIAL_RECONNECT_DELAY = 1000; // 初始重連延遲 1 秒
-    private int reconnectAttempts = 0;
+    private Outbox outbox;
+    private BatchingTransport batchingTransport;
+    private final Map<String, SendCallback> sendCallbacks = new ConcurrentHashMap<>();
+    private ReconnectController reconnectController;
+    private RpcClient rpcClient;
+    private final ConnectionStats connectionStats = new ConnectionStats();
+    private Heartbeat heartbeat;
+    // chatId -> 訂閱者，每則訊息只解析一次再直接分派給該聊天室
+    private final Map<String, List<ChatEventListener>> chatSubscribers = new ConcurrentHashMap<>();
+    // 接收所有聊天室事件的訂閱者（MessageRepository）
+    private final List<ChatEventListener> allChatSubscribers = new CopyOnWriteArrayList<>();
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final MessageCodec JSON_CODEC = new JsonMessageCodec();
+    private static final MessageCodec MSGPACK_CODEC = new MsgPackMessageCodec();
+    private volatile MessageCodec codec = JSON_CODEC;
+    private final HistoryMetrics historyMetrics = new HistoryMetrics();
+    // 重連後替開啟中的聊天室補上斷線期間漏掉的訊息
+    private final GapFiller gapFiller = new GapFiller(new GapFiller.Requester() {
+        @Override
+        public void requestAfter(String chatId, long after, int limit) {
+            requestHistoryAfter(chatId, after, limit, new PageCallback() {
+                @Override
+                void onPage(MessageCodec.HistoryPage page, long wireBytes) {
+                    GapFiller.Listener listener = gapFiller.listener(chatId);
+                    if (listener != null) listener.onGapPage(page);
+                }
+            });
+        }
+
+        @Override
+        public void requestLatest(String chatId, int limit) {
+            requestLatestHistory(chatId, limit, new PageCallback() {
+                @Override
+                void onPage(MessageCodec.HistoryPage page, long wireBytes) {
+                    GapFiller.Listener listener = gapFiller.listener(chatId);
+                    if (listener != null) listener.onLatestPage(page);
+                }
+            });
+        }
+    });
+    // 送出中的 getChatHistory 請求，回應依 requestId 交給送出的一方
+    private final HistoryRequests historyRequests = new HistoryRequests();
+    static final long HISTORY_REQUEST_TIMEOUT_MS = 10000;
+    // 歷史紀錄的解壓縮與解析不佔用 socket 執行緒
+    private final ExecutorService historyExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "history-decode");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService prefetchExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "history-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+    // 連線閒置時替最近的聊天室預先抓取最新一頁歷史紀錄
+    private HistoryPrefetcher prefetcher;
+    // chatId -> 點擊聊天室時送出、等待 ChatViewModel 接手的請求；完成後保留到逾時，畫面較晚建立時仍可取用
+    private final Map<String, PendingHistory> pendingHistory = new ConcurrentHashMap<>();
+    static final long HISTORY_HANDOFF_TIMEOUT_MS = 10000;
+
+    public interface SendCallback {
+        void onSent(String clientMsgId, long latencyMs);
+
+        void onFailed(String clientMsgId);
+    }
+
+    public static class ChatEvent {
+        public final String event;
+        public final JSONObject data;
+
+        ChatEvent(String event, JSONObject data) {
+            this.event = event;
+            this.data = data;
+        }
+    }
+
+    public interface HistoryCallback {
+        // 解析途中每 HISTORY_CHUNK_SIZE 則呼叫一次，之後仍會以完整的一頁呼叫 onHistory
+        void onChunk(List<Message> chunk);
+
+        void onHistory(MessageCodec.HistoryPage page);
+
+        void onError(Exception e);
+    }
+
+    // SocketManager 自己送出的請求：不需要分段，並取得這則回應實際收到的位元組數；失敗時只記錄
+    private abstract static class PageCallback implements HistoryCallback {
+        abstract void onPage(MessageCodec.HistoryPage page, long wireBytes);
+
+        @Override
+        public void onChunk(List<Message> chunk) {
+        }
+
+        @Override
+        public final void onHistory(MessageCodec.HistoryPage page) {
+            onPage(page, -1);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            Log.w(TAG, "History request failed: " + e.getMessage());
+        }
+    }
+
+    public interface ChatEventListener {
+        // 同一批次中屬於同一聊天室的事件會一次送達
+        void onChatEvents(String chatId, List<ChatEvent> events);
+    }
+
+    /**
+     * 單一事件監聽的訂閱憑證，unsubscribe() 只會移除自己註冊的那個監聽器，
+     * 不影響其他畫面對同一事件的監聽。
+     */
+    public class Subscription {
+        private final String event;
+        private final Emitter.Listener socketListener;
+        private LifecycleEventObserver lifecycleObserver;
+        private Lifecycle lifecycle;
+        private volatile boolean active = true;
+
+        Subscription(String event, Emitter.Listener socketListener) {
+            this.event = event;
+            this.socketListener = socketListener;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void unsubscribe() {
+            if (!active) return;
+            active = false;
+            subscriptions.remove(this);
+            if (socket != null) {
+                socket.off(event, socketListener);
+            }
+            if (lifecycle != null && lifecycleObserver != null) {
+                Lifecycle l = lifecycle;
+                LifecycleEventObserver o = lifecycleObserver;
+                lifecycle = null;
+                lifecycleObserver = null;
+                if (Looper.myLooper() == Looper.getMainLooper()) {
+                    l.removeObserver(o);
+                } else {
+                    mainHandler.post(() -> l.removeObserver(o));
+                }
+            }
+            Log.d(TAG, "Unsubscribed from " + event);
+        }
+    }
 
     private SocketManager(Context context) {
         this.context = context.getApplicationContext();
@@ -27,21 +216,113 @@ public class SocketManager {
             // 配置 Socket.IO 選項，優先使用 WebSocket
             IO.Options options = new IO.Options();
             options.transports = new String[]{"websocket"}; // 優先使用 WebSocket
-            options.reconnection = true;
-            options.reconnectionAttempts = MAX_RECONNECT_ATTEMPTS;
-            options.reconnectionDelay = INITIAL_RECONNECT_DELAY;
+            // 重連完全交由 ReconnectController 處理，避免與函式庫內建的重連互相競爭
+            options.reconnection = false;
             options.forceNew = false;
 
-            socket = IO.socket("https://anonymous-chat-server-d43x.onrender.com", options);
+            socketOptions = options;
+
+            endpointSelector = new EndpointSelector(Arrays.asList(this.context.getResources().getStringArray(R.array.server_endpoints)));
+            currentEndpoint = endpointSelector.current();
+            socket = IO.socket(currentEndpoint, options);
+            batchingTransport = new BatchingTransport(new Outbox.Transport() {
+                @Override
+                public boolean isConnected() {
+                    return SocketManager.this.isConnected();
+                }
+
+                @Override
+                public void emit(String id, String event, String payload, Runnable onAck) {
+                    try {
+                        socket.emit(event, new Object[]{codec.encode(new JSONObject(payload))}, (Ack) ackArgs -> onAck.run());
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to emit outbox message " + id + ": " + e.getMessage(), e);
+                    }
+                }
+            });
+            outbox = new Outbox(openOutboxJournal(), batchingTransport);
+            outbox.setListener(new Outbox.Listener() {
+                @Override
+                public void onAcked(String id, long latencyMs) {
+                    Log.d(TAG, "Message " + id + " acknowledged in " + latencyMs + "ms");
+                    SendCallback callback = sendCallbacks.remove(id);
+                    if (callback != null) {
+                        callback.onSent(id, latencyMs);
+                    }
+                }
+
+                @Override
+                public void onAckTimeout(String id) {
+                    // 訊息仍留在 outbox 中重送，之後確認時還要通知，所以不移除；畫面關閉時由 removeSendCallback 清掉
+                    SendCallback callback = sendCallbacks.get(id);
+                    if (callback != null) {
+                        callback.onFailed(id);
+                    }
+                }
+            });
+            rpcClient = new RpcClient(new RpcClient.Transport() {
+                @Override
+                public boolean isConnected() {
+                    return SocketManager.this.isConnected();
+                }
+
+                @Override
+                public void emit(String event, JSONObject payload) {
+                    socket.emit(event, payload);
+                }
+
+                @Override
+                public void listen(String event, RpcClient.ResponseHandler handler) {
+                    subscribe(event, args -> {
+                        if (args == null || args.length == 0) return;
+                        try {
+                            handler.onResponse(decodePayload(args[0]));
+                        } catch (IOException e) {
+                            Log.e(TAG, "Failed to decode " + event + ": " + e.getMessage(), e);
+                        }
+                    });
+                }
+            }, mainHandler::post);
+            reconnectController = new ReconnectController(() -> {
+                connectionStats.onConnectAttempt();
+                String target = endpointSelector.current();
+                if (!target.equals(currentEndpoint)) {
+                    switchSocket(target);
+                }
+                socket.connect();
+            });
+            heartbeat = new Heartbeat((seq, onPong) -> {
+                JSONObject ping = new JSONObject();
+                ping.put("seq", seq);
+                socket.emit("appPing", new Object[]{ping}, (Ack) args -> onPong.run());
+            }, connectionStats, Heartbeat.DEFAULT_INTERVAL_MS);
+            prefetcher = createPrefetcher();
             setupSocketListeners();
-            socket.connect();
-            Log.d(TAG, "Socket initialized and connected");
+            registerNetworkCallback();
+            if (endpointSelector.size() > 1) {
+                // 先量測各伺服器再連線，避免第一次就連到冷啟動中的主機
+                endpointSelector.probeAsync(best -> reconnectController.requestConnect());
+                endpointSelector.startPeriodicProbe(REPROBE_INTERVAL_MS, this::onEndpointsProbed);
+            } else {
+                reconnectController.requestConnect();
+            }
+            Log.d(TAG, "Socket initialized and connecting");
         } catch (URISyntaxException e) {
             e.printStackTrace();
             Log.e(TAG, "Socket initialization failed: " + e.getMessage());
         }
     }
 
+    // 日誌檔無法開啟時改用只存在記憶體中的日誌，連線與發送仍照常運作，只是程式結束後不會重送
+    private OutboxJournal openOutboxJournal() {
+        try {
+            return new OutboxJournal(new File(context.getFilesDir(), "outbox.journal"));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open outbox journal, pending messages will not survive a restart: " + e.getMessage(), e);
+            return OutboxJournal.inMemory();
+        }
+    }
+
     public static synchronized SocketManager getInstance(Context context) {
         if (instance == null) {
             instance = new SocketManager(context);
@@ -52,34 +333,549 @@ public class SocketManager {
     private void setupSocketListeners() {
         socket.on(Socket.EVENT_CONNECT, args -> {
             Log.d(TAG, "Socket connected");
-            reconnectAttempts = 0; // 重置重連次數
-            synchronized (messageQueue) {
-                for (JSONObject data : new ArrayList<>(messageQueue)) {
-                    socket.emit(data.optString("event"), data);
-                }
-                messageQueue.clear();
-            }
+            connectionStats.onConnected();
+            endpointSelector.reportSuccess(currentEndpoint);
+            reconnectController.onConnected();
+            codec = JSON_CODEC;
+            negotiateCodec();
+            outbox.onConnected();
+            rpcClient.onConnected();
+            gapFiller.onConnected();
+            heartbeat.start();
         });
 
         socket.on(Socket.EVENT_DISCONNECT, args -> {
-            Log.w(TAG, "Socket disconnected: " + args[0]);
+            String reason = args.length > 0 ? String.valueOf(args[0]) : "";
+            Log.w(TAG, "Socket disconnected: " + reason);
+            connectionStats.onDisconnected();
+            heartbeat.stop();
+            outbox.onDisconnected();
+            if (!"io client disconnect".equals(reason)) {
+                reconnectController.onConnectionLost();
+            }
         });
 
         socket.on(Socket.EVENT_CONNECT_ERROR, args -> {
-            Log.e(TAG, "Socket connection error: " + args[0]);
-            if (reconnectAttempts < MAX_RECONNECT_ATTEMPTS) {
-                long delay = INITIAL_RECONNECT_DELAY * (1L << reconnectAttempts); // 指數退避
-                Log.d(TAG, "Attempting to reconnect in " + delay + "ms (Attempt " + (reconnectAttempts + 1) + ")");
-                new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                    socket.connect();
-                    reconnectAttempts++;
-                }, delay);
+            Log.e(TAG, "Socket connection error: " + (args.length > 0 ? args[0] : ""));
+            connectionStats.onConnectError();
+            endpointSelector.reportFailure(currentEndpoint);
+            reconnectController.onConnectionLost();
+        });
+
+        socket.on("chatMessage", args -> dispatchChatEvent("chatMessage", args));
+        socket.on("groupMessage", args -> dispatchChatEvent("groupMessage", args));
+        socket.on(BatchingTransport.BATCH_EVENT, this::dispatchChatBatch);
+        socket.on("getChatHistoryResponse", this::onHistoryResponse);
+    }
+
+    /**
+     * 在 owner 存活期間監聽 event，回呼在主執行緒執行，owner 銷毀（ON_DESTROY）時自動取消，
+     * 因此呼叫端不必自行 unsubscribe()，socket 也不會在畫面銷毀後繼續持有 listener。須在主執行緒呼叫。
+     */
+    public Subscription subscribe(LifecycleOwner owner, String event, Emitter.Listener listener) {
+        Lifecycle lifecycle = owner.getLifecycle();
+        Subscription[] holder = new Subscription[1];
+        Emitter.Listener socketListener = args -> mainHandler.post(() -> {
+            // 取消後才輪到的回呼不再執行
+            if (holder[0].isActive()) {
+                listener.call(args);
+            }
+        });
+        Subscription subscription = new Subscription(event, socketListener);
+        holder[0] = subscription;
+        if (lifecycle.getCurrentState() == Lifecycle.State.DESTROYED) {
+            subscription.active = false;
+            return subscription;
+        }
+        subscription.lifecycle = lifecycle;
+        subscription.lifecycleObserver = (source, e) -> {
+            if (e == Lifecycle.Event.ON_DESTROY) {
+                subscription.unsubscribe();
+            }
+        };
+        lifecycle.addObserver(subscription.lifecycleObserver);
+        attach(subscription);
+        return subscription;
+    }
+
+    /** 不綁定生命週期的訂閱，回呼在 socket 執行緒執行，呼叫端需自行 unsubscribe()。 */
+    public Subscription subscribe(String event, Emitter.Listener listener) {
+        Subscription subscription = new Subscription(event, listener);
+        attach(subscription);
+        return subscription;
+    }
+
+    // 與 switchSocket 互斥，確保換線時不會漏掉剛加入的訂閱
+    private synchronized void attach(Subscription subscription) {
+        subscriptions.add(subscription);
+        socket.on(subscription.event, subscription.socketListener);
+    }
+
+    /** 換到另一個伺服器：建立新的 socket，重新掛上內部監聽器與所有仍有效的訂閱。 */
+    private synchronized void switchSocket(String url) {
+        Socket next;
+        try {
+            next = IO.socket(url, socketOptions);
+        } catch (URISyntaxException e) {
+            Log.e(TAG, "Invalid endpoint " + url + ": " + e.getMessage(), e);
+            return;
+        }
+        Socket old = socket;
+        old.off();
+        if (old.connected()) {
+            heartbeat.stop();
+            outbox.onDisconnected();
+        }
+        old.disconnect();
+        socket = next;
+        currentEndpoint = url;
+        setupSocketListeners();
+        for (Subscription subscription : subscriptions) {
+            socket.on(subscription.event, subscription.socketListener);
+        }
+        Log.d(TAG, "Switched endpoint to " + url);
+    }
+
+    private void onEndpointsProbed(String best) {
+        boolean idle = SystemClock.elapsedRealtime() - lastActivityAt > IDLE_BEFORE_SWITCH_MS;
+        if (best.equals(currentEndpoint) || !isConnected() || !idle || outbox.pendingCount() > 0) return;
+        Log.d(TAG, "Idle and " + best + " is faster than " + currentEndpoint + ", switching");
+        switchSocket(best);
+        reconnectController.reconnectNow();
+    }
+
+    public List<String> getEndpointRanking() {
+        return endpointSelector != null ? endpointSelector.ranking() : Collections.emptyList();
+    }
+
+    public String getCurrentEndpoint() {
+        return currentEndpoint;
+    }
+
+    private void markActivity() {
+        lastActivityAt = SystemClock.elapsedRealtime();
+    }
+
+    public void subscribeChat(String chatId, ChatEventListener listener) {
+        chatSubscribers.computeIfAbsent(chatId, k -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public void unsubscribeChat(String chatId, ChatEventListener listener) {
+        chatSubscribers.computeIfPresent(chatId, (k, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    /** 訂閱所有聊天室的訊息事件，回呼在 socket 執行緒執行。 */
+    public void subscribeAllChats(ChatEventListener listener) {
+        allChatSubscribers.add(listener);
+    }
+
+    public void unsubscribeAllChats(ChatEventListener listener) {
+        allChatSubscribers.remove(listener);
+    }
+
+    private boolean hasChatSubscribers() {
+        return !chatSubscribers.isEmpty() || !allChatSubscribers.isEmpty();
+    }
+
+    private void dispatchChatEvent(String event, Object[] args) {
+        markActivity();
+        if (!hasChatSubscribers() || args == null || args.length == 0) return;
+        JSONObject data;
+        try {
+            data = decodePayload(args[0]);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to decode " + event + ": " + e.getMessage(), e);
+            return;
+        }
+        String chatId = data.optString("chatId", null);
+        if (chatId == null) {
+            Log.e(TAG, event + " event missing chatId");
+            return;
+        }
+        deliver(chatId, Collections.singletonList(new ChatEvent(event, data)));
+    }
+
+    private void dispatchChatBatch(Object[] args) {
+        markActivity();
+        if (!hasChatSubscribers() || args == null || args.length == 0) return;
+        JSONArray events;
+        try {
+            events = decodePayload(args[0]).optJSONArray("events");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to decode messageBatch: " + e.getMessage(), e);
+            return;
+        }
+        if (events == null) {
+            Log.e(TAG, "messageBatch event missing events array");
+            return;
+        }
+        Map<String, List<ChatEvent>> byChat = new LinkedHashMap<>();
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject item = events.optJSONObject(i);
+            if (item == null) continue;
+            JSONObject data = item.optJSONObject("data");
+            String chatId = data != null ? data.optString("chatId", null) : null;
+            if (chatId == null || (allChatSubscribers.isEmpty() && !chatSubscribers.containsKey(chatId))) continue;
+            byChat.computeIfAbsent(chatId, k -> new ArrayList<>()).add(new ChatEvent(item.optString("event", "chatMessage"), data));
+        }
+        for (Map.Entry<String, List<ChatEvent>> entry : byChat.entrySet()) {
+            deliver(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void deliver(String chatId, List<ChatEvent> events) {
+        for (ChatEventListener listener : allChatSubscribers) {
+            deliver(listener, chatId, events);
+        }
+        List<ChatEventListener> listeners = chatSubscribers.get(chatId);
+        if (listeners == null) return;
+        for (ChatEventListener listener : listeners) {
+            deliver(listener, chatId, events);
+        }
+    }
+
+    private void deliver(ChatEventListener listener, String chatId, List<ChatEvent> events) {
+        try {
+            listener.onChatEvents(chatId, events);
+        } catch (Exception e) {
+            Log.e(TAG, "Chat listener failed for " + chatId + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void negotiateCodec() {
+        try {
+            JSONObject hello = new JSONObject();
+            hello.put("codecs", new JSONArray().put(MsgPackMessageCodec.NAME).put(JsonMessageCodec.NAME));
+            socket.emit("negotiateCodec", new Object[]{hello}, (Ack) args -> {
+                JSONObject reply = args.length > 0 && args[0] instanceof JSONObject ? (JSONObject) args[0] : null;
+                if (reply != null && MsgPackMessageCodec.NAME.equals(reply.optString("codec"))) {
+                    codec = MSGPACK_CODEC;
+                }
+                Log.d(TAG, "Negotiated codec: " + codec.name());
+            });
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to negotiate codec: " + e.getMessage(), e);
+        }
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    // 依封包實際型別選擇解碼方式：二進位為 MessagePack，其餘為 JSON
+    public JSONObject decodePayload(Object wire) throws IOException {
+        return (wire instanceof byte[] ? MSGPACK_CODEC : JSON_CODEC).decode(wire);
+    }
+
+    public MessageCodec.HistoryPage decodeHistory(Object wire) throws IOException {
+        return decodeHistory(wire, null);
+    }
+
+    private MessageCodec.HistoryPage decodeHistory(Object wire, MessageCodec.ChunkListener listener) throws IOException {
+        MessageCodec.HistoryPage page = decodeHistory(wire, HISTORY_CHUNK_SIZE, listener);
+        long wireBytes = wireBytes(wire, page);
+        boolean compressed = HistoryCompression.isCompressed(wire);
+        long rawBytes = compressed ? ((JSONObject) wire).optLong("rawLength", 0) : wireBytes;
+        historyMetrics.onResponse(wireBytes, rawBytes, compressed);
+        return page;
+    }
+
+    /** 解壓縮（如有）並解析一則 getChatHistoryResponse：壓縮的信封、MessagePack 或已由 socket 解析的 JSON。 */
+    static MessageCodec.HistoryPage decodeHistory(Object wire, int chunkSize, MessageCodec.ChunkListener listener) throws IOException {
+        if (HistoryCompression.isCompressed(wire)) {
+            JSONObject envelope = (JSONObject) wire;
+            Object data = envelope.opt("data");
+            if (!(data instanceof byte[])) {
+                throw new IOException("Compressed history missing binary data");
+            }
+            MessageCodec inner = MsgPackMessageCodec.NAME.equals(envelope.optString("codec")) ? MSGPACK_CODEC : JSON_CODEC;
+            try (InputStream in = HistoryCompression.inflate((byte[]) data)) {
+                return inner.decodeHistory(in, chunkSize, listener);
+            }
+        }
+        if (wire instanceof byte[]) {
+            return MSGPACK_CODEC.decodeHistory(wire, chunkSize, listener);
+        }
+        return JSON_CODEC.decodeHistory(wire, chunkSize, listener);
+    }
+
+    /**
+     * 收到的位元組數：壓縮的信封與 MessagePack 取實際的位元組長度。
+     * 未壓縮的 JSON 已由 socket 解析成物件，不再重新序列化，改以解析出的訊息欄位的 UTF-8 長度估計。
+     */
+    static long wireBytes(Object wire, MessageCodec.HistoryPage page) {
+        if (HistoryCompression.isCompressed(wire)) {
+            Object data = ((JSONObject) wire).opt("data");
+            return data instanceof byte[] ? ((byte[]) data).length : 0;
+        }
+        if (wire instanceof byte[]) return ((byte[]) wire).length;
+        long bytes = 0;
+        int chatIdBytes = utf8Length(page.chatId);
+        for (Message m : page.messages) {
+            bytes += JSON_MESSAGE_OVERHEAD_BYTES + chatIdBytes + utf8Length(m.getFromUid()) + utf8Length(m.getText())
+                    + utf8Length(m.getNickname()) + utf8Length(m.getClientMsgId());
+        }
+        return bytes;
+    }
+
+    private static int utf8Length(String s) {
+        if (s == null) return 0;
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /** getChatHistory 請求要附帶的壓縮提議，伺服器依歷史紀錄大小決定是否採用。 */
+    private JSONObject historyCompressionOffer() {
+        try {
+            return HistoryCompression.offer();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to build compression offer: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    public HistoryMetrics getHistoryMetrics() {
+        return historyMetrics;
+    }
+
+    public GapFiller getGapFiller() {
+        return gapFiller;
+    }
+
+    public HistoryPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    private HistoryPrefetcher createPrefetcher() {
+        MessageCache cache = MessageCache.getInstance(context);
+        HistoryPrefetcher.Requester requester = (chatId, limit, response) -> requestLatestHistory(chatId, limit, new PageCallback() {
+            @Override
+            void onPage(MessageCodec.HistoryPage page, long wireBytes) {
+                response.onPage(page, wireBytes);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                response.onError(e);
+            }
+        });
+        return new HistoryPrefetcher(requester, new HistoryPrefetcher.Conditions() {
+            @Override
+            public boolean isIdle() {
+                return isConnected() && outbox.pendingCount() == 0
+                        && SystemClock.elapsedRealtime() - lastActivityAt > HistoryPrefetcher.IDLE_RETRY_MS;
+            }
+
+            @Override
+            public boolean isMetered() {
+                ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+                // 無法判斷時視為計量網路，寧可少抓
+                return cm == null || cm.isActiveNetworkMetered();
+            }
+        }, new HistoryPrefetcher.Store() {
+            @Override
+            public long latestTimestamp(String chatId) {
+                return cache.latestTimestamp(chatId);
+            }
+
+            @Override
+            public void put(String chatId, List<Message> messages) {
+                cache.put(chatId, messages);
+            }
+        }, (task, delayMs) -> prefetchExecutor.schedule(task, delayMs, TimeUnit.MILLISECONDS), Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * 使用者點擊聊天室時呼叫，不等 ChatActivity 建立就先送出最新一頁的請求，由開啟後的 ChatViewModel 以
+     * takePendingHistory 接手。同一聊天室已有進行中的請求時直接沿用。須在主執行緒呼叫。
+     */
+    public PendingHistory startHistoryRequest(String chatId) {
+        PendingHistory existing = pendingHistory.get(chatId);
+        if (existing != null && !existing.isDone()) return existing;
+        PendingHistory pending = new PendingHistory(chatId, System.currentTimeMillis());
+        pendingHistory.put(chatId, pending);
+        historyMetrics.onRequest(chatId);
+        requestLatestHistory(chatId, ChatViewModel.PAGE_SIZE, new HistoryCallback() {
+            @Override
+            public void onChunk(List<Message> chunk) {
+                pending.chunk(chunk);
+            }
+
+            @Override
+            public void onHistory(MessageCodec.HistoryPage page) {
+                if (pending.complete(page)) {
+                    Log.d(TAG, "History started on tap for " + chatId + " arrived after "
+                            + (System.currentTimeMillis() - pending.getRequestedAt()) + "ms");
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (pending.fail(e)) {
+                    Log.w(TAG, "History request started on tap for " + chatId + " failed: " + e.getMessage());
+                }
+            }
+        });
+        // 完成的結果保留到這時，畫面較晚建立時仍可取用；之後 ChatViewModel 自行請求
+        mainHandler.postDelayed(() -> pendingHistory.remove(chatId, pending), HISTORY_HANDOFF_TIMEOUT_MS);
+        Log.d(TAG, "Started history request on tap for " + chatId);
+        return pending;
+    }
+
+    /** 取出點擊時送出的請求；沒有或已逾時時回傳 null，呼叫端需自行請求。 */
+    public PendingHistory takePendingHistory(String chatId) {
+        return pendingHistory.remove(chatId);
+    }
+
+    private void requestLatestHistory(String chatId, int limit, HistoryCallback callback) {
+        try {
+            JSONObject request = new JSONObject();
+            request.put("chatId", chatId);
+            request.put("limit", limit);
+            requestHistory(request, callback);
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to request latest history for " + chatId + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void requestHistoryAfter(String chatId, long after, int limit, HistoryCallback callback) {
+        try {
+            JSONObject request = new JSONObject();
+            request.put("chatId", chatId);
+            request.put("after", after);
+            request.put("limit", limit);
+            requestHistory(request, callback);
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to request missed messages for " + chatId + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 送出一個 getChatHistory 請求並附上 requestId 與壓縮提議。回應只交給這個 callback，
+     * 在解析歷史紀錄的背景執行緒上回呼；HISTORY_REQUEST_TIMEOUT_MS 內沒有回應時呼叫 onError。
+     * 回傳 requestId，可用 cancelHistoryRequest 取消。
+     */
+    public String requestHistory(JSONObject request, HistoryCallback callback) {
+        String requestId = historyRequests.add(callback);
+        try {
+            request.put("requestId", requestId);
+            JSONObject compression = historyCompressionOffer();
+            if (compression != null) {
+                request.put("compression", compression);
+            }
+        } catch (JSONException e) {
+            historyRequests.remove(requestId);
+            historyExecutor.execute(() -> callback.onError(e));
+            return requestId;
+        }
+        socket.emit("getChatHistory", request);
+        mainHandler.postDelayed(() -> {
+            HistoryCallback timedOut = historyRequests.remove(requestId);
+            if (timedOut != null) {
+                historyExecutor.execute(() -> timedOut.onError(new TimeoutException("getChatHistory " + requestId + " timed out")));
+            }
+        }, HISTORY_REQUEST_TIMEOUT_MS);
+        return requestId;
+    }
+
+    /** 不再需要結果時呼叫，之後到達的回應不會被解析。 */
+    public void cancelHistoryRequest(String requestId) {
+        historyRequests.remove(requestId);
+    }
+
+    // 每則回應只解析一次，並只交給送出該請求的一方；已逾時或取消的請求的回應直接捨棄
+    private void onHistoryResponse(Object[] args) {
+        if (args == null || args.length == 0) return;
+        Object wire = args[0];
+        String requestId;
+        try {
+            requestId = requestIdOf(wire);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read history response: " + e.getMessage(), e);
+            return;
+        }
+        HistoryCallback callback = historyRequests.take(requestId);
+        if (callback == null) {
+            Log.d(TAG, "Dropping history response for unknown request " + requestId);
+            return;
+        }
+        historyExecutor.execute(() -> {
+            MessageCodec.HistoryPage page;
+            try {
+                // SocketManager 自己的請求不使用分段，不必複製
+                page = decodeHistory(wire, callback instanceof PageCallback ? null : callback::onChunk);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to decode history response: " + e.getMessage(), e);
+                callback.onError(e);
+                return;
+            }
+            if (callback instanceof PageCallback) {
+                ((PageCallback) callback).onPage(page, wireBytes(wire, page));
             } else {
-                Log.e(TAG, "Max reconnect attempts reached, giving up.");
+                callback.onHistory(page);
             }
         });
     }
 
+    // 壓縮的信封與未壓縮的 JSON 在最上層帶 requestId；MessagePack 只讀出這個欄位，不解析訊息
+    static String requestIdOf(Object wire) throws IOException {
+        if (wire instanceof JSONObject) {
+            JSONObject json = (JSONObject) wire;
+            return json.has("requestId") ? json.optString("requestId") : null;
+        }
+        if (wire instanceof byte[]) {
+            return MsgPackMessageCodec.peekString((byte[]) wire, "requestId");
+        }
+        return null;
+    }
+
+    private void registerNetworkCallback() {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) return;
+        try {
+            NetworkRequest request = new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build();
+            cm.registerNetworkCallback(request, new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    reconnectController.onNetworkAvailable();
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    NetworkInfo active = cm.getActiveNetworkInfo();
+                    if (active == null || !active.isConnected()) {
+                        reconnectController.onNetworkLost();
+                    }
+                }
+            });
+        } catch (SecurityException e) {
+            Log.e(TAG, "Failed to register network callback: " + e.getMessage(), e);
+        }
+    }
+
+    /** 請求/回應式呼叫，回呼在主執行緒執行。 */
+    public RpcClient getRpcClient() {
+        return rpcClient;
+    }
+
     public Socket getSocket() {
         return socket;
     }
@@ -89,50 +885,89 @@ public class SocketManager {
     }
 
     public void connect() {
-        if (socket != null && !socket.connected()) {
-            socket.connect();
-            Log.d(TAG, "Socket reconnecting");
+        if (reconnectController != null && !isConnected()) {
+            reconnectController.requestConnect();
         }
     }
 
+    public ReconnectController.State getConnectionState() {
+        return reconnectController != null ? reconnectController.getState() : ReconnectController.State.DISCONNECTED;
+    }
+
+    public int getReconnectAttempt() {
+        return reconnectController != null ? reconnectController.getAttempt() : 0;
+    }
+
+    public long getTotalConnectAttempts() {
+        return reconnectController != null ? reconnectController.getTotalAttempts() : 0;
+    }
+
+    /** 連線品質統計的快照，可直接 toString() 輸出到除錯畫面或日誌。 */
+    public ConnectionStats.Snapshot getStats() {
+        return connectionStats.snapshot();
+    }
+
     public void disconnect() {
         if (socket != null) {
+            reconnectController.stop();
             socket.disconnect();
             Log.d(TAG, "Socket disconnected");
         }
     }
 
-    public void sendChatMessage(JSONObject messageData) {
-        try {
-            messageData.put("event", "chatMessage");
-            if (isConnected()) {
-                socket.emit("chatMessage", messageData);
-            } else {
-                Log.w(TAG, "Socket not connected, queuing message");
-                synchronized (messageQueue) {
-                    messageQueue.add(messageData);
-                }
-                connect();
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to send chat message: " + e.getMessage(), e);
+    /**
+     * 開啟送出合併：windowMs 內或累積 maxMessages 則訊息時合併成一個 messageBatch 封包。
+     * windowMs 為 0 時關閉。伺服器需支援 messageBatch 事件才可開啟。
+     */
+    public void setEmitBatching(long windowMs, int maxMessages) {
+        if (batchingTransport != null) {
+            batchingTransport.configure(windowMs, maxMessages);
         }
     }
 
+    public void sendChatMessage(JSONObject messageData) {
+        sendChatMessage(messageData, null);
+    }
+
+    public void sendChatMessage(JSONObject messageData, SendCallback callback) {
+        enqueueMessage("chatMessage", messageData, callback);
+    }
+
     public void sendGroupMessage(JSONObject messageData) {
+        sendGroupMessage(messageData, null);
+    }
+
+    public void sendGroupMessage(JSONObject messageData, SendCallback callback) {
+        enqueueMessage("groupMessage", messageData, callback);
+    }
+
+    /** 移除 callback 註冊的所有回呼，例如聊天畫面關閉時，避免從未確認的訊息讓它一直被持有。 */
+    public void removeSendCallback(SendCallback callback) {
+        Iterator<SendCallback> it = sendCallbacks.values().iterator();
+        while (it.hasNext()) {
+            if (it.next() == callback) it.remove();
+        }
+    }
+
+    private void enqueueMessage(String event, JSONObject messageData, SendCallback callback) {
+        markActivity();
         try {
-            messageData.put("event", "groupMessage");
-            if (isConnected()) {
-                socket.emit("groupMessage", messageData);
-            } else {
-                Log.w(TAG, "Socket not connected, queuing message");
-                synchronized (messageQueue) {
-                    messageQueue.add(messageData);
-                }
+            // clientMsgId 讓伺服器能辨識重連後重送的同一則訊息
+            String id = messageData.optString("clientMsgId", null);
+            if (id == null) {
+                id = UUID.randomUUID().toString();
+                messageData.put("clientMsgId", id);
+            }
+            if (callback != null) {
+                sendCallbacks.put(id, callback);
+            }
+            outbox.enqueue(id, event, messageData.toString());
+            if (!isConnected()) {
+                Log.w(TAG, "Socket not connected, message queued in outbox");
                 connect();
             }
         } catch (Exception e) {
-            Log.e(TAG, "Failed to send group message: " + e.getMessage(), e);
+            Log.e(TAG, "Failed to send " + event + ": " + e.getMessage(), e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,84 @@
+package com.example.anonymouschat;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchingTransportTest {
+    private static final int MESSAGES = 5000;
+
+    /** 本機替身伺服器：每個封包都要解碼一次並立即回 ack。 */
+    static class StandInServer implements Outbox.Transport {
+        final AtomicInteger frames = new AtomicInteger();
+        final AtomicInteger bytes = new AtomicInteger();
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void emit(String id, String event, String payload, Runnable onAck) {
+            frames.incrementAndGet();
+            bytes.addAndGet(payload.getBytes(java.nio.charset.StandardCharsets.UTF_8).length);
+            onAck.run();
+        }
+    }
+
+    private static class Result {
+        int frames;
+        long cpuNanos;
+        long wallNanos;
+    }
+
+    private Result run(long windowMs, int maxMessages) throws InterruptedException {
+        StandInServer server = new StandInServer();
+        BatchingTransport transport = new BatchingTransport(server);
+        transport.configure(windowMs, maxMessages);
+        CountDownLatch acked = new CountDownLatch(MESSAGES);
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        long cpuStart = mx.getCurrentThreadCpuTime();
+        long wallStart = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            String payload = "{\"chatId\":\"group-1\",\"fromUid\":\"u" + (i % 50) + "\",\"message\":\"hello " + i + "\",\"timestamp\":" + i + "}";
+            transport.emit("msg-" + i, "groupMessage", payload, acked::countDown);
+        }
+        transport.flush();
+        assertTrue(acked.await(10, TimeUnit.SECONDS));
+        Result result = new Result();
+        result.cpuNanos = mx.getCurrentThreadCpuTime() - cpuStart;
+        result.wallNanos = System.nanoTime() - wallStart;
+        result.frames = server.frames.get();
+        return result;
+    }
+
+    @Test
+    public void batchingCoalescesFramesAndAcksEveryMessage() throws Exception {
+        int direct = run(0, 1).frames;
+        int batched = run(10, 20).frames;
+
+        assertEquals(MESSAGES, direct);
+        assertTrue("expected far fewer frames with batching, got " + batched, batched <= MESSAGES / 10);
+    }
+
+    @Test
+    public void measureFrameRateAndCpuPerMessage() throws Exception {
+        Benchmarks.assumeEnabled();
+        // 暖機
+        run(0, 1);
+        run(10, 20);
+
+        Result direct = run(0, 1);
+        Result batched = run(10, 20);
+        Benchmarks.report("direct:  %d frames, %.1f frames/s, %d ns CPU/msg", direct.frames,
+                direct.frames / (direct.wallNanos / 1e9), direct.cpuNanos / MESSAGES);
+        Benchmarks.report("batched: %d frames, %.1f frames/s, %d ns CPU/msg", batched.frames,
+                batched.frames / (batched.wallNanos / 1e9), batched.cpuNanos / MESSAGES);
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.anonymouschat;
+
+import org.junit.Assume;
+
+/**
+ * 效能量測的開關。預設的單元測試只驗證行為，不輸出也不斷言耗時；
+ * 以 ./gradlew test -Pbenchmarks 執行時才跑較重的量測並印出數字。
+ */
+final class Benchmarks {
+    private static final String PROPERTY = "benchmarks";
+
+    private Benchmarks() {
+    }
+
+    static boolean enabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /** 只有量測意義、沒有行為可驗證的測試在開頭呼叫，未開啟時略過。 */
+    static void assumeEnabled() {
+        Assume.assumeTrue("benchmark skipped; run with -P" + PROPERTY, enabled());
+    }
+
+    static void report(String format, Object... args) {
+        if (enabled()) {
+            System.out.printf(format + "%n", args);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.anonymouschat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChatListOrderTest {
+
+    /** 把通知套用到一份副本上，驗證 adapter 看到的順序與實際一致。 */
+    private static class RecordingCallback implements ChatListOrder.Callback {
+        final List<String> mirror = new ArrayList<>();
+        final List<String> events = new ArrayList<>();
+        ChatListOrder order;
+
+        @Override
+        public void onInserted(int position) {
+            mirror.add(position, order.get(position).chatId);
+            events.add("insert " + position);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mirror.add(toPosition, mirror.remove(fromPosition));
+            events.add("move " + fromPosition + "->" + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position) {
+            assertEquals(mirror.get(position), order.get(position).chatId);
+            events.add("change " + position);
+        }
+    }
+
+    private static MessageRepository.ChatSummary chat(String chatId, long lastActivity) {
+        Message last = lastActivity > 0 ? new Message("u", "m" + lastActivity, "n", lastActivity) : null;
+        return new MessageRepository.ChatSummary(chatId, "private", chatId, last, 0);
+    }
+
+    private static List<String> ids(ChatListOrder order) {
+        List<String> ids = new ArrayList<>();
+        for (ChatItem item : order.asList()) ids.add(item.chatId);
+        return ids;
+    }
+
+    @Test
+    public void incomingMessageMovesOnlyThatChat() {
+        RecordingCallback callback = new RecordingCallback();
+        ChatListOrder order = new ChatListOrder(callback);
+        callback.order = order;
+        order.replaceAll(Arrays.asList(chat("a", 30), chat("b", 0), chat("c", 20), chat("d", 0), chat("e", 10)));
+        callback.mirror.addAll(ids(order));
+        assertEquals(Arrays.asList("a", "c", "e", "b", "d"), ids(order));
+
+        order.apply(chat("e", 40));
+        assertEquals(Arrays.asList("e", "a", "c", "b", "d"), ids(order));
+        assertEquals(Arrays.asList("move 2->0", "change 0"), callback.events);
+
+        callback.events.clear();
+        order.apply(chat("e", 50));
+        assertEquals(Arrays.asList("change 0"), callback.events);
+
+        callback.events.clear();
+        order.apply(chat("f", 0));
+        order.apply(chat("d", 25));
+        assertEquals(Arrays.asList("e", "a", "d", "c", "b", "f"), ids(order));
+        assertEquals(Arrays.asList("insert 5", "move 4->2", "change 2"), callback.events);
+        assertEquals(ids(order), callback.mirror);
+        assertEquals(2, order.indexOf("d"));
+        assertEquals(-1, order.indexOf("missing"));
+    }
+
+    @Test
+    public void matchesFullSortUnderContinuousReordering() {
+        RecordingCallback callback = new RecordingCallback();
+        ChatListOrder order = new ChatListOrder(callback);
+        callback.order = order;
+        int chats = 500;
+        List<MessageRepository.ChatSummary> initial = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < chats; i++) {
+            initial.add(chat("chat-" + i, random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(1000)));
+        }
+        order.replaceAll(initial);
+        callback.mirror.addAll(ids(order));
+
+        long now = 1000;
+        int updates = 20000;
+        for (int i = 0; i < updates; i++) {
+            // 少數活躍群組收到大部分訊息
+            int target = random.nextInt(4) == 0 ? random.nextInt(chats) : random.nextInt(10);
+            order.apply(chat("chat-" + target, now += random.nextInt(3)));
+        }
+
+        List<ChatItem> sorted = new ArrayList<>(order.asList());
+        sorted.sort(ChatListOrder::compare);
+        assertEquals(sorted, order.asList());
+        assertEquals(ids(order), callback.mirror);
+        for (int i = 1; i < order.size(); i++) {
+            assertTrue(order.get(i - 1).lastActivity >= order.get(i).lastActivity);
+        }
+    }
+
+    @Test
+    public void measureReorderCost() {
+        Benchmarks.assumeEnabled();
+        RecordingCallback callback = new RecordingCallback();
+        ChatListOrder order = new ChatListOrder(callback);
+        callback.order = order;
+        int chats = 500;
+        List<MessageRepository.ChatSummary> initial = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < chats; i++) {
+            initial.add(chat("chat-" + i, random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(1000)));
+        }
+        order.replaceAll(initial);
+        callback.mirror.addAll(ids(order));
+
+        long now = 1000;
+        int updates = 100000;
+        long start = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            int target = random.nextInt(4) == 0 ? random.nextInt(chats) : random.nextInt(10);
+            order.apply(chat("chat-" + target, now += random.nextInt(3)));
+        }
+        long nanos = System.nanoTime() - start;
+        Benchmarks.report("%d reorders over %d chats: %.0f ns/update", updates, chats, (double) nanos / updates);
+        assertEquals(ids(order), callback.mirror);
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.anonymouschat;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 驗證欄位式訊息容器的內容正確；100k 則訊息時與 List<Message> 的記憶體用量只在開啟 benchmarks 時量測。
+ */
+public class CompactMessageListTest {
+    private static final int MESSAGE_COUNT = 100000;
+    private static final int MEMBERS = 500;
+
+    // 模擬解析後的資料：每則訊息的 uid 與暱稱都是新的 String 實例
+    private static Message generate(int i) {
+        String uid = "3f2b8c1e-0000-4000-8000-" + String.format("%012d", i % MEMBERS);
+        String nickname = "使用者" + (i % MEMBERS);
+        String text = i % 7 == 0 ? "今天晚上要一起吃飯嗎？" : "message number " + i + " with some ordinary chat text";
+        return new Message(uid, text, nickname, 1700000000000L + i * 1000L, "c-" + i, Message.State.SENT);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    @Test
+    public void roundTripsMessages() {
+        CompactMessageList list = new CompactMessageList();
+        list.add(new Message("u1", "hello", "Alice", 10, "c1", Message.State.SENT));
+        list.add(new Message("u2", "哈囉 👋", "小明", 20, null, Message.State.PENDING));
+        list.add(new Message("u1", "", "Alice", 20, "c3", Message.State.FAILED));
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 40000; i++) longText.append("長");
+        list.add(new Message("u3", longText.toString(), "Bob", 30, "c4", Message.State.SENT));
+        list.add(new Message("u1", "after long", "Alice", 40, "c5", Message.State.SENT));
+
+        assertEquals(5, list.size());
+        assertEquals(6, list.poolSize());
+        assertEquals("哈囉 👋", list.getText(1));
+        assertNull(list.getClientMsgId(1));
+        assertEquals(Message.State.PENDING, list.getState(1));
+        assertEquals("", list.getText(2));
+        assertEquals(longText.toString(), list.getText(3));
+        assertEquals("after long", list.getText(4));
+        assertSame(list.getFromUid(0), list.getFromUid(2));
+        assertEquals(1, list.indexAtOrAfter(20));
+        assertEquals(3, list.indexAtOrAfter(25));
+        assertEquals(5, list.indexAtOrAfter(50));
+
+        Message restored = list.toMessage(0);
+        assertEquals("u1", restored.getFromUid());
+        assertEquals("hello", restored.getText());
+        assertEquals("Alice", restored.getNickname());
+        assertEquals(10, restored.getTimestamp());
+        assertEquals("c1", restored.getClientMsgId());
+
+        CompactMessageList.Cursor cursor = list.cursor();
+        assertEquals("小明", cursor.moveTo(1).getNickname());
+        assertEquals("哈囉 👋", cursor.getText().toString());
+        assertEquals('哈', cursor.getText().charAt(0));
+    }
+
+    @Test
+    public void cursorWalkDoesNotAllocatePerMessage() {
+        Benchmarks.assumeEnabled();
+        CompactMessageList list = new CompactMessageList();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            list.add(generate(i));
+        }
+        CompactMessageList.Cursor cursor = list.cursor();
+        long checksum = 0;
+        long before = allocatedBytes();
+        for (int i = 0; i < list.size(); i++) {
+            cursor.moveTo(i);
+            CharSequence text = cursor.getText();
+            checksum += cursor.getTimestamp() + cursor.getNickname().length() + text.length() + text.charAt(0);
+        }
+        long allocated = allocatedBytes() - before;
+        Benchmarks.report("cursor walk over %d messages allocated %d bytes (checksum %d)", list.size(), allocated, checksum);
+        assertTrue(allocated < 64 * 1024);
+    }
+
+    @Test
+    public void measureFootprintAgainstMessageList() throws Exception {
+        Benchmarks.assumeEnabled();
+        long base = usedHeap();
+        List<Message> messages = new ArrayList<>(MESSAGE_COUNT);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            messages.add(generate(i));
+        }
+        long listBytes = usedHeap() - base;
+        assertEquals(MESSAGE_COUNT, messages.size());
+        messages = null;
+
+        base = usedHeap();
+        CompactMessageList compact = new CompactMessageList();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            compact.add(generate(i));
+        }
+        long compactBytes = usedHeap() - base;
+        assertEquals(MESSAGE_COUNT, compact.size());
+
+        Benchmarks.report("List<Message>:      %6d KB (%d bytes/message)", listBytes / 1024, listBytes / MESSAGE_COUNT);
+        Benchmarks.report("CompactMessageList: %6d KB (%d bytes/message, estimate %d KB, %d pooled strings)",
+                compactBytes / 1024, compactBytes / MESSAGE_COUNT, compact.estimatedBytes() / 1024, compact.poolSize());
+        assertEquals(MEMBERS * 2, compact.poolSize());
+        assertTrue("compact " + compactBytes + " vs list " + listBytes, compactBytes * 2 < listBytes);
+    }
+}
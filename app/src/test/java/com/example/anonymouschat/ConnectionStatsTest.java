@@ -0,0 +1,99 @@
+package com.example.anonymouschat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.*;
+
+public class ConnectionStatsTest {
+
+    @Test
+    public void histogramPercentilesStayWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count);
+        assertEquals(1, snapshot.min);
+        assertEquals(1000, snapshot.max);
+        assertEquals(500, snapshot.mean);
+        // 每個 2 的次方區間分 8 格，相對誤差不超過 1/8
+        assertEquals(500, snapshot.percentile(50), 500 / 8.0);
+        assertEquals(990, snapshot.percentile(99), 990 / 8.0);
+        assertTrue(snapshot.percentile(99) >= 990);
+    }
+
+    @Test
+    public void bucketsCoverValuesWithoutGaps() {
+        for (long v = 0; v < 100000; v++) {
+            int index = LatencyHistogram.indexOf(v);
+            assertTrue(v <= LatencyHistogram.upperBoundOf(index));
+            if (index > 0) {
+                assertTrue(v > LatencyHistogram.upperBoundOf(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    histogram.record(ThreadLocalRandom.current().nextInt(1, 5000));
+                }
+            }));
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(800000, snapshot.count);
+        assertTrue(snapshot.min >= 1);
+        assertTrue(snapshot.max < 5000);
+    }
+
+    @Test
+    public void tracksConnectTimeAndDisconnectDurations() {
+        long[] now = {1000};
+        ConnectionStats stats = new ConnectionStats(() -> now[0]);
+
+        stats.onConnectAttempt();
+        now[0] += 300;
+        stats.onConnectError();
+        stats.onConnectAttempt();
+        now[0] += 200;
+        stats.onConnected();
+
+        now[0] += 60000;
+        stats.onDisconnected();
+        now[0] += 4000;
+        stats.onConnectAttempt();
+        now[0] += 1000;
+        stats.onConnected();
+
+        stats.onPingSent();
+        stats.onPong(42);
+        stats.onPingSent();
+        stats.onPongMissed();
+
+        ConnectionStats.Snapshot snapshot = stats.snapshot();
+        assertEquals(2, snapshot.connects);
+        assertEquals(1, snapshot.disconnects);
+        assertEquals(1, snapshot.connectErrors);
+        assertEquals(2, snapshot.timeToConnectMs.count);
+        assertEquals(500, snapshot.timeToConnectMs.min);
+        assertEquals(1000, snapshot.timeToConnectMs.max);
+        assertEquals(1, snapshot.disconnectDurationMs.count);
+        assertEquals(5000, snapshot.disconnectDurationMs.max);
+        assertEquals(42, snapshot.rttMs.max);
+        assertEquals(2, snapshot.pingsSent);
+        assertEquals(1, snapshot.pongsMissed);
+        assertEquals(0, snapshot.currentDowntimeMs);
+        assertNotNull(snapshot.toString());
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.anonymouschat;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 以多個注入延遲的本機替身伺服器測試伺服器選擇、故障轉移與冷卻。
+ */
+public class EndpointSelectorTest {
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    // 模擬 Engine.IO 握手，回應前先延遲 delayMs
+    private String startServer(long delayMs) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/socket.io/", exchange -> {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "0{\"sid\":\"test\",\"upgrades\":[\"websocket\"],\"pingInterval\":25000,\"pingTimeout\":20000}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(null);
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static String deadEndpoint() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return "http://127.0.0.1:" + socket.getLocalPort();
+        }
+    }
+
+    @Test
+    public void picksFastestHealthyEndpoint() throws Exception {
+        String slow = startServer(600);
+        String dead = deadEndpoint();
+        String fast = startServer(10);
+        String medium = startServer(250);
+        EndpointSelector selector = new EndpointSelector(Arrays.asList(slow, dead, fast, medium), EndpointSelector::handshake, System::currentTimeMillis);
+        // 未探測前使用第一個設定的伺服器
+        assertEquals(slow, selector.current());
+
+        assertEquals(fast, selector.probeAll());
+        assertTrue(selector.isCoolingDown(dead));
+        List<String> ranking = selector.ranking();
+        assertEquals(Arrays.asList(fast, medium, slow, dead), ranking);
+    }
+
+    @Test
+    public void hangingEndpointDoesNotStallProbe() throws Exception {
+        String hanging = startServer(10000);
+        String ok = startServer(20);
+        EndpointSelector selector = new EndpointSelector(Arrays.asList(hanging, ok), EndpointSelector::handshake, System::currentTimeMillis);
+        long start = System.currentTimeMillis();
+        assertEquals(ok, selector.probeAll());
+        assertTrue(System.currentTimeMillis() - start < EndpointSelector.PROBE_TIMEOUT_MS + 1000);
+        assertTrue(selector.isCoolingDown(hanging));
+    }
+
+    @Test
+    public void failureDemotesWithCooldownAndRecovers() {
+        long[] now = {0};
+        Map<String, Long> latency = new HashMap<>();
+        latency.put("a", 50L);
+        latency.put("b", 120L);
+        EndpointSelector selector = new EndpointSelector(Arrays.asList("a", "b"), latency::get, () -> now[0]);
+        assertEquals("a", selector.probeAll());
+
+        selector.reportFailure("a");
+        assertEquals("b", selector.current());
+        assertTrue(selector.isCoolingDown("a"));
+
+        // 冷卻期間重新探測也不會換回去
+        now[0] += 10000;
+        assertEquals("b", selector.probeAll());
+
+        // 冷卻期過後再探測，換回較快的伺服器
+        now[0] += 25000;
+        assertEquals("a", selector.probeAll());
+    }
+
+    @Test
+    public void cooldownGrowsWithRepeatedFailures() {
+        long[] now = {0};
+        EndpointSelector selector = new EndpointSelector(Arrays.asList("a", "b"), url -> 10, () -> now[0]);
+        selector.reportFailure("a");
+        now[0] += 31000;
+        assertFalse(selector.isCoolingDown("a"));
+        selector.reportFailure("a");
+        now[0] += 31000;
+        assertTrue(selector.isCoolingDown("a"));
+        now[0] += 30000;
+        assertFalse(selector.isCoolingDown("a"));
+    }
+
+    @Test
+    public void onlySwitchesForClearlyFasterEndpoint() {
+        Map<String, Long> latency = new HashMap<>();
+        latency.put("a", 200L);
+        latency.put("b", 180L);
+        EndpointSelector selector = new EndpointSelector(Arrays.asList("a", "b"), latency::get, () -> 0);
+        selector.reportSuccess("a");
+        assertEquals("a", selector.probeAll());
+
+        latency.put("b", 60L);
+        assertEquals("b", selector.probeAll());
+    }
+}
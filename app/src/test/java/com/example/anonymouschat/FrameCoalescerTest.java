@@ -0,0 +1,80 @@
+package com.example.anonymouschat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class FrameCoalescerTest {
+
+    /** 手動觸發的排程器，代表「下一個畫面」。 */
+    private static class ManualScheduler implements FrameCoalescer.Scheduler {
+        final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public synchronized void schedule(Runnable flush) {
+            pending.add(flush);
+        }
+
+        synchronized void frame() {
+            List<Runnable> toRun = new ArrayList<>(pending);
+            pending.clear();
+            for (Runnable r : toRun) r.run();
+        }
+    }
+
+    @Test
+    public void burstFromManyThreadsIsAppliedInOneFlush() throws Exception {
+        ManualScheduler scheduler = new ManualScheduler();
+        List<List<Integer>> flushes = new ArrayList<>();
+        FrameCoalescer<Integer> coalescer = new FrameCoalescer<>(scheduler, flushes::add);
+
+        int threads = 4;
+        int perThread = 50;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    coalescer.add(Collections.singletonList(base + i));
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        assertEquals(1, scheduler.pending.size());
+        scheduler.frame();
+
+        assertEquals(1, flushes.size());
+        assertEquals(threads * perThread, flushes.get(0).size());
+        assertEquals(1, coalescer.getFlushCount());
+        assertEquals(threads * perThread, coalescer.getLargestFlush());
+    }
+
+    @Test
+    public void keepsOrderWithinAProducerAndSchedulesAgainAfterFlush() {
+        ManualScheduler scheduler = new ManualScheduler();
+        List<List<Integer>> flushes = new ArrayList<>();
+        FrameCoalescer<Integer> coalescer = new FrameCoalescer<>(scheduler, flushes::add);
+
+        coalescer.add(Arrays.asList(1, 2, 3));
+        coalescer.add(Collections.singletonList(4));
+        scheduler.frame();
+        coalescer.add(Collections.emptyList());
+        assertTrue(scheduler.pending.isEmpty());
+        coalescer.add(Collections.singletonList(5));
+        scheduler.frame();
+
+        assertEquals(2, flushes.size());
+        assertEquals(Arrays.asList(1, 2, 3, 4), flushes.get(0));
+        assertEquals(Collections.singletonList(5), flushes.get(1));
+        assertEquals(5, coalescer.getItemCount());
+        assertEquals(4, coalescer.getLargestFlush());
+    }
+}
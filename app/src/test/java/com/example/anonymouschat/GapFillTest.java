@@ -0,0 +1,293 @@
+package com.example.anonymouschat;
+
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 以本機替身伺服器模擬對話進行中斷線：斷線期間的訊息只存在伺服器上，
+ * 重連後 GapFiller 只請求高水位之後的訊息，並以 MessageStore 去重合併。
+ */
+public class GapFillTest {
+    private static final String CHAT = "group-42";
+
+    private final List<JSONObject> conversation = new ArrayList<>();
+    private final MessageStore store = new MessageStore();
+    private HttpServer server;
+    private boolean connected;
+    private int requests;
+    private int latestRequests;
+    private int transferred;
+    private GapFiller gapFiller;
+
+    @Before
+    public void setUp() throws Exception {
+        gapFiller = new GapFiller(new GapFiller.Requester() {
+            @Override
+            public void requestAfter(String chatId, long after, int limit) {
+                requests++;
+                MessageCodec.HistoryPage page = fetch(chatId, after, limit);
+                // 與 SocketManager 相同，交給送出時仍開啟的聊天室
+                GapFiller.Listener listener = gapFiller.listener(chatId);
+                if (listener != null) listener.onGapPage(page);
+            }
+
+            @Override
+            public void requestLatest(String chatId, int limit) {
+                latestRequests++;
+                MessageCodec.HistoryPage page = fetch(chatId, -1, limit);
+                GapFiller.Listener listener = gapFiller.listener(chatId);
+                if (listener != null) listener.onLatestPage(page);
+            }
+        });
+        gapFiller.track(CHAT, new GapFiller.Listener() {
+            @Override
+            public void onGapPage(MessageCodec.HistoryPage page) {
+                merge(page);
+                gapFiller.onGapPage(CHAT, page);
+            }
+
+            @Override
+            public void onLatestPage(MessageCodec.HistoryPage page) {
+                merge(page);
+                gapFiller.observe(CHAT, page.messages);
+            }
+        });
+        startServer();
+    }
+
+    // 取回一頁；after 為 -1 時請求最新一頁
+    private MessageCodec.HistoryPage fetch(String chatId, long after, int limit) {
+        try {
+            JSONObject request = new JSONObject().put("chatId", chatId).put("limit", limit);
+            if (after >= 0) request.put("after", after);
+            MessageCodec.HistoryPage page = new JsonMessageCodec().decodeHistory(post(request));
+            transferred += page.messages.size();
+            return page;
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // 只加入還沒有的訊息
+    private void merge(MessageCodec.HistoryPage page) {
+        List<Message> missed = new ArrayList<>();
+        for (Message m : page.messages) {
+            if (!store.contains(m)) missed.add(m);
+        }
+        store.addAll(missed);
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) server.stop(0);
+    }
+
+    private void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/getChatHistory", exchange -> {
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                JSONObject request = new JSONObject(readAll(in));
+                body = (request.has("after") ? historyAfter(request) : latest(request)).toString().getBytes(StandardCharsets.UTF_8);
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        connected = true;
+    }
+
+    private void disconnect() {
+        server.stop(0);
+        server = null;
+        connected = false;
+    }
+
+    private void reconnect() throws IOException {
+        startServer();
+        gapFiller.onConnected();
+    }
+
+    // 伺服器端：時間不小於 after 的最早 limit 則
+    private synchronized JSONObject historyAfter(JSONObject request) throws Exception {
+        long after = request.getLong("after");
+        int limit = request.getInt("limit");
+        JSONArray messages = new JSONArray();
+        int i = 0;
+        while (i < conversation.size() && conversation.get(i).getLong("timestamp") < after) i++;
+        int end = Math.min(conversation.size(), i + limit);
+        for (; i < end; i++) {
+            messages.put(conversation.get(i));
+        }
+        return new JSONObject().put("success", true).put("chatId", request.getString("chatId"))
+                .put("after", after).put("messages", messages).put("hasMore", end < conversation.size());
+    }
+
+    // 伺服器端：最新的 limit 則
+    private synchronized JSONObject latest(JSONObject request) throws Exception {
+        int limit = request.getInt("limit");
+        JSONArray messages = new JSONArray();
+        int start = Math.max(0, conversation.size() - limit);
+        for (int i = start; i < conversation.size(); i++) {
+            messages.put(conversation.get(i));
+        }
+        return new JSONObject().put("success", true).put("chatId", request.getString("chatId"))
+                .put("messages", messages).put("hasMore", start > 0);
+    }
+
+    /** 伺服器收到一則訊息；連線中才會即時推送給用戶端。 */
+    private void send(long timestamp, String clientMsgId) throws Exception {
+        JSONObject json = new JSONObject().put("chatId", CHAT).put("fromUid", "u" + (timestamp % 3))
+                .put("nickname", "n").put("message", "m" + timestamp).put("timestamp", timestamp);
+        if (clientMsgId != null) json.put("clientMsgId", clientMsgId);
+        synchronized (this) {
+            conversation.add(json);
+        }
+        if (connected) {
+            Message live = new Message(json.getString("fromUid"), json.getString("message"), "n", timestamp, clientMsgId, Message.State.SENT);
+            store.add(live);
+            gapFiller.observe(CHAT, Collections.singletonList(live));
+        }
+    }
+
+    private byte[] post(JSONObject request) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/getChatHistory").openConnection();
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        try (InputStream in = conn.getInputStream()) {
+            return readAll(in).getBytes(StandardCharsets.UTF_8);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void assertMatchesServer() throws Exception {
+        List<Message> messages = store.snapshot();
+        assertEquals(conversation.size(), messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(conversation.get(i).getLong("timestamp"), messages.get(i).getTimestamp());
+            assertEquals(conversation.get(i).getString("message"), messages.get(i).getText());
+        }
+    }
+
+    @Test
+    public void reconnectFetchesOnlyMessagesMissedWhileDisconnected() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            send(1000 + i, i % 2 == 0 ? "c-" + i : null);
+        }
+        disconnect();
+        for (int i = 500; i < 750; i++) {
+            send(1000 + i, i % 2 == 0 ? "c-" + i : null);
+        }
+        assertEquals(500, store.size());
+
+        reconnect();
+
+        assertMatchesServer();
+        // 250 則缺漏分三頁取回，每頁多帶一則高水位上的訊息
+        assertEquals(3, requests);
+        assertEquals(250 + 3, transferred);
+        assertEquals(1749, gapFiller.mark(CHAT));
+    }
+
+    @Test
+    public void reconnectWithoutGapTransfersOnlyTheBoundaryMessage() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            send(1000 + i, null);
+        }
+        disconnect();
+        reconnect();
+        disconnect();
+        reconnect();
+
+        assertMatchesServer();
+        assertEquals(2, requests);
+        assertEquals(2, transferred);
+    }
+
+    @Test
+    public void messageWithSameTimestampAsHighWaterMarkIsNotLost() throws Exception {
+        send(1000, "a");
+        send(2000, null);
+        disconnect();
+        send(2000, "same-ms");
+        send(2001, null);
+
+        reconnect();
+
+        assertMatchesServer();
+        assertEquals(4, store.size());
+    }
+
+    @Test
+    public void untrackedChatsAreNotFilled() throws Exception {
+        send(1000, null);
+        gapFiller.untrack(CHAT);
+        disconnect();
+        send(1001, null);
+        reconnect();
+
+        assertEquals(0, requests);
+        assertEquals(-1, gapFiller.mark(CHAT));
+    }
+
+    @Test
+    public void chatWithoutHighWaterMarkRequestsTheLatestPage() throws Exception {
+        // 第一頁還沒載入就斷線，斷線期間對話繼續進行
+        disconnect();
+        for (int i = 0; i < 30; i++) {
+            send(1000 + i, null);
+        }
+        assertEquals(-1, gapFiller.mark(CHAT));
+
+        reconnect();
+
+        assertEquals(1, latestRequests);
+        assertEquals(0, requests);
+        assertMatchesServer();
+        assertEquals(1029, gapFiller.mark(CHAT));
+
+        // 有了高水位之後，再次重連就只補缺漏
+        disconnect();
+        send(1030, null);
+        reconnect();
+        assertEquals(1, latestRequests);
+        assertEquals(1, requests);
+        assertMatchesServer();
+    }
+}
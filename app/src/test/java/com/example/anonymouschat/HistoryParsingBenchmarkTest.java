@@ -0,0 +1,149 @@
+package com.example.anonymouschat;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 串流解析與先建立整棵 org.json 樹的結果須相同；解析時間、配置量與第一段訊息可以交給畫面的時間
+ * 只在開啟 benchmarks 時量測並印出，不作為斷言。
+ */
+public class HistoryParsingBenchmarkTest {
+    private static final int HISTORY_SIZE = 50000;
+    private static final int ROUNDS = 5;
+
+    private static byte[] buildHistory(int size) throws Exception {
+        JSONArray messages = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            messages.put(new JSONObject()
+                    .put("chatId", "group-42")
+                    .put("fromUid", "3f2b8c1e-0000-4000-8000-" + String.format("%012d", i % 300))
+                    .put("nickname", "使用者" + (i % 300))
+                    .put("message", i % 7 == 0 ? "今天晚上要一起吃飯嗎？" : "message number " + i + " with some ordinary chat text")
+                    .put("timestamp", 1700000000000L + i * 1000L)
+                    .put("clientMsgId", "c-" + i));
+        }
+        return new JSONObject().put("success", true).put("messages", messages).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    @Test
+    public void streamingParserMatchesTreeParser() throws Exception {
+        byte[] payload = buildHistory(2000);
+        JsonMessageCodec codec = new JsonMessageCodec();
+        List<Message> fromTree = codec.decodeHistory(new JSONObject(new String(payload, StandardCharsets.UTF_8))).messages;
+        List<Message> fromStream = codec.decodeHistory(new ByteArrayInputStream(payload)).messages;
+
+        assertEquals(2000, fromTree.size());
+        assertEquals(2000, fromStream.size());
+        for (int i = 0; i < fromTree.size(); i++) {
+            assertEquals(fromTree.get(i).getText(), fromStream.get(i).getText());
+            assertEquals(fromTree.get(i).getNickname(), fromStream.get(i).getNickname());
+            assertEquals(fromTree.get(i).getTimestamp(), fromStream.get(i).getTimestamp());
+            assertEquals(fromTree.get(i).getClientMsgId(), fromStream.get(i).getClientMsgId());
+        }
+    }
+
+    @Test
+    public void streamingParserBenchmark() throws Exception {
+        Benchmarks.assumeEnabled();
+        byte[] payload = buildHistory(HISTORY_SIZE);
+        JsonMessageCodec codec = new JsonMessageCodec();
+
+        List<Message> fromTree = null;
+        List<Message> fromStream = null;
+        long treeNanos = Long.MAX_VALUE, streamNanos = Long.MAX_VALUE, firstChunkNanos = Long.MAX_VALUE;
+        long treeAlloc = 0, streamAlloc = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            // 原本的做法：整份轉成字串、建立 JSONObject 樹，再逐則取值
+            long alloc = allocatedBytes();
+            long start = System.nanoTime();
+            fromTree = codec.decodeHistory(new JSONObject(new String(payload, StandardCharsets.UTF_8))).messages;
+            treeNanos = Math.min(treeNanos, System.nanoTime() - start);
+            treeAlloc = allocatedBytes() - alloc;
+
+            long[] firstChunkAt = {0};
+            alloc = allocatedBytes();
+            long streamStart = System.nanoTime();
+            fromStream = codec.decodeHistory(new ByteArrayInputStream(payload), SocketManager.HISTORY_CHUNK_SIZE, chunk -> {
+                if (firstChunkAt[0] == 0) firstChunkAt[0] = System.nanoTime();
+            }).messages;
+            streamNanos = Math.min(streamNanos, System.nanoTime() - streamStart);
+            streamAlloc = allocatedBytes() - alloc;
+            firstChunkNanos = Math.min(firstChunkNanos, firstChunkAt[0] - streamStart);
+        }
+
+        Benchmarks.report("tree:      %d bytes, %.2f ms to first message, %.2f ms total, %d KB allocated",
+                payload.length, treeNanos / 1e6, treeNanos / 1e6, treeAlloc / 1024);
+        Benchmarks.report("streaming: %d bytes, %.2f ms to first message, %.2f ms total, %d KB allocated",
+                payload.length, firstChunkNanos / 1e6, streamNanos / 1e6, streamAlloc / 1024);
+
+        assertEquals(HISTORY_SIZE, fromTree.size());
+        assertEquals(HISTORY_SIZE, fromStream.size());
+    }
+
+    @Test
+    public void latestPageArrivesInSeveralChunks() throws Exception {
+        byte[] payload = buildHistory(ChatViewModel.PAGE_SIZE);
+        List<List<Message>> chunks = new ArrayList<>();
+        new JsonMessageCodec().decodeHistory(new ByteArrayInputStream(payload), SocketManager.HISTORY_CHUNK_SIZE, chunks::add);
+
+        // 分段不小於一頁時，第一段要等整頁解析完才會送出
+        assertTrue(chunks.size() >= 2);
+        assertEquals(SocketManager.HISTORY_CHUNK_SIZE, chunks.get(0).size());
+    }
+
+    @Test
+    public void chunksCoverEveryMessageInOrder() throws Exception {
+        byte[] payload = buildHistory(1050);
+        List<List<Message>> chunks = new ArrayList<>();
+        MessageCodec.HistoryPage page = new JsonMessageCodec().decodeHistory(new ByteArrayInputStream(payload), 100, chunks::add);
+
+        assertTrue(page.success);
+        assertEquals(1050, page.messages.size());
+        assertEquals(10, chunks.size());
+        for (int c = 0; c < chunks.size(); c++) {
+            assertEquals(100, chunks.get(c).size());
+            assertSame(page.messages.get(c * 100), chunks.get(c).get(0));
+        }
+    }
+
+    @Test
+    public void responseAlreadyParsedBySocketIsAlsoChunked() throws Exception {
+        // socket.io 預設把 JSON 事件解析成 JSONObject 再交給 listener
+        JSONObject parsed = new JSONObject(new String(buildHistory(ChatViewModel.PAGE_SIZE), StandardCharsets.UTF_8));
+        List<List<Message>> chunks = new ArrayList<>();
+        MessageCodec.HistoryPage page = SocketManager.decodeHistory(parsed, SocketManager.HISTORY_CHUNK_SIZE, chunks::add);
+
+        assertEquals(ChatViewModel.PAGE_SIZE, page.messages.size());
+        assertEquals(ChatViewModel.PAGE_SIZE / SocketManager.HISTORY_CHUNK_SIZE, chunks.size());
+        assertSame(page.messages.get(0), chunks.get(0).get(0));
+        assertSame(page.messages.get(SocketManager.HISTORY_CHUNK_SIZE), chunks.get(1).get(0));
+    }
+
+    @Test
+    public void failureResponseEmitsNoChunks() throws Exception {
+        String payload = "{\"messages\":[{\"fromUid\":\"u\",\"message\":\"x\",\"timestamp\":1}],\"success\":false,\"message\":\"denied\"}";
+        List<List<Message>> chunks = new ArrayList<>();
+        MessageCodec.HistoryPage page = new JsonMessageCodec().decodeHistory(payload, 1, chunks::add);
+
+        assertFalse(page.success);
+        assertEquals("denied", page.errorMessage);
+        assertTrue(chunks.isEmpty());
+    }
+}
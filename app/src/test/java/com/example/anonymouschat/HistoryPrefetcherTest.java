@@ -0,0 +1,218 @@
+package com.example.anonymouschat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HistoryPrefetcherTest {
+    private long now = 0;
+    private boolean idle = true;
+    private boolean metered = false;
+    private final List<long[]> dueTimes = new ArrayList<>();
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<String> requested = new ArrayList<>();
+    // chatId -> 最近一次請求的 response
+    private final Map<String, HistoryPrefetcher.Response> responses = new HashMap<>();
+    private final Map<String, List<Message>> stored = new HashMap<>();
+    private final Map<String, Long> cached = new HashMap<>();
+    private HistoryPrefetcher prefetcher;
+
+    @Before
+    public void setUp() {
+        prefetcher = new HistoryPrefetcher((chatId, limit, response) -> {
+            requested.add(chatId);
+            responses.put(chatId, response);
+        }, new HistoryPrefetcher.Conditions() {
+            @Override
+            public boolean isIdle() {
+                return idle;
+            }
+
+            @Override
+            public boolean isMetered() {
+                return metered;
+            }
+        }, new HistoryPrefetcher.Store() {
+            @Override
+            public long latestTimestamp(String chatId) {
+                Long latest = cached.get(chatId);
+                return latest != null ? latest : -1;
+            }
+
+            @Override
+            public void put(String chatId, List<Message> messages) {
+                stored.put(chatId, messages);
+            }
+        }, (task, delayMs) -> {
+            dueTimes.add(new long[]{now + delayMs});
+            tasks.add(task);
+        }, () -> now);
+    }
+
+    /** 推進假時間，依到期順序執行排程的工作（包含執行中新排入且已到期的）。 */
+    private void advance(long ms) {
+        long target = now + ms;
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < tasks.size(); i++) {
+                if (dueTimes.get(i)[0] <= target && (next < 0 || dueTimes.get(i)[0] < dueTimes.get(next)[0])) next = i;
+            }
+            if (next < 0) break;
+            now = Math.max(now, dueTimes.remove(next)[0]);
+            tasks.remove(next).run();
+        }
+        now = target;
+    }
+
+    private static List<MessageRepository.ChatSummary> chats(int count) {
+        List<MessageRepository.ChatSummary> chats = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            chats.add(new MessageRepository.ChatSummary("chat-" + i, "private", "n", new Message("u", "last", "n", 1000 + i), 0));
+        }
+        return chats;
+    }
+
+    // 伺服器的回應不一定帶 chatId，結果依請求交付
+    private void respond(String chatId, long wireBytes) {
+        List<Message> messages = Collections.singletonList(new Message("u", "m", "n", 2000));
+        responses.get(chatId).onPage(new MessageCodec.HistoryPage(true, null, messages, false, -1, -1, null), wireBytes);
+        advance(0);
+    }
+
+    @Test
+    public void limitsConcurrentRequestsAndStoresPages() {
+        prefetcher.prefetch(chats(5));
+        advance(0);
+        assertEquals(Arrays.asList("chat-0", "chat-1"), requested);
+        assertTrue(prefetcher.hasInFlight());
+
+        respond("chat-1", 1000);
+        assertEquals(Arrays.asList("chat-0", "chat-1", "chat-2"), requested);
+        assertEquals(1, stored.get("chat-1").size());
+
+        respond("chat-0", 1000);
+        respond("chat-2", 1000);
+        respond("chat-3", 1000);
+        respond("chat-4", 1000);
+        assertEquals(5, requested.size());
+        assertEquals(5, stored.size());
+        assertFalse(prefetcher.hasInFlight());
+    }
+
+    @Test
+    public void waitsUntilTheConnectionIsIdle() {
+        idle = false;
+        prefetcher.prefetch(chats(2));
+        advance(HistoryPrefetcher.IDLE_RETRY_MS * 3);
+        assertTrue(requested.isEmpty());
+
+        idle = true;
+        advance(HistoryPrefetcher.IDLE_RETRY_MS);
+        assertEquals(2, requested.size());
+    }
+
+    @Test
+    public void meteredNetworkFetchesFewerChats() {
+        metered = true;
+        prefetcher.prefetch(chats(10));
+        advance(0);
+        for (int i = 0; i < 10 && prefetcher.hasInFlight(); i++) {
+            respond(requested.get(i), 1000);
+        }
+        assertEquals(HistoryPrefetcher.METERED_CHATS, requested.size());
+    }
+
+    @Test
+    public void stopsWhenBudgetIsUsedUpAndResetsNextWindow() {
+        long page = 600 * 1024;
+        prefetcher.prefetch(chats(10));
+        advance(0);
+        for (int i = 0; i < 10 && prefetcher.hasInFlight(); i++) {
+            respond(requested.get(i), page);
+        }
+        // 2 MB 的預算：已用 1.8 MB 時仍會送出下一個請求，超過後就停止
+        assertEquals(5, requested.size());
+        assertTrue(prefetcher.getBytesInWindow() >= HistoryPrefetcher.UNMETERED_BUDGET_BYTES);
+
+        advance(HistoryPrefetcher.BUDGET_WINDOW_MS);
+        requested.clear();
+        stored.clear();
+        prefetcher.prefetch(chats(10));
+        advance(0);
+        assertEquals(2, requested.size());
+    }
+
+    @Test
+    public void budgetCountsTheLastHourNotAFixedWindow() {
+        long page = 600 * 1024;
+        prefetcher.prefetch(chats(1));
+        advance(0);
+        respond("chat-0", 1000);
+
+        // 固定視窗會在第一個請求的一小時後歸零，即使預算剛在那之前用完
+        advance(HistoryPrefetcher.BUDGET_WINDOW_MS - 60 * 1000);
+        prefetcher.prefetch(chats(10));
+        advance(0);
+        for (int i = 1; i < 10 && prefetcher.hasInFlight(); i++) {
+            respond(requested.get(i), page);
+        }
+        // chat-0 已抓過；預算在送出第五個請求後用完
+        assertEquals(6, requested.size());
+
+        advance(2 * 60 * 1000);
+        requested.clear();
+        prefetcher.prefetch(chats(10));
+        advance(0);
+        assertTrue(requested.isEmpty());
+
+        advance(HistoryPrefetcher.BUDGET_WINDOW_MS);
+        prefetcher.prefetch(chats(10));
+        advance(0);
+        assertEquals(2, requested.size());
+    }
+
+    @Test
+    public void failedRequestFreesItsSlot() {
+        prefetcher.prefetch(chats(3));
+        advance(0);
+        responses.get("chat-0").onError(new Exception("offline"));
+        advance(0);
+        assertEquals(Arrays.asList("chat-0", "chat-1", "chat-2"), requested);
+        assertFalse(stored.containsKey("chat-0"));
+    }
+
+    @Test
+    public void skipsWarmChatsAndRecoversFromTimeouts() {
+        cached.put("chat-0", 1000L);
+        prefetcher.prefetch(chats(3));
+        advance(0);
+        assertEquals(Arrays.asList("chat-1", "chat-2"), requested);
+        assertEquals(1, prefetcher.getSkippedCount());
+
+        advance(HistoryPrefetcher.REQUEST_TIMEOUT_MS);
+        assertFalse(prefetcher.hasInFlight());
+
+        // 逾時後才到的回應不採用，下次仍會重新抓取；已抓過且沒有新訊息的不再抓
+        respond("chat-1", 1000);
+        assertTrue(stored.isEmpty());
+        requested.clear();
+        prefetcher.prefetch(chats(3));
+        advance(0);
+        assertEquals(Arrays.asList("chat-1", "chat-2"), requested);
+        respond("chat-1", 1000);
+        respond("chat-2", 1000);
+        requested.clear();
+        prefetcher.prefetch(chats(3));
+        advance(0);
+        assertTrue(requested.isEmpty());
+        assertEquals(5, prefetcher.getSkippedCount());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.anonymouschat;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistoryRequestsTest {
+
+    private static class NamedCallback implements SocketManager.HistoryCallback {
+        @Override
+        public void onChunk(List<Message> chunk) {
+        }
+
+        @Override
+        public void onHistory(MessageCodec.HistoryPage page) {
+        }
+
+        @Override
+        public void onError(Exception e) {
+        }
+    }
+
+    @Test
+    public void responseGoesOnlyToTheRequestWithItsId() {
+        HistoryRequests requests = new HistoryRequests();
+        NamedCallback latest = new NamedCallback();
+        NamedCallback older = new NamedCallback();
+        String latestId = requests.add(latest);
+        String olderId = requests.add(older);
+        assertNotEquals(latestId, olderId);
+
+        // 回應的順序與請求不同
+        assertSame(older, requests.take(olderId));
+        assertSame(latest, requests.take(latestId));
+        assertNull(requests.take(latestId));
+        assertEquals(0, requests.size());
+    }
+
+    @Test
+    public void responseWithoutIdGoesToTheOldestRequest() {
+        HistoryRequests requests = new HistoryRequests();
+        NamedCallback first = new NamedCallback();
+        NamedCallback second = new NamedCallback();
+        requests.add(first);
+        String secondId = requests.add(second);
+
+        assertSame(first, requests.take(null));
+        assertSame(second, requests.take(null));
+        assertNull(requests.take(null));
+        assertNull(requests.take(secondId));
+    }
+
+    @Test
+    public void timedOutOrCancelledRequestDropsItsResponse() {
+        HistoryRequests requests = new HistoryRequests();
+        NamedCallback callback = new NamedCallback();
+        String requestId = requests.add(callback);
+
+        assertSame(callback, requests.remove(requestId));
+        assertNull(requests.remove(requestId));
+        assertNull(requests.take(requestId));
+        assertNull(requests.take("unknown"));
+    }
+
+    @Test
+    public void requestIdIsReadFromEveryWireFormat() throws Exception {
+        JSONObject response = new JSONObject().put("success", true).put("chatId", "group-42")
+                .put("messages", new JSONArray().put(new JSONObject().put("fromUid", "u").put("message", "hi").put("timestamp", 1000)))
+                .put("requestId", "r-1");
+        assertEquals("r-1", SocketManager.requestIdOf(response));
+        assertEquals("r-1", SocketManager.requestIdOf(new MsgPackMessageCodec().encode(response)));
+
+        JSONObject envelope = new JSONObject().put("encoding", HistoryCompression.ENCODING)
+                .put("data", HistoryCompression.compress(response.toString().getBytes("UTF-8")))
+                .put("requestId", "r-2");
+        assertEquals("r-2", SocketManager.requestIdOf(envelope));
+
+        response.remove("requestId");
+        assertNull(SocketManager.requestIdOf(response));
+        assertNull(SocketManager.requestIdOf(new MsgPackMessageCodec().encode(response)));
+    }
+}
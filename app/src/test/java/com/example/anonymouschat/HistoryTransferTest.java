@@ -0,0 +1,314 @@
+package com.example.anonymouschat;
+
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 以本機替身伺服器提供 50k 則訊息的歷史紀錄，量測壓縮與未壓縮時收到的位元組與解析時間。
+ * 替身伺服器依 getChatHistory 請求中的 compression 提議與歷史紀錄大小決定是否壓縮。
+ */
+public class HistoryTransferTest {
+    private static final int HISTORY_SIZE = 50000;
+
+    private HttpServer server;
+    private byte[] largeJson;
+    private byte[] largeMsgPack;
+    private byte[] smallJson;
+    private JSONArray largeMessages;
+
+    @Before
+    public void setUp() throws Exception {
+        JSONObject large = buildHistory(HISTORY_SIZE);
+        largeMessages = large.getJSONArray("messages");
+        largeJson = large.toString().getBytes(StandardCharsets.UTF_8);
+        largeMsgPack = (byte[]) new MsgPackMessageCodec().encode(large);
+        smallJson = buildHistory(10).toString().getBytes(StandardCharsets.UTF_8);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/getChatHistory", exchange -> {
+            JSONObject request;
+            try (InputStream in = exchange.getRequestBody()) {
+                request = new JSONObject(readAll(in));
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            boolean msgpack = MsgPackMessageCodec.NAME.equals(request.optString("codec"));
+            byte[] raw;
+            if (request.has("limit")) {
+                raw = page(request.optInt("limit"), request.optLong("before", -1), msgpack);
+            } else {
+                raw = request.optString("chatId").equals("small") ? smallJson : (msgpack ? largeMsgPack : largeJson);
+            }
+            JSONObject offer = request.optJSONObject("compression");
+            boolean compress = offer != null
+                    && HistoryCompression.ENCODING.equals(offer.optString("encoding"))
+                    && raw.length >= offer.optInt("minBytes", Integer.MAX_VALUE);
+            byte[] body = compress ? HistoryCompression.compress(raw) : raw;
+            if (compress) {
+                exchange.getResponseHeaders().add("Content-Encoding", HistoryCompression.ENCODING);
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    // 取 before 之前最新的 limit 則，模擬伺服器的游標分頁
+    private byte[] page(int limit, long before, boolean msgpack) throws IOException {
+        try {
+            int end = largeMessages.length();
+            if (before >= 0) {
+                while (end > 0 && largeMessages.getJSONObject(end - 1).getLong("timestamp") >= before) end--;
+            }
+            int start = Math.max(0, end - limit);
+            JSONArray slice = new JSONArray();
+            for (int i = start; i < end; i++) {
+                slice.put(largeMessages.get(i));
+            }
+            JSONObject response = new JSONObject().put("success", true).put("messages", slice).put("hasMore", start > 0);
+            if (before >= 0) response.put("before", before);
+            return msgpack ? (byte[]) new MsgPackMessageCodec().encode(response) : response.toString().getBytes(StandardCharsets.UTF_8);
+        } catch (org.json.JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Test
+    public void socketEnvelopeIsInflatedThroughTheCodec() throws Exception {
+        JSONObject history = buildHistory(500);
+        byte[] json = history.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] msgpack = (byte[]) new MsgPackMessageCodec().encode(history);
+        for (Object[] variant : new Object[][]{{JsonMessageCodec.NAME, json}, {MsgPackMessageCodec.NAME, msgpack}}) {
+            byte[] raw = (byte[]) variant[1];
+            byte[] compressed = HistoryCompression.compress(raw);
+            JSONObject envelope = new JSONObject()
+                    .put("encoding", HistoryCompression.ENCODING)
+                    .put("codec", variant[0])
+                    .put("rawLength", raw.length)
+                    .put("data", compressed);
+
+            List<List<Message>> chunks = new ArrayList<>();
+            MessageCodec.HistoryPage page = SocketManager.decodeHistory(envelope, 100, chunks::add);
+            assertTrue(page.success);
+            assertEquals(500, page.messages.size());
+            assertEquals("好啊，晚上見！", page.messages.get(0).getText());
+            assertEquals("c-499", page.messages.get(499).getClientMsgId());
+            assertEquals(5, chunks.size());
+            assertEquals(compressed.length, SocketManager.wireBytes(envelope, page));
+        }
+
+        // 未壓縮的 JSON 不重新序列化，以欄位的 UTF-8 長度估計，誤差在兩成以內
+        MessageCodec.HistoryPage plain = SocketManager.decodeHistory(history, 100, null);
+        long estimate = SocketManager.wireBytes(history, plain);
+        assertTrue("estimate " + estimate + " vs " + json.length, Math.abs(estimate - json.length) < json.length / 5);
+    }
+
+    private static JSONObject buildHistory(int size) throws Exception {
+        JSONArray messages = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            messages.put(new JSONObject()
+                    .put("chatId", "group-42")
+                    .put("fromUid", "3f2b8c1e-0000-4000-8000-" + String.format("%012d", i % 300))
+                    .put("nickname", "使用者" + (i % 300))
+                    .put("message", i % 5 == 0 ? "好啊，晚上見！" : "message " + i + " about the plan for tonight")
+                    .put("timestamp", 1700000000000L + i * 1500L)
+                    .put("clientMsgId", "c-" + i));
+        }
+        return new JSONObject().put("success", true).put("messages", messages);
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    private static class Result {
+        MessageCodec.HistoryPage page;
+        long bytesIn;
+        boolean compressed;
+        long elapsedMs;
+    }
+
+    private Result fetch(String chatId, MessageCodec codec, boolean offerCompression) throws Exception {
+        return fetch(new JSONObject().put("chatId", chatId), codec, offerCompression);
+    }
+
+    private Result fetch(JSONObject request, MessageCodec codec, boolean offerCompression) throws Exception {
+        request.put("codec", codec.name());
+        if (offerCompression) {
+            request.put("compression", HistoryCompression.offer());
+        }
+        long start = System.nanoTime();
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/getChatHistory").openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        Result result = new Result();
+        result.compressed = HistoryCompression.ENCODING.equals(conn.getHeaderField("Content-Encoding"));
+        CountingInputStream counting = new CountingInputStream(conn.getInputStream());
+        // 邊收邊解壓縮邊解析，不先把整包讀進記憶體
+        try (InputStream in = result.compressed ? HistoryCompression.inflate(counting) : counting) {
+            result.page = codec.decodeHistory(in);
+        }
+        result.elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        result.bytesIn = counting.count;
+        conn.disconnect();
+        return result;
+    }
+
+    @Test
+    public void largeHistoryIsCompressedAndDecodesFully() throws Exception {
+        for (MessageCodec codec : new MessageCodec[]{new JsonMessageCodec(), new MsgPackMessageCodec()}) {
+            Result plain = fetch("group-42", codec, false);
+            Result compressed = fetch("group-42", codec, true);
+            Benchmarks.report("%-8s plain: %d bytes in %d ms, compressed: %d bytes in %d ms",
+                    codec.name(), plain.bytesIn, plain.elapsedMs, compressed.bytesIn, compressed.elapsedMs);
+
+            assertFalse(plain.compressed);
+            assertTrue(compressed.compressed);
+            assertTrue(compressed.page.success);
+            assertEquals(HISTORY_SIZE, compressed.page.messages.size());
+            assertEquals(HISTORY_SIZE, plain.page.messages.size());
+            Message last = compressed.page.messages.get(HISTORY_SIZE - 1);
+            assertEquals("c-" + (HISTORY_SIZE - 1), last.getClientMsgId());
+            assertEquals("使用者" + ((HISTORY_SIZE - 1) % 300), last.getNickname());
+            assertTrue(compressed.bytesIn * 4 < plain.bytesIn);
+        }
+    }
+
+    @Test
+    public void smallHistoryIsSentUncompressed() throws Exception {
+        Result result = fetch("small", new JsonMessageCodec(), true);
+        assertFalse(result.compressed);
+        assertEquals(10, result.page.messages.size());
+    }
+
+    @Test
+    public void dictionaryHelpsShortPayloads() throws Exception {
+        byte[] raw = buildHistory(3).toString().getBytes(StandardCharsets.UTF_8);
+        java.util.zip.Deflater plain = new java.util.zip.Deflater(java.util.zip.Deflater.BEST_COMPRESSION, true);
+        plain.setInput(raw);
+        plain.finish();
+        byte[] buffer = new byte[raw.length * 2];
+        int plainSize = plain.deflate(buffer);
+        plain.end();
+        assertTrue(HistoryCompression.compress(raw).length < plainSize);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    @Test
+    public void measureFirstPageAgainstFullHistory() throws Exception {
+        Benchmarks.assumeEnabled();
+        MessageCodec codec = new JsonMessageCodec();
+        // 暖機
+        fetch("group-42", codec, true);
+
+        long alloc = allocatedBytes();
+        Result full = fetch("group-42", codec, true);
+        long fullAlloc = allocatedBytes() - alloc;
+
+        alloc = allocatedBytes();
+        Result first = fetch(new JSONObject().put("chatId", "group-42").put("limit", ChatViewModel.PAGE_SIZE), codec, true);
+        long pageAlloc = allocatedBytes() - alloc;
+
+        Benchmarks.report("full history: %d messages, %d bytes in, %d ms, %d KB allocated",
+                full.page.messages.size(), full.bytesIn, full.elapsedMs, fullAlloc / 1024);
+        Benchmarks.report("first page:   %d messages, %d bytes in, %d ms, %d KB allocated",
+                first.page.messages.size(), first.bytesIn, first.elapsedMs, pageAlloc / 1024);
+        assertTrue(pageAlloc * 100 < fullAlloc);
+    }
+
+    @Test
+    public void firstPageCostsFarLessThanFullHistory() throws Exception {
+        MessageCodec codec = new JsonMessageCodec();
+        Result full = fetch("group-42", codec, true);
+        Result first = fetch(new JSONObject().put("chatId", "group-42").put("limit", ChatViewModel.PAGE_SIZE), codec, true);
+
+        assertEquals(HISTORY_SIZE, full.page.messages.size());
+        assertEquals(ChatViewModel.PAGE_SIZE, first.page.messages.size());
+        assertTrue(first.page.hasMore);
+        assertEquals(-1, first.page.before);
+        assertEquals("c-" + (HISTORY_SIZE - 1), first.page.messages.get(ChatViewModel.PAGE_SIZE - 1).getClientMsgId());
+        assertTrue(first.bytesIn * 100 < full.bytesIn);
+
+        // 以最舊一則的時間為游標往前翻頁，頁與頁之間不重疊也不遺漏
+        MessageStore store = new MessageStore();
+        store.replaceAll(first.page.messages);
+        MessageCodec.HistoryPage page = first.page;
+        int pages = 1;
+        while (page.hasMore && pages < 5) {
+            long before = store.get(0).getTimestamp();
+            page = fetch(new JSONObject().put("chatId", "group-42").put("limit", ChatViewModel.PAGE_SIZE).put("before", before), codec, true).page;
+            assertEquals(before, page.before);
+            assertEquals(ChatViewModel.PAGE_SIZE, store.addOlder(page.messages));
+            pages++;
+        }
+        assertEquals(5 * ChatViewModel.PAGE_SIZE, store.size());
+        assertEquals("c-" + (HISTORY_SIZE - 5 * ChatViewModel.PAGE_SIZE), store.get(0).getClientMsgId());
+        for (int i = 1; i < store.size(); i++) {
+            assertTrue(store.get(i - 1).getTimestamp() < store.get(i).getTimestamp());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.anonymouschat;
+
+import android.content.Context;
+import android.os.Looper;
+import android.view.View;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class MessageAdapterBindTest {
+    private static final int WIDTH = 1080;
+    // 足以放下所有的列，每一列都會被排版、綁定
+    private static final int HEIGHT = 100000;
+
+    /** 只計算 RecyclerView 實際呼叫的綁定次數。 */
+    private static class CountingAdapter extends MessageAdapter {
+        int binds;
+
+        CountingAdapter(String currentUserId) {
+            super(null, currentUserId);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+            binds++;
+            super.onBindViewHolder(holder, position);
+        }
+    }
+
+    private RecyclerView recyclerView;
+    private CountingAdapter adapter;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        recyclerView = new RecyclerView(context);
+        recyclerView.setLayoutManager(new LinearLayoutManager(context));
+        // 不做動畫，變更的列不會另外建立一個 ViewHolder 做淡入淡出
+        recyclerView.setItemAnimator(null);
+        adapter = new CountingAdapter("me");
+        recyclerView.setAdapter(adapter);
+        layout();
+    }
+
+    private void layout() {
+        recyclerView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    // 比對在 AsyncListDiffer 的背景執行緒進行，結果再交回主執行緒
+    private void submit(List<Message> snapshot) throws InterruptedException {
+        CountDownLatch committed = new CountDownLatch(1);
+        adapter.updateMessages(snapshot, committed::countDown);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (committed.getCount() > 0) {
+            assertTrue("diff was not committed", System.nanoTime() < deadline);
+            shadowOf(Looper.getMainLooper()).idle();
+            committed.await(1, TimeUnit.MILLISECONDS);
+        }
+        layout();
+    }
+
+    private static Message received(long timestamp) {
+        return new Message("other", "message " + timestamp, "Alice", timestamp);
+    }
+
+    @Test
+    public void eachAppendedMessageIsBoundExactlyOnce() throws Exception {
+        MessageStore store = new MessageStore();
+        for (int i = 0; i < 30; i++) {
+            store.add(received(1000 + i));
+        }
+        submit(store.snapshot());
+        assertEquals(30, recyclerView.getChildCount());
+        assertEquals(30, adapter.binds);
+
+        for (int i = 0; i < 20; i++) {
+            adapter.binds = 0;
+            store.add(i % 2 == 0 ? received(5000 + i) : new Message("me", "reply " + i, "You", 5000 + i));
+            submit(store.snapshot());
+            assertEquals(31 + i, recyclerView.getChildCount());
+            // 改動前每次 notifyDataSetChanged 都會重新綁定畫面上所有的列
+            assertEquals("binds for message " + (31 + i), 1, adapter.binds);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.anonymouschat;
+
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageAdapterDiffTest {
+
+    /** 記錄 adapter 會收到的通知；插入與變更的列需要重新綁定，移動與移除不需要。 */
+    private static class CountingCallback implements ListUpdateCallback {
+        final List<String> events = new ArrayList<>();
+        int binds;
+
+        @Override
+        public void onInserted(int position, int count) {
+            events.add("insert " + position + "+" + count);
+            binds += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            events.add("remove " + position + "+" + count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            events.add("move " + fromPosition + "->" + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            events.add("change " + position + "+" + count);
+            binds += count;
+        }
+    }
+
+    // 與 AsyncListDiffer 在背景執行緒所做的比對相同
+    private static CountingCallback diff(List<Message> oldList, List<Message> newList) {
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldList.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newList.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return MessageAdapter.DIFF_CALLBACK.areItemsTheSame(oldList.get(oldPosition), newList.get(newPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return MessageAdapter.DIFF_CALLBACK.areContentsTheSame(oldList.get(oldPosition), newList.get(newPosition));
+            }
+        });
+        CountingCallback callback = new CountingCallback();
+        result.dispatchUpdatesTo(callback);
+        return callback;
+    }
+
+    private static Message received(long timestamp) {
+        return new Message("other", "message " + timestamp, "Alice", timestamp);
+    }
+
+    private static MessageStore storeWith(int count) {
+        MessageStore store = new MessageStore();
+        for (int i = 0; i < count; i++) {
+            store.add(received(1000 + i));
+        }
+        return store;
+    }
+
+    @Test
+    public void eachIncomingMessageBindsOnlyItsOwnRow() {
+        MessageStore store = storeWith(200);
+        List<Message> shown = store.snapshot();
+        int totalBinds = 0;
+        for (int i = 0; i < 20; i++) {
+            store.add(received(5000 + i));
+            List<Message> next = store.snapshot();
+            CountingCallback callback = diff(shown, next);
+            assertEquals(Collections.singletonList("insert " + shown.size() + "+1"), callback.events);
+            totalBinds += callback.binds;
+            shown = next;
+        }
+        // 改動前每次 notifyDataSetChanged 都會重新綁定畫面上所有的列
+        assertEquals(20, totalBinds);
+    }
+
+    @Test
+    public void echoOfOwnMessageRebindsOnlyThatRow() {
+        MessageStore store = storeWith(50);
+        store.add(new Message("me", "hi", "You", 2000, "c1", Message.State.PENDING));
+        List<Message> pending = store.snapshot();
+        store.add(received(2001));
+        List<Message> withReply = store.snapshot();
+        assertEquals(Collections.singletonList("insert 51+1"), diff(pending, withReply).events);
+
+        store.add(new Message("me", "hi", "You", 2000, "c1", Message.State.SENT));
+        CountingCallback callback = diff(withReply, store.snapshot());
+        assertEquals(Collections.singletonList("change 50+1"), callback.events);
+        assertEquals(1, callback.binds);
+        // 狀態改變後仍是同一列
+        assertEquals(MessageAdapter.stableId(withReply.get(50)), MessageAdapter.stableId(store.snapshot().get(50)));
+    }
+
+    @Test
+    public void olderPageIsOneRangeInsertAtTheTop() {
+        MessageStore store = storeWith(100);
+        List<Message> shown = store.snapshot();
+        List<Message> older = new ArrayList<>();
+        for (int i = 0; i < ChatViewModel.PAGE_SIZE; i++) {
+            older.add(received(100 + i));
+        }
+        store.addOlder(older);
+        CountingCallback callback = diff(shown, store.snapshot());
+        assertEquals(Collections.singletonList("insert 0+" + ChatViewModel.PAGE_SIZE), callback.events);
+    }
+
+    @Test
+    public void stableIdsFollowMessageIdentity() {
+        Message a = received(1000);
+        Message sameAsA = received(1000);
+        Message b = received(1001);
+        Message pending = new Message("me", "hi", "You", 2000, "c1", Message.State.PENDING);
+        assertEquals(MessageAdapter.stableId(a), MessageAdapter.stableId(sameAsA));
+        assertEquals(MessageAdapter.stableId(pending), MessageAdapter.stableId(pending.withState(Message.State.FAILED)));
+        assertNotEquals(MessageAdapter.stableId(a), MessageAdapter.stableId(b));
+        assertNotEquals(MessageAdapter.stableId(a), MessageAdapter.stableId(pending));
+        assertTrue(diff(Arrays.asList(a, b), Arrays.asList(sameAsA, b)).events.isEmpty());
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.anonymouschat;
+
+import android.content.Context;
+import android.database.Cursor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MessageCacheTest {
+    private static final String DB = "message_cache_test.db";
+    private static final int MESSAGE_COUNT = 10000;
+
+    private Context context;
+    private MessageCache cache;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(DB);
+        cache = new MessageCache(context, DB);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+        context.deleteDatabase(DB);
+    }
+
+    private static List<Message> messages(int from, int count) {
+        List<Message> list = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            list.add(new Message("u" + (i % 7), "message " + i, "n", 1000L + i, "id-" + i, Message.State.SENT));
+        }
+        return list;
+    }
+
+    @Test
+    public void coldOpenOfLargeChatReadsOnlyTheLatestPage() throws Exception {
+        cache.put("chat", messages(0, MESSAGE_COUNT));
+        cache.put("other", messages(0, 100));
+        cache.awaitWrites();
+        assertEquals(MESSAGE_COUNT, cache.count("chat"));
+        cache.close();
+
+        // 重新開啟資料庫，模擬冷啟動
+        cache = new MessageCache(context, DB);
+        List<Message> latest = cache.load("chat", -1, ChatViewModel.PAGE_SIZE);
+        List<Message> all = cache.load("chat", -1, MESSAGE_COUNT);
+
+        assertEquals(ChatViewModel.PAGE_SIZE, latest.size());
+        assertEquals(1000L + MESSAGE_COUNT - ChatViewModel.PAGE_SIZE, latest.get(0).getTimestamp());
+        assertEquals(1000L + MESSAGE_COUNT - 1, latest.get(latest.size() - 1).getTimestamp());
+        assertEquals("id-" + (MESSAGE_COUNT - 1), latest.get(latest.size() - 1).getClientMsgId());
+        assertEquals(MESSAGE_COUNT, all.size());
+    }
+
+    @Test
+    public void measureColdOpen() throws Exception {
+        Benchmarks.assumeEnabled();
+        cache.put("chat", messages(0, MESSAGE_COUNT));
+        cache.awaitWrites();
+        cache.close();
+
+        cache = new MessageCache(context, DB);
+        long start = System.nanoTime();
+        List<Message> latest = cache.load("chat", -1, ChatViewModel.PAGE_SIZE);
+        long firstPageMs = (System.nanoTime() - start) / 1_000_000;
+
+        start = System.nanoTime();
+        List<Message> all = cache.load("chat", -1, MESSAGE_COUNT);
+        long fullMs = (System.nanoTime() - start) / 1_000_000;
+        Benchmarks.report("Cold open: latest %d in %dms, all %d in %dms", latest.size(), firstPageMs, all.size(), fullMs);
+        assertTrue("first page took " + firstPageMs + "ms", firstPageMs < 500);
+    }
+
+    @Test
+    public void pagesBackwardsByTimestamp() throws Exception {
+        cache.put("chat", messages(0, 120));
+        cache.awaitWrites();
+
+        List<Message> latest = cache.load("chat", -1, 50);
+        List<Message> older = cache.load("chat", latest.get(0).getTimestamp(), 50);
+        List<Message> oldest = cache.load("chat", older.get(0).getTimestamp(), 50);
+
+        // 游標包含 before 本身，每頁的最後一則與上一頁的第一則重複
+        assertEquals(1070, latest.get(0).getTimestamp());
+        assertEquals(1021, older.get(0).getTimestamp());
+        assertEquals(1070, older.get(older.size() - 1).getTimestamp());
+        assertEquals(22, oldest.size());
+        assertEquals(1000, oldest.get(0).getTimestamp());
+    }
+
+    @Test
+    public void messagesSharingTheCursorMillisecondAreNotSkipped() throws Exception {
+        List<Message> list = messages(0, 60);
+        // 與第 10 則同一毫秒，兩則落在兩頁的交界，最新一頁只裝得下其中一則
+        list.add(new Message("u", "same millisecond", "n", 1010L, "same", Message.State.SENT));
+        cache.put("chat", list);
+        cache.awaitWrites();
+
+        List<Message> latest = cache.load("chat", -1, 50);
+        assertEquals(1010, latest.get(0).getTimestamp());
+        assertEquals(1011, latest.get(1).getTimestamp());
+        List<Message> older = cache.load("chat", 1010, 50);
+        List<String> texts = new ArrayList<>();
+        for (Message m : older) texts.add(m.getText());
+        assertTrue(texts.contains("same millisecond"));
+        assertTrue(texts.contains("message 10"));
+    }
+
+    @Test
+    public void duplicatesAndPendingMessagesAreNotStored() throws Exception {
+        cache.put("chat", messages(0, 10));
+        cache.put("chat", messages(5, 10));
+        List<Message> mixed = new ArrayList<>();
+        mixed.add(new Message("u", "legacy", "n", 5000));
+        mixed.add(new Message("u", "legacy", "n", 5000));
+        mixed.add(new Message("u", "pending", "n", 6000, "p-1", Message.State.PENDING));
+        mixed.add(new Message("system", "joined", "System", 7000));
+        cache.put("chat", mixed);
+        cache.awaitWrites();
+
+        assertEquals(16, cache.count("chat"));
+        assertEquals("legacy", cache.load("chat", -1, 1).get(0).getText());
+    }
+
+    @Test
+    public void usesWriteAheadLogging() {
+        try (Cursor cursor = cache.getReadableDatabase().rawQuery("PRAGMA journal_mode", null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("wal", cursor.getString(0).toLowerCase());
+        }
+    }
+}
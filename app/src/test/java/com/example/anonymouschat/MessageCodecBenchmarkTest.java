@@ -0,0 +1,99 @@
+package com.example.anonymouschat;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 比較 JSON 與 MessagePack 在代表性歷史紀錄上的封包大小、解析時間與配置量。
+ */
+public class MessageCodecBenchmarkTest {
+    private static final int HISTORY_SIZE = 20000;
+    private static final int ROUNDS = 5;
+
+    private static JSONObject buildHistory(int size) throws Exception {
+        JSONArray messages = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            messages.put(new JSONObject()
+                    .put("chatId", "group-42")
+                    .put("fromUid", "3f2b8c1e-0000-4000-8000-" + String.format("%012d", i % 300))
+                    .put("nickname", "使用者" + (i % 300))
+                    .put("message", i % 7 == 0 ? "今天晚上要一起吃飯嗎？" : "message number " + i + " with some ordinary chat text")
+                    .put("timestamp", 1700000000000L + i * 1000L)
+                    .put("clientMsgId", "c-" + i));
+        }
+        return new JSONObject().put("success", true).put("messages", messages);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    @Test
+    public void compareJsonAndMsgPackHistoryDecoding() throws Exception {
+        JSONObject history = buildHistory(HISTORY_SIZE);
+        String jsonText = history.toString();
+        byte[] jsonBytes = jsonText.getBytes(StandardCharsets.UTF_8);
+        byte[] msgpackBytes = (byte[]) new MsgPackMessageCodec().encode(history);
+
+        JsonMessageCodec json = new JsonMessageCodec();
+        MsgPackMessageCodec msgpack = new MsgPackMessageCodec();
+
+        List<Message> fromJson = null;
+        List<Message> fromMsgPack = null;
+        long jsonNanos = Long.MAX_VALUE, msgpackNanos = Long.MAX_VALUE;
+        long jsonAlloc = 0, msgpackAlloc = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long alloc = allocatedBytes();
+            long start = System.nanoTime();
+            fromJson = json.decodeHistory(jsonBytes).messages;
+            jsonNanos = Math.min(jsonNanos, System.nanoTime() - start);
+            jsonAlloc = allocatedBytes() - alloc;
+
+            alloc = allocatedBytes();
+            start = System.nanoTime();
+            fromMsgPack = msgpack.decodeHistory(msgpackBytes).messages;
+            msgpackNanos = Math.min(msgpackNanos, System.nanoTime() - start);
+            msgpackAlloc = allocatedBytes() - alloc;
+        }
+
+        Benchmarks.report("json:    %d bytes, %.2f ms, %d KB allocated", jsonBytes.length, jsonNanos / 1e6, jsonAlloc / 1024);
+        Benchmarks.report("msgpack: %d bytes, %.2f ms, %d KB allocated", msgpackBytes.length, msgpackNanos / 1e6, msgpackAlloc / 1024);
+
+        assertEquals(HISTORY_SIZE, fromJson.size());
+        assertEquals(HISTORY_SIZE, fromMsgPack.size());
+        for (int i = 0; i < HISTORY_SIZE; i += 997) {
+            assertEquals(fromJson.get(i).getText(), fromMsgPack.get(i).getText());
+            assertEquals(fromJson.get(i).getNickname(), fromMsgPack.get(i).getNickname());
+            assertEquals(fromJson.get(i).getTimestamp(), fromMsgPack.get(i).getTimestamp());
+            assertEquals(fromJson.get(i).getClientMsgId(), fromMsgPack.get(i).getClientMsgId());
+        }
+        assertTrue(msgpackBytes.length < jsonBytes.length);
+    }
+
+    @Test
+    public void msgPackRoundTripsChatPayload() throws Exception {
+        JSONObject payload = new JSONObject()
+                .put("chatId", "c1")
+                .put("fromUid", "u1")
+                .put("message", "哈囉")
+                .put("timestamp", 1700000000123L)
+                .put("nested", new JSONObject().put("flag", true).put("list", new JSONArray().put(1).put("two")));
+        MsgPackMessageCodec codec = new MsgPackMessageCodec();
+        JSONObject decoded = codec.decode(codec.encode(payload));
+        assertEquals("哈囉", decoded.getString("message"));
+        assertEquals(1700000000123L, decoded.getLong("timestamp"));
+        assertTrue(decoded.getJSONObject("nested").getBoolean("flag"));
+        assertEquals("two", decoded.getJSONObject("nested").getJSONArray("list").getString(1));
+    }
+}
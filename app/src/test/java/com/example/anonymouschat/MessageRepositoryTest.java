@@ -0,0 +1,149 @@
+package com.example.anonymouschat;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageRepositoryTest {
+    private static final String SELF = "me";
+
+    private final List<Runnable> frames = new ArrayList<>();
+    private final List<List<MessageRepository.ChatSummary>> published = new ArrayList<>();
+    private final TestOwner owner = new TestOwner();
+    private MessageRepository repository;
+
+    /** 只記錄觀察者、可手動銷毀的 Lifecycle。 */
+    private static class TestOwner extends Lifecycle implements LifecycleOwner {
+        final List<LifecycleObserver> observers = new ArrayList<>();
+        State state = State.RESUMED;
+
+        @Override
+        public Lifecycle getLifecycle() {
+            return this;
+        }
+
+        @Override
+        public void addObserver(LifecycleObserver observer) {
+            observers.add(observer);
+        }
+
+        @Override
+        public void removeObserver(LifecycleObserver observer) {
+            observers.remove(observer);
+        }
+
+        @Override
+        public State getCurrentState() {
+            return state;
+        }
+
+        void destroy() {
+            state = State.DESTROYED;
+            for (LifecycleObserver observer : new ArrayList<>(observers)) {
+                ((LifecycleEventObserver) observer).onStateChanged(this, Event.ON_DESTROY);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        repository = new MessageRepository(frames::add);
+        repository.setUid(SELF);
+        repository.observeChats(owner, published::add);
+    }
+
+    private void frame() {
+        List<Runnable> toRun = new ArrayList<>(frames);
+        frames.clear();
+        for (Runnable r : toRun) r.run();
+    }
+
+    private static SocketManager.ChatEvent event(String chatId, String fromUid, String text, long timestamp) throws Exception {
+        JSONObject data = new JSONObject().put("chatId", chatId).put("fromUid", fromUid)
+                .put("nickname", "n").put("message", text).put("timestamp", timestamp);
+        return new SocketManager.ChatEvent("chatMessage", data);
+    }
+
+    @Test
+    public void burstAcrossChatsIsPublishedOncePerFrameWithLatestState() throws Exception {
+        repository.putChats(Arrays.asList(
+                new MessageRepository.ChatSummary("a", "private", "Alice", null, 0),
+                new MessageRepository.ChatSummary("b", "group", "Team", null, 0)));
+        frame();
+        published.clear();
+
+        repository.onChatEvents("a", Arrays.asList(event("a", "alice", "hi", 10), event("a", "alice", "there", 20)));
+        repository.onChatEvents("b", Collections.singletonList(event("b", "bob", "standup?", 15)));
+        repository.onChatEvents("a", Collections.singletonList(event("a", SELF, "hello", 30)));
+        assertTrue(published.isEmpty());
+        frame();
+
+        assertEquals(1, published.size());
+        List<MessageRepository.ChatSummary> changed = published.get(0);
+        assertEquals(2, changed.size());
+        assertEquals("a", changed.get(0).chatId);
+        assertEquals("hello", changed.get(0).getLastMessageText());
+        // 自己發出的訊息不算未讀
+        assertEquals(2, changed.get(0).unreadCount);
+        assertEquals("Team", changed.get(1).name);
+        assertEquals(1, changed.get(1).unreadCount);
+    }
+
+    @Test
+    public void openChatReceivesMessagesWithoutCountingUnread() throws Exception {
+        repository.onChatEvents("a", Collections.singletonList(event("a", "alice", "first", 10)));
+        assertEquals(1, repository.getChat("a").unreadCount);
+
+        List<Message> received = new ArrayList<>();
+        MessageRepository.MessageListener listener = (chatId, messages) -> received.addAll(messages);
+        repository.addMessageListener("a", listener);
+        assertEquals(0, repository.getChat("a").unreadCount);
+
+        repository.onChatEvents("a", Collections.singletonList(event("a", "alice", "second", 20)));
+        assertEquals(1, received.size());
+        assertEquals("second", received.get(0).getText());
+        assertEquals(0, repository.getChat("a").unreadCount);
+
+        repository.removeMessageListener("a", listener);
+        repository.onChatEvents("a", Collections.singletonList(event("a", "alice", "third", 30)));
+        assertEquals(1, received.size());
+        assertEquals(1, repository.getChat("a").unreadCount);
+    }
+
+    @Test
+    public void serverListKeepsNewerLocalMessageAndUnreadCount() throws Exception {
+        repository.onChatEvents("a", Collections.singletonList(event("a", "alice", "live", 50)));
+        repository.onChatEvents("b", Collections.singletonList(event("b", "bob", "old", 5)));
+
+        List<MessageRepository.ChatSummary> merged = repository.putChats(Arrays.asList(
+                new MessageRepository.ChatSummary("a", "private", "Alice", new Message("alice", "stale", "n", 40), 0),
+                new MessageRepository.ChatSummary("b", "group", "Team", new Message("bob", "newer", "n", 60), 0),
+                new MessageRepository.ChatSummary("c", "group", "New", null, 0)));
+
+        assertEquals("live", merged.get(0).getLastMessageText());
+        assertEquals(1, merged.get(0).unreadCount);
+        assertEquals("Alice", merged.get(0).name);
+        assertEquals("newer", merged.get(1).getLastMessageText());
+        assertEquals(1, merged.get(1).unreadCount);
+        assertNull(merged.get(2).lastMessage);
+    }
+
+    @Test
+    public void observerIsRemovedWhenOwnerIsDestroyed() throws Exception {
+        owner.destroy();
+        repository.onChatEvents("a", Collections.singletonList(event("a", "alice", "hi", 10)));
+        frame();
+        assertTrue(published.isEmpty());
+    }
+}
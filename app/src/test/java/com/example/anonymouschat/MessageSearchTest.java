@@ -0,0 +1,173 @@
+package com.example.anonymouschat;
+
+import android.content.Context;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 本機全文搜尋的正確性；索引 1M 則訊息的速度與查詢延遲只在開啟 benchmarks 時量測。
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MessageSearchTest {
+    private static final String DB = "message_search_test.db";
+    private static final int BENCHMARK_MESSAGES = Integer.getInteger("search.benchmark.messages", 1000000);
+    private static final int BATCH = 20000;
+    private static final String[] PHRASES = {
+            "今天晚上要一起吃飯嗎", "我剛到家了", "明天早上開會記得帶電腦", "這部電影很好看", "週末去爬山",
+            "see you tomorrow", "the build is green again", "lunch at noon?", "好的沒問題", "哈哈哈"
+    };
+
+    private Context context;
+    private MessageCache cache;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(DB);
+        cache = new MessageCache(context, DB);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+        context.deleteDatabase(DB);
+    }
+
+    private static Message message(long timestamp, String text) {
+        return new Message("u" + (timestamp % 5), text, "n", timestamp, "id-" + timestamp, Message.State.SENT);
+    }
+
+    @Test
+    public void findsChineseAndLatinTextNewestFirst() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        messages.add(message(1000, "今天晚上要一起吃飯嗎？"));
+        messages.add(message(2000, "晚上見"));
+        messages.add(message(3000, "Meeting moved to Friday"));
+        messages.add(message(4000, "吃飯了沒"));
+        cache.put("chat", messages);
+        cache.put("other", message(5000, "晚上吃什麼"));
+        cache.put("chat", message(1000, "今天晚上要一起吃飯嗎？"));
+        cache.awaitWrites();
+
+        assertEquals(timestamps(2000, 1000), timestamps(cache.search("晚上", "chat", 10)));
+        assertEquals(timestamps(5000, 2000, 1000), timestamps(cache.search("晚上", null, 10)));
+        assertEquals(timestamps(4000, 1000), timestamps(cache.search("吃飯", "chat", 10)));
+        assertEquals(timestamps(1000), timestamps(cache.search("一起吃飯", "chat", 10)));
+        assertEquals(timestamps(2000), timestamps(cache.search("見", "chat", 10)));
+        assertEquals(timestamps(3000), timestamps(cache.search("meet", "chat", 10)));
+        assertTrue(cache.search("晚飯", "chat", 10).isEmpty());
+        assertTrue(cache.search("？", "chat", 10).isEmpty());
+
+        MessageCache.SearchHit hit = cache.search("friday", null, 10).get(0);
+        assertEquals("chat", hit.chatId);
+        assertEquals("Meeting moved to Friday", hit.message.getText());
+        assertEquals("id-3000", hit.message.getClientMsgId());
+    }
+
+    @Test
+    public void clearRemovesChatFromIndex() throws Exception {
+        cache.put("chat", message(1000, "晚上見"));
+        cache.put("other", message(2000, "晚上見"));
+        cache.awaitWrites();
+        cache.clear("chat");
+        cache.awaitWrites();
+
+        assertEquals(timestamps(2000), timestamps(cache.search("晚上", null, 10)));
+    }
+
+    @Test
+    public void olderPagesCachedLaterAreStillSortedByTime() throws Exception {
+        cache.put("chat", message(5000, "晚上見"));
+        cache.put("chat", message(6000, "晚上吃什麼"));
+        cache.awaitWrites();
+        // 往回翻頁取得的較舊訊息之後才寫入快取
+        cache.put("chat", message(1000, "今天晚上要一起吃飯嗎？"));
+        cache.put("chat", message(2000, "晚上不行"));
+        cache.awaitWrites();
+
+        assertEquals(timestamps(6000, 5000, 2000, 1000), timestamps(cache.search("晚上", "chat", 10)));
+        // 超過 limit 時取時間最新的幾筆，而不是最後寫入的舊訊息
+        assertEquals(timestamps(6000, 5000), timestamps(cache.search("晚上", "chat", 2)));
+        assertEquals(timestamps(6000, 5000), timestamps(cache.search("晚上", null, 2)));
+    }
+
+    @Test
+    public void messagesInTheSameMillisecondAreAllCachedAndFound() throws Exception {
+        List<Message> burst = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            burst.add(new Message("u" + i, "晚上 " + i, "n", 3000, "c-" + i, Message.State.SENT));
+        }
+        cache.put("chat", burst);
+        cache.put("other", message(3000, "晚上見"));
+        cache.awaitWrites();
+
+        assertEquals(5, cache.count("chat"));
+        assertEquals(6, cache.search("晚上", null, 10).size());
+        // 同一則訊息再次寫入不會佔用新的 id
+        cache.put("chat", burst);
+        cache.awaitWrites();
+        assertEquals(5, cache.count("chat"));
+    }
+
+    @Test
+    public void benchmarkIndexingAndQueryLatency() throws Exception {
+        Benchmarks.assumeEnabled();
+        Random random = new Random(42);
+        long indexNanos = 0;
+        for (int from = 0; from < BENCHMARK_MESSAGES; from += BATCH) {
+            List<Message> batch = new ArrayList<>(BATCH);
+            for (int i = from; i < Math.min(BENCHMARK_MESSAGES, from + BATCH); i++) {
+                // 每一萬則有一則含罕見詞
+                String text = i % 10000 == 1234 ? "訂位確認 reservation #" + i : PHRASES[random.nextInt(PHRASES.length)] + " " + i;
+                batch.add(message(1_000_000L + i, text));
+            }
+            long start = System.nanoTime();
+            cache.put("chat-" + (from / BATCH % 10), batch);
+            cache.awaitWrites();
+            indexNanos += System.nanoTime() - start;
+        }
+        double indexSeconds = indexNanos / 1e9;
+        Benchmarks.report("Indexed %d messages in %.1fs (%.0f messages/s)",
+                BENCHMARK_MESSAGES, indexSeconds, BENCHMARK_MESSAGES / indexSeconds);
+
+        String[][] queries = {{"訂位", null}, {"reserv", null}, {"訂位確認", "chat-3"}, {"爬山", null}, {"晚上", "chat-1"}, {"green", null}};
+        for (String[] query : queries) {
+            cache.search(query[0], query[1], 50);
+        }
+        for (String[] query : queries) {
+            int runs = 20;
+            int found = 0;
+            long start = System.nanoTime();
+            for (int r = 0; r < runs; r++) {
+                found = cache.search(query[0], query[1], 50).size();
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / runs;
+            Benchmarks.report("query %-6s in %-6s: %2d hit(s), %.2fms", query[0], query[1] == null ? "all" : query[1], found, ms);
+            assertTrue(found > 0);
+        }
+        List<MessageCache.SearchHit> rare = cache.search("訂位", null, 1000);
+        assertEquals(BENCHMARK_MESSAGES / 10000, rare.size());
+    }
+
+    private static List<Long> timestamps(long... values) {
+        List<Long> list = new ArrayList<>();
+        for (long v : values) list.add(v);
+        return list;
+    }
+
+    private static List<Long> timestamps(List<MessageCache.SearchHit> hits) {
+        List<Long> list = new ArrayList<>();
+        for (MessageCache.SearchHit hit : hits) list.add(hit.message.getTimestamp());
+        return list;
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.anonymouschat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class MessageStoreTest {
+
+    private static Message message(long timestamp, String clientMsgId) {
+        return new Message("u", "m" + timestamp, "n", timestamp, clientMsgId, Message.State.SENT);
+    }
+
+    @Test
+    public void keepsTimestampOrderForOutOfOrderInserts() {
+        MessageStore store = new MessageStore();
+        for (long ts : new long[]{10, 30, 20, 5, 40, 25}) {
+            store.add(message(ts, null));
+        }
+        // 同一毫秒的另一則訊息排在既有訊息之後
+        store.add(new Message("v", "also 30", "n", 30, null, Message.State.SENT));
+        List<Message> snapshot = store.snapshot();
+        long[] expected = {5, 10, 20, 25, 30, 30, 40};
+        assertEquals(expected.length, snapshot.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], snapshot.get(i).getTimestamp());
+        }
+        assertEquals("also 30", snapshot.get(5).getText());
+    }
+
+    @Test
+    public void snapshotsAreNotAffectedByLaterWrites() {
+        MessageStore store = new MessageStore();
+        store.add(message(10, null));
+        store.add(message(20, null));
+        List<Message> before = store.snapshot();
+
+        store.add(message(30, null));
+        store.add(message(15, null));
+        for (int i = 0; i < 200; i++) {
+            store.add(message(100 + i, null));
+        }
+
+        assertEquals(2, before.size());
+        assertEquals(10, before.get(0).getTimestamp());
+        assertEquals(20, before.get(1).getTimestamp());
+        assertEquals(204, store.snapshot().size());
+        assertEquals(15, store.snapshot().get(1).getTimestamp());
+        try {
+            before.add(message(1, null));
+            fail();
+        } catch (UnsupportedOperationException expected) {
+            // 快照不可修改
+        }
+    }
+
+    @Test
+    public void echoOfOptimisticMessageOnlyUpdatesState() {
+        MessageStore store = new MessageStore();
+        Message pending = new Message("me", "hi", "You", 100, "c1", Message.State.PENDING);
+        assertTrue(store.add(pending));
+        List<Message> first = store.snapshot();
+
+        assertTrue(store.add(message(105, "c1")));
+        assertEquals(1, store.size());
+        assertEquals(Message.State.SENT, store.get(0).getState());
+        assertNotSame(first, store.snapshot());
+        // 先前的快照不受影響，畫面比對差異時才看得出狀態變了
+        assertEquals(Message.State.PENDING, first.get(0).getState());
+
+        assertFalse(store.add(message(105, "c1")));
+        assertSame(store.snapshot(), store.snapshot());
+    }
+
+    @Test
+    public void replaceAllSortsAndRebuildsIndex() {
+        MessageStore store = new MessageStore();
+        store.add(message(1, "old"));
+        store.replaceAll(new ArrayList<>(Arrays.asList(message(30, "a"), message(10, "b"), message(20, null))));
+        assertNull(store.findByClientMsgId("old"));
+        assertNotNull(store.findByClientMsgId("a"));
+        assertEquals(10, store.get(0).getTimestamp());
+        assertEquals(30, store.get(2).getTimestamp());
+        assertTrue(store.updateState("b", Message.State.FAILED));
+        assertFalse(store.updateState("b", Message.State.FAILED));
+    }
+
+    /**
+     * 每則新訊息的成本（加入 + 發佈快照）不應隨既有訊息數量增加；舊做法（複製整個清單再排序）的成本列出做為對照。
+     * 只在開啟 benchmarks 時執行。
+     */
+    @Test
+    public void perMessageCostBenchmark() {
+        Benchmarks.assumeEnabled();
+        int[] sizes = {100, 1000, 10000, 100000};
+        int perRound = 2000;
+        double[] nanosPerMessage = new double[sizes.length];
+        for (int round = 0; round < 2; round++) {
+            for (int s = 0; s < sizes.length; s++) {
+                MessageStore store = new MessageStore();
+                List<Message> history = new ArrayList<>(sizes[s]);
+                for (int i = 0; i < sizes[s]; i++) {
+                    history.add(message(i, "h" + i));
+                }
+                store.replaceAll(history);
+                long start = System.nanoTime();
+                for (int i = 0; i < perRound; i++) {
+                    store.add(message(sizes[s] + i, "n" + i));
+                    List<Message> published = store.snapshot();
+                    assertEquals(sizes[s] + i + 1, published.size());
+                }
+                nanosPerMessage[s] = (System.nanoTime() - start) / (double) perRound;
+            }
+        }
+        for (int s = 0; s < sizes.length; s++) {
+            Benchmarks.report("store: %6d messages, %8.0f ns/message", sizes[s], nanosPerMessage[s]);
+        }
+
+        List<Message> list = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            list.add(message(i, null));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < 200; i++) {
+            List<Message> copy = new ArrayList<>(list);
+            copy.add(message(10000 + i, null));
+            Collections.sort(copy, (a, b) -> Long.compare(a.getTimestamp(), b.getTimestamp()));
+            list = copy;
+        }
+        Benchmarks.report("copy+sort: %6d messages, %8.0f ns/message", 10000, (System.nanoTime() - start) / 200.0);
+
+        // 寬鬆的上限，只擋住隨訊息數量成長的退化
+        assertTrue("100k cost " + nanosPerMessage[3] + " vs 100 cost " + nanosPerMessage[0],
+                nanosPerMessage[3] < Math.max(nanosPerMessage[0], 1000) * 10);
+    }
+
+    @Test
+    public void evictOldestKeepsUnsentMessagesAndSnapshots() {
+        MessageStore store = new MessageStore();
+        for (int i = 0; i < 10; i++) {
+            store.add(message(i, "c" + i));
+        }
+        store.add(new Message("u", "pending", "n", 10, "p", Message.State.PENDING));
+        store.add(message(11, "c11"));
+        List<Message> before = store.snapshot();
+
+        assertEquals(4, store.evictOldest(4));
+        assertEquals(8, store.size());
+        assertEquals(4, store.get(0).getTimestamp());
+        assertNull(store.findByClientMsgId("c0"));
+        assertFalse(store.contains(message(0, "c0")));
+        assertEquals(12, before.size());
+        assertEquals(0, before.get(0).getTimestamp());
+
+        // 尚未送出的訊息不移出
+        assertEquals(6, store.evictOldest(7));
+        assertEquals(2, store.size());
+        assertEquals("pending", store.get(0).getText());
+        assertEquals(0, store.evictOldest(1));
+    }
+
+    @Test
+    public void identicalMessagesWithoutClientMsgIdAreStoredOnce() {
+        MessageStore store = new MessageStore();
+        store.add(message(1000, null));
+        assertFalse(store.add(message(1000, null)));
+        // 同一毫秒但內容不同的訊息仍是不同的訊息
+        assertTrue(store.add(new Message("u", "other", "n", 1000, null, Message.State.SENT)));
+        assertEquals(2, store.size());
+
+        assertEquals(1, store.addOlder(Arrays.asList(message(500, null), message(500, null), message(1000, null))));
+        assertEquals(3, store.size());
+
+        store.replaceAll(Arrays.asList(message(1, null), message(2, null), message(1, null), message(2, "c2"), message(2, "c2")));
+        assertEquals(3, store.size());
+        Set<Long> ids = new HashSet<>();
+        for (Message m : store.snapshot()) {
+            assertTrue(ids.add(MessageAdapter.stableId(m)));
+        }
+    }
+
+    @Test
+    public void failedMessageAtTheFrontDoesNotBlockEviction() {
+        MessageStore store = new MessageStore();
+        store.add(new Message("u", "failed", "n", 0, "f", Message.State.FAILED));
+        for (int i = 1; i <= 10; i++) {
+            store.add(message(i, "c" + i));
+        }
+        assertEquals(1, store.oldestSentIndex());
+
+        assertEquals(5, store.evictOldest(6));
+        assertEquals(6, store.size());
+        assertEquals("failed", store.get(0).getText());
+        assertSame(store.get(0), store.findByClientMsgId("f"));
+        assertEquals(6, store.get(1).getTimestamp());
+        assertNull(store.findByClientMsgId("c5"));
+        assertEquals(1, store.oldestSentIndex());
+
+        // 之後的視窗縮減仍會移出後面已送出的訊息
+        assertEquals(2, store.evictOldest(3));
+        assertEquals(4, store.size());
+        assertEquals(8, store.get(1).getTimestamp());
+        assertEquals(store.size(), store.indexAtOrAfter(11));
+    }
+
+    @Test
+    public void windowStaysBoundedRegardlessOfChatLength() {
+        MessageStore store = new MessageStore();
+        int window = 300;
+        for (int i = 0; i < 100000; i++) {
+            store.add(message(i, i % 2 == 0 ? "c" + i : null));
+            if (store.size() > window + 50) {
+                store.evictOldest(store.size() - window);
+            }
+            store.snapshot();
+        }
+        assertTrue(store.size() <= window + 50);
+        assertEquals(99999, store.get(store.size() - 1).getTimestamp());
+        assertEquals(store.size() - 1, store.indexAtOrAfter(99999));
+        assertEquals(store.size(), store.indexAtOrAfter(100000));
+    }
+}
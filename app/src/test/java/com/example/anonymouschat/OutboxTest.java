@@ -0,0 +1,229 @@
+package com.example.anonymouschat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OutboxTest {
+    private File dir;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("outbox").toFile();
+        journalFile = new File(dir, "outbox.journal");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * 模擬本機 Socket.IO 伺服器：在自己的執行緒上收訊息並回 ack，
+     * kill() 會中斷連線並丟棄尚未送出的 ack。
+     */
+    static class StandInServer implements Outbox.Transport {
+        final ExecutorService network = Executors.newSingleThreadExecutor();
+        final List<String> received = new ArrayList<>();
+        final Set<String> ackedIds = new LinkedHashSet<>();
+        final List<String> resentAfterAck = new ArrayList<>();
+        volatile boolean connected = true;
+        volatile int connection = 0;
+        volatile int killAfter = -1;
+        // 之後這麼多則訊息收到了但 ack 遺失，連線仍保持
+        volatile int dropAcks = 0;
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void emit(String id, String event, String payload, Runnable onAck) {
+            int sentOn = connection;
+            network.execute(() -> {
+                if (!connected || sentOn != connection) return;
+                synchronized (this) {
+                    if (ackedIds.contains(id)) resentAfterAck.add(id);
+                    received.add(id);
+                    if (killAfter >= 0 && received.size() >= killAfter) {
+                        killAfter = -1;
+                        connected = false;
+                        connection++;
+                        return;
+                    }
+                    if (dropAcks > 0) {
+                        dropAcks--;
+                        return;
+                    }
+                    ackedIds.add(id);
+                }
+                onAck.run();
+            });
+        }
+
+        void reconnect() {
+            connection++;
+            connected = true;
+        }
+
+        synchronized List<String> uniqueReceived() {
+            return new ArrayList<>(new LinkedHashSet<>(received));
+        }
+    }
+
+    @Test
+    public void killMidBurst_nothingLostOrResentAfterAck() throws Exception {
+        StandInServer server = new StandInServer();
+        server.killAfter = 57;
+        Outbox outbox = new Outbox(new OutboxJournal(journalFile), server);
+
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String id = "msg-" + i;
+            sent.add(id);
+            outbox.enqueue(id, "groupMessage", "{\"clientMsgId\":\"" + id + "\"}");
+        }
+        waitFor(() -> !server.connected);
+        outbox.onDisconnected();
+        outbox.awaitIdle();
+
+        server.reconnect();
+        outbox.onConnected();
+        waitFor(() -> outbox.pendingCount() == 0);
+
+        assertEquals(sent, server.uniqueReceived());
+        assertTrue("acked messages must not be replayed: " + server.resentAfterAck, server.resentAfterAck.isEmpty());
+        server.network.shutdownNow();
+    }
+
+    @Test
+    public void lostAcksAreResentWithoutWaitingForReconnect() throws Exception {
+        StandInServer server = new StandInServer();
+        // 比同時等待 ack 的上限還多，改動前整個佇列會停住
+        server.dropAcks = 20;
+        Outbox outbox = new Outbox(new OutboxJournal(journalFile), server, 200);
+
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String id = "msg-" + i;
+            sent.add(id);
+            outbox.enqueue(id, "groupMessage", "{\"clientMsgId\":\"" + id + "\"}");
+        }
+        outbox.awaitIdle();
+        waitFor(() -> outbox.pendingCount() == 0);
+
+        assertTrue(server.connected);
+        assertEquals(0, server.connection);
+        assertEquals(sent, server.uniqueReceived());
+        assertTrue("acked messages must not be replayed: " + server.resentAfterAck, server.resentAfterAck.isEmpty());
+        server.network.shutdownNow();
+    }
+
+    @Test
+    public void pendingMessagesSurviveProcessDeath() throws Exception {
+        StandInServer server = new StandInServer();
+        server.connected = false;
+        Outbox outbox = new Outbox(new OutboxJournal(journalFile), server);
+        for (int i = 0; i < 10; i++) {
+            outbox.enqueue("msg-" + i, "chatMessage", "{\"message\":\"hello " + i + "\"}");
+        }
+        outbox.awaitIdle();
+        Thread.sleep(200);
+        outbox.awaitIdle();
+
+        OutboxJournal reopened = new OutboxJournal(journalFile);
+        List<OutboxJournal.Entry> pending = reopened.pending();
+        assertEquals(10, pending.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("msg-" + i, pending.get(i).getId());
+            assertEquals("{\"message\":\"hello " + i + "\"}", pending.get(i).getPayload());
+        }
+    }
+
+    @Test
+    public void journalCompactsAcknowledgedRecords() throws Exception {
+        OutboxJournal journal = new OutboxJournal(journalFile);
+        for (int i = 0; i < 1000; i++) {
+            journal.append("msg-" + i, "chatMessage", "{}");
+            journal.ack("msg-" + i);
+        }
+        journal.append("last", "chatMessage", "{}");
+        journal.close();
+
+        assertTrue(journalFile.length() < 1000 * 10);
+        OutboxJournal reopened = new OutboxJournal(journalFile);
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.contains("last"));
+    }
+
+    @Test
+    public void tornLastRecordIsDroppedAndNotGluedToTheNextAppend() throws Exception {
+        OutboxJournal journal = new OutboxJournal(journalFile);
+        journal.append("ok", "chatMessage", "{\"message\":\"hi\"}");
+        journal.close();
+        // 寫到一半被終止：欄位數仍完整，但 payload 只寫了一部分
+        try (java.io.FileOutputStream out = new java.io.FileOutputStream(journalFile, true)) {
+            out.write("A\ttorn\tchatMessage\t{\"mess".getBytes("UTF-8"));
+        }
+
+        OutboxJournal reopened = new OutboxJournal(journalFile);
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.contains("ok"));
+        reopened.append("next", "chatMessage", "{}");
+        reopened.close();
+
+        OutboxJournal again = new OutboxJournal(journalFile);
+        assertEquals(2, again.size());
+        assertTrue(again.contains("next"));
+        assertFalse(again.contains("torn"));
+    }
+
+    @Test
+    public void recordWithCorruptPayloadIsNotReplayed() throws Exception {
+        Files.write(journalFile.toPath(), "A\tbad\tchatMessage\t{not json\nA\tgood\tchatMessage\t{}\n".getBytes("UTF-8"));
+        OutboxJournal journal = new OutboxJournal(journalFile);
+        assertEquals(1, journal.size());
+        assertTrue(journal.contains("good"));
+    }
+
+    @Test
+    public void inMemoryJournalKeepsPendingWithoutAFile() throws Exception {
+        OutboxJournal journal = OutboxJournal.inMemory();
+        journal.append("a", "chatMessage", "{}");
+        journal.append("b", "chatMessage", "{}");
+        assertTrue(journal.ack("a"));
+        journal.sync();
+        assertEquals(1, journal.size());
+        assertTrue(journal.contains("b"));
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.met()) {
+            if (System.nanoTime() > deadline) fail("Timed out waiting for condition");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.anonymouschat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PendingHistoryTest {
+    // 模擬的 ChatActivity 啟動與 ViewModel 建立時間、伺服器往返時間
+    private static final long LAUNCH_MS = 150;
+    private static final long ROUND_TRIP_MS = 200;
+
+    private static MessageCodec.HistoryPage page(String chatId) {
+        List<Message> messages = Collections.singletonList(new Message("u", "hi", "n", 1000));
+        return new MessageCodec.HistoryPage(true, null, messages, false, -1, -1, chatId);
+    }
+
+    /** 記錄回呼次數，並在收到結果時放行。 */
+    private static class RecordingCallback implements SocketManager.HistoryCallback {
+        final List<List<Message>> chunks = new ArrayList<>();
+        final List<MessageCodec.HistoryPage> pages = new ArrayList<>();
+        final List<Exception> errors = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onChunk(List<Message> chunk) {
+            chunks.add(chunk);
+        }
+
+        @Override
+        public synchronized void onHistory(MessageCodec.HistoryPage page) {
+            pages.add(page);
+            done.countDown();
+        }
+
+        @Override
+        public synchronized void onError(Exception e) {
+            errors.add(e);
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void deliversOnceWhetherAttachedBeforeOrAfterTheResponse() {
+        PendingHistory early = new PendingHistory("a", 0);
+        RecordingCallback beforeResponse = new RecordingCallback();
+        early.attach(beforeResponse);
+        assertTrue(beforeResponse.pages.isEmpty());
+        assertTrue(early.complete(page("a")));
+        assertFalse(early.complete(page("a")));
+        assertFalse(early.fail(new Exception("late")));
+        assertEquals(1, beforeResponse.pages.size());
+        assertTrue(beforeResponse.errors.isEmpty());
+
+        PendingHistory late = new PendingHistory("b", 0);
+        late.complete(page("b"));
+        RecordingCallback afterResponse = new RecordingCallback();
+        late.attach(afterResponse);
+        assertEquals(1, afterResponse.pages.size());
+        assertEquals("b", afterResponse.pages.get(0).chatId);
+    }
+
+    @Test
+    public void chunksReachOnlyAnAttachedCallbackBeforeThePageArrives() {
+        PendingHistory pending = new PendingHistory("a", 0);
+        List<Message> first = Collections.singletonList(new Message("u", "first", "n", 1000));
+        List<Message> second = Collections.singletonList(new Message("u", "second", "n", 1001));
+        pending.chunk(first);
+
+        RecordingCallback callback = new RecordingCallback();
+        pending.attach(callback);
+        pending.chunk(second);
+        pending.complete(page("a"));
+        pending.chunk(second);
+
+        assertEquals(Collections.singletonList(second), callback.chunks);
+        assertEquals(1, callback.pages.size());
+    }
+
+    @Test
+    public void failureIsReportedSoTheChatCanRequestAgain() {
+        PendingHistory pending = new PendingHistory("a", 0);
+        RecordingCallback callback = new RecordingCallback();
+        pending.attach(callback);
+        assertTrue(pending.fail(new Exception("timed out")));
+        assertFalse(pending.complete(page("a")));
+        assertTrue(pending.isDone());
+        assertEquals(1, callback.errors.size());
+        assertTrue(callback.pages.isEmpty());
+    }
+
+    // 伺服器在 ROUND_TRIP_MS 後回應
+    private static void respondLater(PendingHistory pending) {
+        Thread server = new Thread(() -> {
+            try {
+                Thread.sleep(ROUND_TRIP_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.complete(page(pending.getChatId()));
+        });
+        server.setDaemon(true);
+        server.start();
+    }
+
+    private static long tapToFirstMessage(boolean requestOnTap) throws Exception {
+        long tap = System.nanoTime();
+        PendingHistory pending = null;
+        if (requestOnTap) {
+            pending = new PendingHistory("a", System.currentTimeMillis());
+            respondLater(pending);
+        }
+        Thread.sleep(LAUNCH_MS);
+        if (pending == null) {
+            // 改動前：ViewModel 建立後才送出請求
+            pending = new PendingHistory("a", System.currentTimeMillis());
+            respondLater(pending);
+        }
+        RecordingCallback callback = new RecordingCallback();
+        pending.attach(callback);
+        assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - tap);
+    }
+
+    /** 以模擬的啟動與往返時間比較兩種做法；實機數字以 HistoryMetrics 的點擊到首次顯示為準。 */
+    @Test
+    public void measureTapToFirstMessage() throws Exception {
+        Benchmarks.assumeEnabled();
+        long before = tapToFirstMessage(false);
+        long after = tapToFirstMessage(true);
+        Benchmarks.report("Tap to first message (launch %dms, round trip %dms): request after launch %dms, on tap %dms",
+                LAUNCH_MS, ROUND_TRIP_MS, before, after);
+        assertTrue(before >= LAUNCH_MS + ROUND_TRIP_MS);
+        // 啟動與往返重疊，只剩兩者中較長的那段
+        assertTrue(after < LAUNCH_MS + ROUND_TRIP_MS - 50);
+    }
+}
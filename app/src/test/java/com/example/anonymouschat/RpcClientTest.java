@@ -0,0 +1,238 @@
+package com.example.anonymouschat;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RpcClientTest {
+
+    private static class FakeTransport implements RpcClient.Transport {
+        final List<JSONObject> sent = new ArrayList<>();
+        final Map<String, RpcClient.ResponseHandler> handlers = new HashMap<>();
+        volatile boolean connected = true;
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public synchronized void emit(String event, JSONObject payload) {
+            sent.add(payload);
+        }
+
+        @Override
+        public void listen(String event, RpcClient.ResponseHandler handler) {
+            handlers.put(event, handler);
+        }
+
+        synchronized int sentCount() {
+            return sent.size();
+        }
+
+        void reply(String event, JSONObject response) {
+            handlers.get(event).onResponse(response);
+        }
+    }
+
+    private static JSONObject ok(String requestId) throws Exception {
+        JSONObject response = new JSONObject().put("success", true);
+        if (requestId != null) response.put("requestId", requestId);
+        return response;
+    }
+
+    @Test
+    public void responseIsMatchedByRequestIdAndStaleResponsesAreDropped() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        RpcClient rpc = new RpcClient(transport, Runnable::run);
+        RpcClient.RpcFuture<JSONObject> first = rpc.call("searchUsers", "searchUsersResponse", new JSONObject().put("query", "a"), RpcClient.successOrThrow());
+        RpcClient.RpcFuture<JSONObject> second = rpc.call("searchUsers", "searchUsersResponse", new JSONObject().put("query", "b"), RpcClient.successOrThrow());
+
+        String secondId = transport.sent.get(1).getString("requestId");
+        transport.reply("searchUsersResponse", ok(secondId).put("users", "b"));
+        transport.reply("searchUsersResponse", ok("unknown-id").put("users", "stale"));
+
+        assertTrue(second.isDone());
+        assertFalse(first.isDone());
+        assertEquals("b", second.get(1, TimeUnit.SECONDS).getString("users"));
+        assertEquals(1, rpc.pendingCount());
+    }
+
+    @Test
+    public void legacyResponseWithoutRequestIdCompletesOldestCall() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        RpcClient rpc = new RpcClient(transport, Runnable::run);
+        RpcClient.RpcFuture<JSONObject> first = rpc.call("joinGroupRequest", "joinGroupResponse", new JSONObject().put("groupId", "1"), RpcClient.successOrThrow());
+        RpcClient.RpcFuture<JSONObject> second = rpc.call("joinGroupRequest", "joinGroupResponse", new JSONObject().put("groupId", "2"), RpcClient.successOrThrow());
+
+        transport.reply("joinGroupResponse", new JSONObject().put("success", false).put("message", "wrong password"));
+
+        try {
+            first.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (RpcClient.RemoteException e) {
+            assertEquals("wrong password", e.getMessage());
+        }
+        assertFalse(second.isDone());
+    }
+
+    @Test
+    public void timeoutRetriesWithSameRequestIdThenFails() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        RpcClient rpc = new RpcClient(transport, Runnable::run);
+        RpcClient.RpcFuture<JSONObject> future = rpc.call("friendRequest", "friendRequestResponse",
+                new JSONObject().put("toUid", "x"), RpcClient.successOrThrow(), 50, 3);
+
+        try {
+            future.get(2, TimeUnit.SECONDS);
+            fail();
+        } catch (TimeoutException expected) {
+            // 三次都逾時
+        }
+        assertEquals(3, transport.sentCount());
+        String id = transport.sent.get(0).getString("requestId");
+        for (JSONObject payload : transport.sent) {
+            assertEquals(id, payload.getString("requestId"));
+        }
+        assertEquals(0, rpc.pendingCount());
+    }
+
+    @Test
+    public void identicalInFlightCallsAreDeduplicated() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        RpcClient rpc = new RpcClient(transport, Runnable::run);
+        RpcClient.RpcFuture<JSONObject> first = rpc.call("searchUsers", "searchUsersResponse", new JSONObject().put("query", "same"), RpcClient.successOrThrow());
+        RpcClient.RpcFuture<JSONObject> second = rpc.call("searchUsers", "searchUsersResponse", new JSONObject().put("query", "same"), RpcClient.successOrThrow());
+
+        assertNotSame(first, second);
+        assertEquals(1, transport.sentCount());
+        transport.reply("searchUsersResponse", ok(transport.sent.get(0).getString("requestId")));
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+
+        rpc.call("searchUsers", "searchUsersResponse", new JSONObject().put("query", "same"), RpcClient.successOrThrow());
+        assertEquals(2, transport.sentCount());
+    }
+
+    @Test
+    public void callsSharingAParserFieldAreDeduplicated() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        RpcClient rpc = new RpcClient(transport, Runnable::run);
+        RpcClient.Parser<String> users = response -> response.getString("users");
+        RpcClient.RpcFuture<String> first = rpc.call("searchUsers", "searchUsersResponse", new JSONObject().put("query", "q"), users);
+        RpcClient.RpcFuture<String> second = rpc.call("searchUsers", "searchUsersResponse", new JSONObject().put("query", "q"), users);
+        assertSame(RpcClient.successOrThrow(), RpcClient.successOrThrow());
+        assertEquals(1, transport.sentCount());
+
+        transport.reply("searchUsersResponse", ok(transport.sent.get(0).getString("requestId")).put("users", "u"));
+        assertEquals("u", first.get(1, TimeUnit.SECONDS));
+        assertEquals("u", second.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void singleAttemptCallIsNotRetried() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        RpcClient rpc = new RpcClient(transport, Runnable::run);
+        RpcClient.RpcFuture<JSONObject> future = rpc.call("joinGroupRequest", "joinGroupResponse",
+                new JSONObject().put("groupId", "1"), RpcClient.successOrThrow(), 50, 1);
+
+        try {
+            future.get(2, TimeUnit.SECONDS);
+            fail();
+        } catch (TimeoutException expected) {
+            // 只送出一次
+        }
+        assertEquals(1, transport.sentCount());
+    }
+
+    @Test
+    public void cancellingOneJoinerDoesNotCancelTheOthers() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        RpcClient rpc = new RpcClient(transport, Runnable::run);
+        JSONObject payload = new JSONObject().put("query", "same");
+        RpcClient.RpcFuture<JSONObject> first = rpc.call("searchUsers", "searchUsersResponse", new JSONObject(payload.toString()), RpcClient.successOrThrow());
+        RpcClient.RpcFuture<JSONObject> second = rpc.call("searchUsers", "searchUsersResponse", new JSONObject(payload.toString()), RpcClient.successOrThrow());
+
+        first.cancel();
+        assertEquals(1, rpc.pendingCount());
+        transport.reply("searchUsersResponse", ok(transport.sent.get(0).getString("requestId")).put("users", "x"));
+        assertTrue(first.isCancelled());
+        assertEquals("x", second.get(1, TimeUnit.SECONDS).getString("users"));
+
+        // 全部呼叫端都取消後才停止等待
+        RpcClient.RpcFuture<JSONObject> third = rpc.call("searchUsers", "searchUsersResponse", new JSONObject(payload.toString()), RpcClient.successOrThrow());
+        RpcClient.RpcFuture<JSONObject> fourth = rpc.call("searchUsers", "searchUsersResponse", new JSONObject(payload.toString()), RpcClient.successOrThrow());
+        third.cancel();
+        assertEquals(1, rpc.pendingCount());
+        fourth.cancel();
+        assertEquals(0, rpc.pendingCount());
+    }
+
+    @Test
+    public void callsWithDifferentParsersAreNotJoined() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        RpcClient rpc = new RpcClient(transport, Runnable::run);
+        RpcClient.RpcFuture<JSONObject> raw = rpc.call("searchUsers", "searchUsersResponse", new JSONObject().put("query", "q"), RpcClient.successOrThrow());
+        RpcClient.RpcFuture<String> users = rpc.call("searchUsers", "searchUsersResponse", new JSONObject().put("query", "q"), response -> response.getString("users"));
+        assertEquals(2, transport.sentCount());
+
+        transport.reply("searchUsersResponse", ok(transport.sent.get(1).getString("requestId")).put("users", "u"));
+        assertEquals("u", users.get(1, TimeUnit.SECONDS));
+        assertFalse(raw.isDone());
+    }
+
+    @Test
+    public void cancelledCallNeverInvokesCallbacks() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        RpcClient rpc = new RpcClient(transport, Runnable::run);
+        AtomicInteger callbacks = new AtomicInteger();
+        RpcClient.RpcFuture<JSONObject> future = rpc.call("searchUsers", "searchUsersResponse", new JSONObject().put("query", "q"), RpcClient.successOrThrow());
+        future.then(new RpcClient.Callback<JSONObject>() {
+            @Override
+            public void onSuccess(JSONObject result) {
+                callbacks.incrementAndGet();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                callbacks.incrementAndGet();
+            }
+        });
+
+        future.cancel();
+        transport.reply("searchUsersResponse", ok(transport.sent.get(0).getString("requestId")));
+
+        assertTrue(future.isCancelled());
+        assertEquals(0, callbacks.get());
+        assertEquals(0, rpc.pendingCount());
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (CancellationException expected) {
+            // 已取消
+        }
+    }
+
+    @Test
+    public void deferredCallIsSentOnConnect() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.connected = false;
+        RpcClient rpc = new RpcClient(transport, Runnable::run);
+        rpc.call("friendRequest", "friendRequestResponse", new JSONObject().put("toUid", "y"), RpcClient.successOrThrow());
+        assertEquals(0, transport.sentCount());
+
+        transport.connected = true;
+        rpc.onConnected();
+        assertEquals(1, transport.sentCount());
+    }
+}
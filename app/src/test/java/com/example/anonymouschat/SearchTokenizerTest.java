@@ -0,0 +1,38 @@
+package com.example.anonymouschat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SearchTokenizerTest {
+
+    @Test
+    public void splitsChineseIntoBigramsAndLatinIntoWords() {
+        assertEquals("今天 天晚 晚上 上要 要一 一起 起吃 吃飯 飯 ok 7",
+                SearchTokenizer.tokenize("今天晚上要一起吃飯？OK 7"));
+        assertEquals(Arrays.asList("hello", "世界", "界", "café"),
+                SearchTokenizer.tokens("Hello,世界!Café", true));
+        assertEquals("", SearchTokenizer.tokenize("？！ 👋"));
+        assertEquals("", SearchTokenizer.tokenize(null));
+    }
+
+    @Test
+    public void buildsPhraseQueries() {
+        assertEquals("\"今天 天晚\"", SearchTokenizer.matchQuery("今天晚"));
+        assertEquals("\"晚*\"", SearchTokenizer.matchQuery("晚"));
+        assertEquals("\"吃飯 飯 ok*\"", SearchTokenizer.matchQuery("吃飯 OK"));
+        assertEquals("\"hel*\"", SearchTokenizer.matchQuery("hel"));
+        assertNull(SearchTokenizer.matchQuery("  ？ "));
+    }
+
+    @Test
+    public void queryTokensAreContiguousInIndexedText() {
+        String indexed = " " + SearchTokenizer.tokenize("我們今天晚上要一起吃飯 ok 嗎") + " ";
+        for (String query : new String[]{"今天晚上", "天晚", "吃飯 ok", "一起吃", "ok 嗎"}) {
+            String phrase = String.join(" ", SearchTokenizer.tokens(query, false));
+            assertTrue(query + " -> " + phrase, indexed.contains(" " + phrase + " "));
+        }
+    }
+}